@@ -19,7 +19,7 @@ public class BalanceAcceleration extends Indicator {
 
     @Override
     public void calculate() {
-        double balance = marketBook.getSnapshot().getBalance();
+        double balance = marketBook.getBalance();
         fast += (balance - fast) * fastMultiplier;
         interm += (balance - interm) * intermMutiplier;
         slow += (balance - slow) * slowMultiplier;
@@ -28,6 +28,6 @@ public class BalanceAcceleration extends Indicator {
 
     @Override
     public void reset() {
-        fast = slow = interm = marketBook.getSnapshot().getBalance();
+        fast = slow = interm = marketBook.getBalance();
     }
 }
@@ -17,7 +17,7 @@ public class BalanceVelocity extends Indicator {
 
     @Override
     public void calculate() {
-        double balance = marketBook.getSnapshot().getBalance();
+        double balance = marketBook.getBalance();
         fast += (balance - fast) * fastMultiplier;
         slow += (balance - slow) * slowMultiplier;
 
@@ -26,6 +26,6 @@ public class BalanceVelocity extends Indicator {
 
     @Override
     public void reset() {
-        fast = slow = marketBook.getSnapshot().getBalance();
+        fast = slow = marketBook.getBalance();
     }
 }
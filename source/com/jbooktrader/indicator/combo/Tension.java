@@ -1,7 +1,6 @@
 package com.jbooktrader.indicator.combo;
 
 import com.jbooktrader.platform.indicator.*;
-import com.jbooktrader.platform.marketbook.*;
 
 /**
  * Tension of limit order book
@@ -19,15 +18,13 @@ public class Tension extends Indicator {
 
     @Override
     public void calculate() {
-        MarketSnapshot snapshot = marketBook.getSnapshot();
-
         // balance
-        double balance = snapshot.getBalance();
+        double balance = marketBook.getBalance();
         aveBalance += (balance - aveBalance) * multiplier;
         double balanceVelocity = balance - aveBalance;
 
         // price
-        double price = snapshot.getPrice();
+        double price = marketBook.getPrice();
         avePrice += (price - avePrice) * multiplier;
         double priceVelocity = price - avePrice;
 
@@ -38,6 +35,6 @@ public class Tension extends Indicator {
     @Override
     public void reset() {
         aveBalance = value = 0;
-        avePrice = marketBook.getSnapshot().getPrice();
+        avePrice = marketBook.getPrice();
     }
 }
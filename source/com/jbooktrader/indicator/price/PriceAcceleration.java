@@ -19,7 +19,7 @@ public class PriceAcceleration extends Indicator {
 
     @Override
     public void calculate() {
-        double price = marketBook.getSnapshot().getPrice();
+        double price = marketBook.getPrice();
         fast += (price - fast) * fastMultiplier;
         interm += (price - interm) * intermMutiplier;
         slow += (price - slow) * slowMultiplier;
@@ -28,6 +28,6 @@ public class PriceAcceleration extends Indicator {
 
     @Override
     public void reset() {
-        fast = slow = interm = marketBook.getSnapshot().getPrice();
+        fast = slow = interm = marketBook.getPrice();
     }
 }
\ No newline at end of file
@@ -41,7 +41,7 @@ public class PriceBollinger extends Indicator {
 
     @Override
     public void calculate() {
-        double price = marketBook.getSnapshot().getPrice();
+        double price = marketBook.getPrice();
         prices.add(price);
 
         if (prices.isFull()) {
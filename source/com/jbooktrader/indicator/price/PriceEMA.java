@@ -18,7 +18,7 @@ public class PriceEMA extends Indicator {
 
     @Override
     public void calculate() {
-        double price = marketBook.getSnapshot().getPrice();
+        double price = marketBook.getPrice();
         value += alpha * (price - value);
     }
 
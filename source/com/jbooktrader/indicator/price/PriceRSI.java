@@ -19,7 +19,7 @@ public class PriceRSI extends Indicator {
 
     @Override
     public void calculate() {
-        double price = marketBook.getSnapshot().getPrice();
+        double price = marketBook.getPrice();
         if (previousPrice == 0) {
             value = 50;
         } else {
@@ -17,7 +17,7 @@ public class PriceVelocity extends Indicator {
 
     @Override
     public void calculate() {
-        double price = marketBook.getSnapshot().getPrice();
+        double price = marketBook.getPrice();
         fast += (price - fast) * fastMultiplier;
         slow += (price - slow) * slowMultiplier;
         value = fast - slow;
@@ -25,6 +25,6 @@ public class PriceVelocity extends Indicator {
 
     @Override
     public void reset() {
-        fast = slow = marketBook.getSnapshot().getPrice();
+        fast = slow = marketBook.getPrice();
     }
 }
@@ -19,7 +19,7 @@ public class VolumeAcceleration extends Indicator {
 
     @Override
     public void calculate() {
-        double volume = marketBook.getSnapshot().getVolume();
+        double volume = marketBook.getVolume();
         fast += (volume - fast) * fastMultiplier;
         interm += (volume - interm) * intermMutiplier;
         slow += (volume - slow) * slowMultiplier;
@@ -28,6 +28,6 @@ public class VolumeAcceleration extends Indicator {
 
     @Override
     public void reset() {
-        fast = slow = interm = marketBook.getSnapshot().getVolume();
+        fast = slow = interm = marketBook.getVolume();
     }
 }
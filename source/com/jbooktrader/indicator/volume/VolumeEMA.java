@@ -15,7 +15,7 @@ public class VolumeEMA extends Indicator {
 
     @Override
     public void calculate() {
-        int volume = marketBook.getSnapshot().getVolume();
+        int volume = marketBook.getVolume();
         value += (volume - value) * multiplier;
     }
 
@@ -17,7 +17,7 @@ public class VolumeVelocity extends Indicator {
 
     @Override
     public void calculate() {
-        double volume = marketBook.getSnapshot().getVolume();
+        double volume = marketBook.getVolume();
         fast += (volume - fast) * fastMultiplier;
         slow += (volume - slow) * slowMultiplier;
 
@@ -26,6 +26,6 @@ public class VolumeVelocity extends Indicator {
 
     @Override
     public void reset() {
-        fast = slow = marketBook.getSnapshot().getVolume();
+        fast = slow = marketBook.getVolume();
     }
 }
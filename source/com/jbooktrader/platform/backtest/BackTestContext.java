@@ -0,0 +1,10 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.chart.*;
+
+/**
+ * Where a BackTester reports its progress: the back test dialog, or the command line.
+ */
+public interface BackTestContext extends ProgressListener {
+    BarSize getBarSize();
+}
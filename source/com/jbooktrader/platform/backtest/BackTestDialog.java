@@ -20,7 +20,7 @@ import java.util.*;
 /**
  * Dialog to specify options for back testing using a historical data file.
  */
-public class BackTestDialog extends JBTDialog implements ProgressListener {
+public class BackTestDialog extends JBTDialog implements BackTestContext {
     private final PreferencesHolder prefs;
     private final String strategyName;
     private JButton cancelButton, backTestButton, selectFileButton;
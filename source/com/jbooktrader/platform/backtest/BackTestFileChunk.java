@@ -0,0 +1,384 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Parses one byte range of a historical data file in the text format. The range
+ * starts and ends on line boundaries, and is parsed independently of the other
+ * ranges, so that the chunks of a file can be parsed in parallel on a fork-join pool.
+ * The timestamps are validated within the chunk only; the reader validates the
+ * timestamps at the seams between adjacent chunks.
+ */
+public class BackTestFileChunk extends RecursiveTask<SnapshotSeries> {
+    private static final int AVERAGE_LINE_SIZE = 32;
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    // mantissas of up to 15 digits are exact doubles (less than 2^53)
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private final FileChannel channel;
+    private final long start, end;
+    private final TimeZone timeZone;
+    private final MarketSnapshotFilter filter;
+    private final ProgressListener progressListener;
+    private final AtomicLong bytesParsed;
+    private final DayIndex dayIndex;
+    private SimpleDateFormat sdf;
+    private byte[] bytes;
+    private int lineStart, lineEnd, day;
+    private long dayStart;
+    private long previousTime, time, firstTime;
+    private double balance, price;
+    private int volume;
+    private String previousDateTimeWithoutSeconds;
+    private int lineCount, firstLineNumber;
+    private String firstLine;
+    private String errorLine;
+    private Exception error;
+
+    public BackTestFileChunk(FileChannel channel, long start, long end, TimeZone timeZone, MarketSnapshotFilter filter,
+                             ProgressListener progressListener, AtomicLong bytesParsed, boolean isIndexed) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.timeZone = timeZone;
+        this.filter = filter;
+        this.progressListener = progressListener;
+        this.bytesParsed = bytesParsed;
+        dayIndex = isIndexed ? new DayIndex(timeZone) : null;
+        previousDateTimeWithoutSeconds = "";
+        day = -1;
+    }
+
+    @Override
+    protected SnapshotSeries compute() {
+        int length = (int) (end - start);
+        SnapshotSeries snapshots = new SnapshotSeries(length / AVERAGE_LINE_SIZE);
+        if (progressListener.isCancelled()) {
+            return snapshots;
+        }
+
+        sdf = new SimpleDateFormat("MMddyyHHmmss");
+        // Enforce strict interpretation of date and time formats
+        sdf.setLenient(false);
+        sdf.setTimeZone(timeZone);
+
+        try {
+            bytes = read(length);
+            int nextLineStart = 0;
+            while (nextLineStart < length) {
+                lineStart = nextLineStart;
+                lineEnd = lineStart;
+                while (lineEnd < length && bytes[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                nextLineStart = lineEnd + 1;
+                if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                lineCount++;
+
+                boolean isComment = (lineEnd > lineStart && bytes[lineStart] == '#');
+                boolean isProperty = (indexOf('=', lineStart, lineEnd) != -1);
+                boolean isBlankLine = isBlank(lineStart, lineEnd);
+                boolean isMarketDepthLine = !(isComment || isProperty || isBlankLine);
+                if (isMarketDepthLine) {
+                    parseLine();
+                    if (filter == null || filter.contains(time)) {
+                        snapshots.add(time, balance, price, volume);
+                    }
+                    if (dayIndex != null) {
+                        dayIndex.add(time, start + lineStart, lineCount - 1);
+                    }
+                    if (firstTime == 0) {
+                        firstTime = time;
+                        firstLine = getLine();
+                        firstLineNumber = lineCount;
+                    }
+                    previousTime = time;
+                } else if (isProperty) {
+                    String line = getLine();
+                    if (line.startsWith("timeZone")) {
+                        String timeZoneId = line.substring(line.indexOf('=') + 1);
+                        if (!timeZoneId.equals(timeZone.getID())) {
+                            throw new JBookTraderException("The time zone cannot be changed after the first market depth line.");
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            errorLine = (bytes == null) ? "" : getLine();
+            error = e;
+        }
+
+        bytes = null;
+        bytesParsed.addAndGet(length);
+        snapshots.trimToSize();
+        return snapshots;
+    }
+
+    /**
+     * Parses the current line directly from the bytes into the primitive fields, without
+     * creating any objects. Lines which are not in the canonical MMddyy,HHmmss form, and
+     * days on which the UTC offset of the time zone changes, are left to toMarketDepth(),
+     * which produces the same values and the same errors as before.
+     */
+    private void parseLine() throws JBookTraderException, ParseException {
+        int comma1 = indexOf(',', lineStart, lineEnd);
+        int comma2 = indexOf(',', comma1 + 1, lineEnd);
+        int comma3 = indexOf(',', comma2 + 1, lineEnd);
+        int comma4 = indexOf(',', comma3 + 1, lineEnd);
+        boolean isCanonical = (comma1 == lineStart + 6 && comma2 == comma1 + 7 && comma3 != -1 && comma4 != -1);
+        isCanonical = isCanonical && indexOf(',', comma4 + 1, lineEnd) == -1;
+        int date = isCanonical ? parseDigits(lineStart, comma1) : -1;
+        int timeOfDay = isCanonical ? parseDigits(comma1 + 1, comma2) : -1;
+
+        if (date != -1 && date != day) {
+            setDay(date);
+        }
+
+        int hours = timeOfDay / 10000, minutes = (timeOfDay / 100) % 100, seconds = timeOfDay % 100;
+        boolean isValidTime = (hours < 24 && minutes < 60 && seconds < 60);
+        if (date == -1 || timeOfDay == -1 || dayStart == -1 || !isValidTime) {
+            toMarketDepth(getLine());
+            return;
+        }
+
+        time = dayStart + 1000L * (hours * 3600 + minutes * 60 + seconds);
+        if (time <= previousTime) {
+            String msg = "Timestamp of this line is before or the same as the timestamp of the previous line.";
+            throw new JBookTraderException(msg);
+        }
+
+        balance = parseDouble(comma2 + 1, comma3);
+        price = parseDouble(comma3 + 1, comma4);
+        volume = parseInt(comma4 + 1, lineEnd);
+        // the next line which falls back to toMarketDepth() must parse its full date and time
+        previousDateTimeWithoutSeconds = "";
+    }
+
+    /**
+     * Caches the start of the day in the time zone of the data file. The day start is
+     * only used when the UTC offset is the same throughout the day; otherwise it is -1.
+     */
+    private void setDay(int date) {
+        day = date;
+        dayStart = -1;
+        try {
+            long midnight = sdf.parse(new String(bytes, lineStart, 6, CHARSET) + "000000").getTime();
+            if (timeZone.getOffset(midnight) == timeZone.getOffset(midnight + DAY - 1)) {
+                dayStart = midnight;
+            }
+        } catch (ParseException pe) {
+            // invalid date, or no midnight on this day: toMarketDepth() handles it
+        }
+    }
+
+    private double parseDouble(int from, int to) {
+        int index = from;
+        boolean isNegative = false;
+        if (index < to && (bytes[index] == '-' || bytes[index] == '+')) {
+            isNegative = (bytes[index] == '-');
+            index++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, fractionDigits = 0;
+        boolean isFraction = false;
+        for (; index < to; index++) {
+            int b = bytes[index];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (isFraction) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !isFraction) {
+                isFraction = true;
+            } else {
+                digits = MAX_EXACT_DIGITS + 1;
+                break;
+            }
+        }
+
+        if (digits == 0 || digits > MAX_EXACT_DIGITS || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(new String(bytes, from, to - from, CHARSET));
+        }
+
+        // Both the mantissa and the power of ten are exact doubles, so a single
+        // division gives the correctly rounded result, same as Double.parseDouble()
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return isNegative ? -value : value;
+    }
+
+    private int parseInt(int from, int to) {
+        int index = from;
+        boolean isNegative = false;
+        if (index < to && (bytes[index] == '-' || bytes[index] == '+')) {
+            isNegative = (bytes[index] == '-');
+            index++;
+        }
+
+        int value = parseDigits(index, to);
+        if (value == -1 || to - index > 9) {
+            return Integer.parseInt(new String(bytes, from, to - from, CHARSET));
+        }
+        return isNegative ? -value : value;
+    }
+
+    /**
+     * Returns the value of the unsigned decimal number, or -1 if there are non-digits.
+     */
+    private int parseDigits(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int index = from; index < to; index++) {
+            int digit = bytes[index] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int indexOf(int b, int from, int to) {
+        if (from < 0) {
+            return -1;
+        }
+        for (int index = from; index < to; index++) {
+            if (bytes[index] == b) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int index = from; index < to; index++) {
+            if (bytes[index] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getLine() {
+        return new String(bytes, lineStart, lineEnd - lineStart, CHARSET);
+    }
+
+    private void toMarketDepth(String line) throws JBookTraderException, ParseException {
+        List<String> tokens = fastSplit(line);
+
+        if (tokens.size() != BackTestFileReader.COLUMNS) {
+            String msg = "The line should contain exactly " + BackTestFileReader.COLUMNS + " comma-separated columns.";
+            throw new JBookTraderException(msg);
+        }
+
+        String dateTime = tokens.get(0) + tokens.get(1);
+        String dateTimeWithoutSeconds = dateTime.substring(0, 10);
+
+        if (dateTimeWithoutSeconds.equals(previousDateTimeWithoutSeconds)) {
+            // only seconds need to be set
+            int milliSeconds = 1000 * Integer.parseInt(dateTime.substring(10));
+            long previousMilliSeconds = previousTime % 60000;
+            time = previousTime + (milliSeconds - previousMilliSeconds);
+        } else {
+            time = sdf.parse(dateTime).getTime();
+            previousDateTimeWithoutSeconds = dateTimeWithoutSeconds;
+        }
+
+        if (time <= previousTime) {
+            String msg = "Timestamp of this line is before or the same as the timestamp of the previous line.";
+            throw new JBookTraderException(msg);
+        }
+
+        balance = Double.parseDouble(tokens.get(2));
+        price = Double.parseDouble(tokens.get(3));
+        volume = Integer.parseInt(tokens.get(4));
+    }
+
+    private List<String> fastSplit(String s) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int index, lastIndex = 0;
+        while ((index = s.indexOf(',', lastIndex)) != -1) {
+            tokens.add(s.substring(lastIndex, index));
+            lastIndex = index + 1;
+        }
+        tokens.add(s.substring(lastIndex));
+        return tokens;
+    }
+
+    private byte[] read(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of data file");
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Timestamp of the first market depth line of the chunk, whether or not it passed the filter.
+     */
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    /**
+     * Timestamp of the last market depth line of the chunk, whether or not it passed the filter.
+     */
+    public long getLastTime() {
+        return previousTime;
+    }
+
+    /**
+     * Index of the days which start in this chunk, with rows counted from the start of the chunk.
+     */
+    public DayIndex getDayIndex() {
+        return dayIndex;
+    }
+
+    public String getFirstLine() {
+        return firstLine;
+    }
+
+    /**
+     * Number of the first market depth line of the chunk, counted from the start of the chunk.
+     */
+    public int getFirstLineNumber() {
+        return firstLineNumber;
+    }
+
+    /**
+     * Number of lines parsed, counted from the start of the chunk. If parsing failed,
+     * this is the number of the line which failed.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public String getErrorLine() {
+        return errorLine;
+    }
+}
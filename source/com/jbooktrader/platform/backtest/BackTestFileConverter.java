@@ -0,0 +1,90 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+
+/**
+ * Converts a historical data file in the text format (MMddyy,HHmmss,balance,price,volume)
+ * to the binary columnar format, which loads much faster in the back tester and optimizer,
+ * or to the block-compressed format, which is several times smaller, if the name of the
+ * output file has the CompressedSnapshotFile extension. The conversion only needs to be
+ * done once per data file. The data file is read as a stream, so that files of any size
+ * can be converted.
+ */
+public class BackTestFileConverter implements ProgressListener {
+    private static final int COMPRESSED_BLOCK_SIZE = 4096;// snapshots
+    private int previousPercent = -1;
+
+    public static void main(String[] args) throws JBookTraderException {
+        if (args.length != 2) {
+            System.out.println("Usage: <fileNameIn> <fileNameOut" + BinarySnapshotFile.EXTENSION + "|" + CompressedSnapshotFile.EXTENSION + ">");
+            System.exit(1);
+        }
+
+        int count = new BackTestFileConverter().convert(args[0], args[1]);
+        System.out.println("Converted " + count + " snapshots. Completed.");
+    }
+
+    public int convert(String fileNameIn, String fileNameOut) throws JBookTraderException {
+        BackTestFileReader reader = new BackTestFileReader(fileNameIn, null);
+        SnapshotStream stream = reader.openStream(this);
+        try {
+            if (fileNameOut.endsWith(CompressedSnapshotFile.EXTENSION)) {
+                return convertToCompressed(stream, fileNameOut, reader);
+            }
+
+            BinarySnapshotFileWriter writer = new BinarySnapshotFileWriter(fileNameOut, reader.getTimeZone());
+            SnapshotSeries snapshots;
+            while ((snapshots = stream.next()) != null) {
+                int size = snapshots.size();
+                for (int index = 0; index < size; index++) {
+                    writer.write(snapshots.getTime(index), snapshots.getBalance(index), snapshots.getPrice(index), snapshots.getVolume(index));
+                }
+                setProgress(stream.getPosition(), stream.getLength(), "Converting historical data file");
+            }
+            writer.close();
+            return writer.getCount();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private int convertToCompressed(SnapshotStream stream, String fileNameOut, BackTestFileReader reader) throws JBookTraderException {
+        // the compressed writer appends to an existing file
+        new File(fileNameOut).delete();
+        CompressedSnapshotFileWriter writer = new CompressedSnapshotFileWriter(fileNameOut, reader.getTimeZone(), COMPRESSED_BLOCK_SIZE);
+        int count = 0;
+        try {
+            SnapshotSeries snapshots;
+            while ((snapshots = stream.next()) != null) {
+                int size = snapshots.size();
+                for (int index = 0; index < size; index++) {
+                    writer.write(snapshots.getTime(index), snapshots.getBalance(index), snapshots.getPrice(index), snapshots.getVolume(index));
+                }
+                count += size;
+                setProgress(stream.getPosition(), stream.getLength(), "Converting historical data file");
+            }
+        } finally {
+            writer.close();
+        }
+        return count;
+    }
+
+    public void setProgress(String progressText) {
+        System.out.println(progressText);
+    }
+
+    public void setProgress(long count, long iterations, String progressText) {
+        int percent = (int) (100 * (count / (double) iterations));
+        if (percent != previousPercent && percent % 10 == 0) {
+            System.out.println(progressText + ": " + percent + "% completed");
+            previousPercent = percent;
+        }
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+}
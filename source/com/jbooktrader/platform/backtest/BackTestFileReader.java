@@ -4,33 +4,48 @@ import com.jbooktrader.platform.marketbook.*;
 import com.jbooktrader.platform.model.*;
 
 import java.io.*;
-import java.text.*;
 import java.util.*;
 
 /**
  * Reads and validates a data file containing historical market depth records.
  * The data file is used for back testing and optimization of trading strategies.
+ * The text format, the binary columnar format (see BinarySnapshotFile), and the
+ * block-compressed format (see CompressedSnapshotFile) are supported; the format
+ * is detected from the contents of the file.
+ * Text files are split into chunks on line boundaries, which are parsed in parallel.
+ * When a date range is set, the day index of the data file (see DayIndex) is used to
+ * read only the days in the range. The index is created the first time the data file is read.
  */
 public class BackTestFileReader {
     public static final int COLUMNS = 5;
     private static final String LINE_SEP = System.getProperty("line.separator");
-    private final BufferedReader reader;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_CHUNK_SIZE = 256 * 1024;
+    private static final long MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+    private static final long STREAM_CHUNK_SIZE = 1024 * 1024;
+    private final String fileName;
+    private BinarySnapshotFileReader binaryReader;
+    private CompressedSnapshotFileReader compressedReader;
     private final MarketSnapshotFilter filter;
     private final long fileSize;
-    private long previousTime, time;
-    private SimpleDateFormat sdf;
-    private String previousDateTimeWithoutSeconds;
+    private TimeZone timeZone;
+    private int headerLines;
+    private long rangeStart, rangeEnd, linesBefore;
 
     public BackTestFileReader(String fileName, MarketSnapshotFilter filter) throws JBookTraderException {
+        this.fileName = fileName;
         this.filter = filter;
-        previousDateTimeWithoutSeconds = "";
 
-        try {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)));
-            fileSize = new File(fileName).length();
-        } catch (FileNotFoundException fnfe) {
+        File file = new File(fileName);
+        if (!file.isFile()) {
             throw new JBookTraderException("Could not find file " + fileName);
         }
+        fileSize = file.length();
+        if (BinarySnapshotFile.isBinary(file)) {
+            binaryReader = new BinarySnapshotFileReader(fileName, filter);
+        } else if (CompressedSnapshotFile.isCompressed(file)) {
+            compressedReader = new CompressedSnapshotFileReader(fileName, filter);
+        }
     }
 
     private void setTimeZone(String line) throws JBookTraderException {
@@ -41,108 +56,235 @@ public class BackTestFileReader {
             msg += "Examples of valid time zones: " + " America/New_York, Europe/London, Asia/Singapore.";
             throw new JBookTraderException(msg);
         }
-        sdf = new SimpleDateFormat("MMddyyHHmmss");
-        // Enforce strict interpretation of date and time formats
-        sdf.setLenient(false);
-        sdf.setTimeZone(tz);
+        this.timeZone = tz;
     }
 
-    public List<MarketSnapshot> load(ProgressListener progressListener) throws JBookTraderException {
-        String line = "";
-        int lineSeparatorSize = System.getProperty("line.separator").length();
-        long sizeRead = 0, lineNumber = 0;
+    public TimeZone getTimeZone() {
+        if (binaryReader != null) {
+            return binaryReader.getTimeZone();
+        }
+        if (compressedReader != null) {
+            return compressedReader.getTimeZone();
+        }
+        return timeZone;
+    }
 
-        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+    /**
+     * Returns true if the snapshots should be replayed as a stream, because they are
+     * not in the snapshot cache, and would take too much memory to be loaded.
+     */
+    public boolean isStreamed() {
+        SnapshotCache snapshotCache = SnapshotCache.getInstance();
+        if (snapshotCache.get(SnapshotCache.getKey(fileName, filter)) != null) {
+            return false;
+        }
+        // a parsed snapshot takes about as much memory as its line in the text file,
+        // and about four times as much as its compressed form
+        long size = fileSize;
+        if (binaryReader != null) {
+            size = (long) binaryReader.getCount() * BinarySnapshotFile.TIME_SIZE;
+        } else if (compressedReader != null) {
+            size = fileSize * 4;
+        }
+        return !snapshotCache.canHold(size);
+    }
 
-        try {
-            while ((line = reader.readLine()) != null) {
-                if (lineNumber % 50000 == 0) {
-                    progressListener.setProgress(sizeRead, fileSize, "Loading historical data file");
-                    if (progressListener.isCancelled()) {
-                        break;
-                    }
-                }
-                lineNumber++;
-                sizeRead += line.length() + lineSeparatorSize;
-                boolean isComment = line.startsWith("#");
-                boolean isProperty = line.contains("=");
-                boolean isBlankLine = (line.trim().length() == 0);
-                boolean isMarketDepthLine = !(isComment || isProperty || isBlankLine);
-                if (isMarketDepthLine) {
-                    MarketSnapshot marketSnapshot = toMarketDepth(line);
-                    if (filter == null || filter.contains(time)) {
-                        snapshots.add(marketSnapshot);
-                    }
-                    previousTime = time;
-                } else if (isProperty) {
-                    if (line.startsWith("timeZone")) {
-                        setTimeZone(line);
-                    }
-                }
+    /**
+     * Returns the snapshots as a source which can be shared by concurrent readers.
+     * Binary data files are memory-mapped rather than loaded on heap. The snapshots
+     * are kept in the SnapshotCache, so that subsequent runs against the same data
+     * file and date range do not load them again.
+     */
+    public MarketSnapshotSource loadSource(ProgressListener progressListener) throws JBookTraderException {
+        SnapshotCache snapshotCache = SnapshotCache.getInstance();
+        String key = SnapshotCache.getKey(fileName, filter);
+        MarketSnapshotSource snapshots = snapshotCache.get(key);
+        if (snapshots == null) {
+            snapshots = (binaryReader != null) ? binaryReader.map(progressListener) : load(progressListener);
+            if (!progressListener.isCancelled()) {
+                snapshotCache.put(key, snapshots);
             }
+        }
+        return snapshots;
+    }
 
-            if (sdf == null) {
-                String msg = "Property " + "\"timeZone\"" + " is not defined in the data file." + LINE_SEP;
-                throw new JBookTraderException(msg);
-            }
+    public SnapshotSeries load(ProgressListener progressListener) throws JBookTraderException {
+        if (binaryReader != null) {
+            return binaryReader.load(progressListener);
+        }
+        if (compressedReader != null) {
+            return compressedReader.load(progressListener);
+        }
 
-        } catch (IOException ioe) {
-            throw new JBookTraderException("Could not read data file");
-        } catch (Exception e) {
-            String errorMsg = "Problem parsing line #" + lineNumber + ": " + line + LINE_SEP;
-            String description = e.getMessage();
-            if (description == null) {
-                description = e.toString();
+        DayIndex newDayIndex = (readRange() == null) ? new DayIndex(timeZone) : null;
+        long chunkSize = (rangeEnd - rangeStart) / (Runtime.getRuntime().availableProcessors() * CHUNKS_PER_THREAD);
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+        TextSnapshotStream stream = new TextSnapshotStream(fileName, rangeStart, rangeEnd, linesBefore, timeZone, filter,
+                newDayIndex, chunkSize, Integer.MAX_VALUE, progressListener, "Loading historical data file");
+
+        List<SnapshotSeries> blocks = new ArrayList<SnapshotSeries>();
+        int size = 0;
+        try {
+            SnapshotSeries block;
+            while ((block = stream.next()) != null) {
+                blocks.add(block);
+                size += block.size();
             }
-            errorMsg += description;
-            throw new RuntimeException(errorMsg);
+        } finally {
+            stream.close();
         }
 
-        return snapshots;
+        if (newDayIndex != null && !progressListener.isCancelled()) {
+            writeIndex(newDayIndex);
+        }
 
+        SnapshotSeries snapshots = new SnapshotSeries(size);
+        for (SnapshotSeries block : blocks) {
+            snapshots.addAll(block);
+        }
+        return snapshots;
     }
 
-    private MarketSnapshot toMarketDepth(String line) throws JBookTraderException, ParseException {
-        List<String> tokens = fastSplit(line);
+    /**
+     * Returns the number of snapshots, without loading them, unless they are in the snapshot
+     * cache already. The snapshots of a binary data file are mapped, and the others are streamed.
+     */
+    public int count(ProgressListener progressListener) throws JBookTraderException {
+        MarketSnapshotSource snapshots = SnapshotCache.getInstance().get(SnapshotCache.getKey(fileName, filter));
+        if (snapshots != null) {
+            return snapshots.size();
+        }
+        if (binaryReader != null) {
+            return binaryReader.map(progressListener).size();
+        }
+
+        int count = 0;
+        SnapshotStream stream = openStream(progressListener);
+        try {
+            SnapshotSeries block;
+            while ((block = stream.next()) != null) {
+                count += block.size();
+            }
+        } finally {
+            stream.close();
+        }
+        return count;
+    }
 
-        if (tokens.size() != COLUMNS) {
-            String msg = "The line should contain exactly " + COLUMNS + " comma-separated columns.";
-            throw new JBookTraderException(msg);
+    /**
+     * Returns the snapshots as a stream of blocks, which are read as they are needed.
+     * Only a few blocks are held in memory at a time, regardless of the size of the data file.
+     */
+    public SnapshotStream openStream(ProgressListener progressListener) throws JBookTraderException {
+        if (binaryReader != null) {
+            return binaryReader.openStream(progressListener);
+        }
+        if (compressedReader != null) {
+            return compressedReader.openStream(progressListener);
         }
 
-        String dateTime = tokens.get(0) + tokens.get(1);
-        String dateTimeWithoutSeconds = dateTime.substring(0, 10);
+        readRange();
+        return new TextSnapshotStream(fileName, rangeStart, rangeEnd, linesBefore, timeZone, filter, null,
+                STREAM_CHUNK_SIZE, Runtime.getRuntime().availableProcessors() + 1, progressListener, null);
+    }
 
-        if (dateTimeWithoutSeconds.equals(previousDateTimeWithoutSeconds)) {
-            // only seconds need to be set
-            int milliSeconds = 1000 * Integer.parseInt(dateTime.substring(10));
-            long previousMilliSeconds = previousTime % 60000;
-            time = previousTime + (milliSeconds - previousMilliSeconds);
-        } else {
-            time = sdf.parse(dateTime).getTime();
-            previousDateTimeWithoutSeconds = dateTimeWithoutSeconds;
+    /**
+     * Reads the header of the data file, and sets the range of bytes to be parsed.
+     * When a date range is set, the day index of the data file is used to seek to the
+     * first day of the date range, and to stop after its last day. Returns the day
+     * index, or null if the data file does not have one yet.
+     */
+    private DayIndex readRange() throws JBookTraderException {
+        try {
+            rangeStart = readHeader();
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file " + fileName, ioe);
         }
+        rangeEnd = fileSize;
+        linesBefore = headerLines;
 
-        if (time <= previousTime) {
-            String msg = "Timestamp of this line is before or the same as the timestamp of the previous line.";
-            throw new JBookTraderException(msg);
+        DayIndex dayIndex = DayIndex.read(fileName, timeZone);
+        if (dayIndex != null && filter != null && dayIndex.size() != 0) {
+            int first = dayIndex.findStart(filter.getFromDate());
+            int end = dayIndex.findEnd(filter.getToDate());
+            rangeStart = dayIndex.getPosition(first);
+            rangeEnd = (end == dayIndex.size()) ? fileSize : Math.max(rangeStart, dayIndex.getPosition(end));
+            linesBefore = dayIndex.getRow(first);
         }
+        return dayIndex;
+    }
 
-        double balance = Double.parseDouble(tokens.get(2));
-        double price = Double.parseDouble(tokens.get(3));
-        int volume = Integer.parseInt(tokens.get(4));
-        return new MarketSnapshot(time, balance, price, volume);
+    private void writeIndex(DayIndex dayIndex) {
+        try {
+            dayIndex.write(fileName);
+        } catch (JBookTraderException e) {
+            // the index only speeds up loading, so the data file can still be used without it
+        }
     }
 
-    private List<String> fastSplit(String s) {
-        ArrayList<String> tokens = new ArrayList<String>();
-        int index, lastIndex = 0;
-        while ((index = s.indexOf(',', lastIndex)) != -1) {
-            tokens.add(s.substring(lastIndex, index));
-            lastIndex = index + 1;
+    /**
+     * Reads the lines preceding the first market depth line, which define the
+     * properties of the data file. Returns the position of the first market depth line.
+     */
+    private long readHeader() throws IOException, JBookTraderException {
+        headerLines = 0;
+        InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+        try {
+            long position = 0;
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                sb.setLength(0);
+                int lineSize = 0, b;
+                while ((b = in.read()) != -1) {
+                    lineSize++;
+                    if (b == '\n') {
+                        break;
+                    }
+                    if (b != '\r') {
+                        sb.append((char) b);
+                    }
+                }
+                if (lineSize == 0) {
+                    break;
+                }
+
+                String line = sb.toString();
+                boolean isComment = line.startsWith("#");
+                boolean isProperty = line.contains("=");
+                boolean isBlankLine = (line.trim().length() == 0);
+                boolean isMarketDepthLine = !(isComment || isProperty || isBlankLine);
+                if (isMarketDepthLine) {
+                    break;
+                }
+
+                headerLines++;
+                position += lineSize;
+                if (isProperty && line.startsWith("timeZone")) {
+                    try {
+                        setTimeZone(line);
+                    } catch (Exception e) {
+                        throw parsingError(headerLines, line, e);
+                    }
+                }
+            }
+
+            if (timeZone == null) {
+                String msg = "Property " + "\"timeZone\"" + " is not defined in the data file." + LINE_SEP;
+                throw new JBookTraderException(msg);
+            }
+            return position;
+        } finally {
+            in.close();
         }
-        tokens.add(s.substring(lastIndex));
-        return tokens;
     }
 
+    static RuntimeException parsingError(long lineNumber, String line, Exception e) {
+        String errorMsg = "Problem parsing line #" + lineNumber + ": " + line + LINE_SEP;
+        String description = e.getMessage();
+        if (description == null) {
+            description = e.toString();
+        }
+        errorMsg += description;
+        return new RuntimeException(errorMsg);
+    }
 }
@@ -1,89 +1,307 @@
 package com.jbooktrader.platform.backtest;
 
+import com.jbooktrader.platform.marketbook.*;
 import com.jbooktrader.platform.model.*;
 
 import java.io.*;
+import java.text.*;
 import java.util.*;
 
 /**
- * Reads a data file containing historical market depth records, and creates another file,
- * which contains only the records within the specified time frame.
+ * Prepares historical data files for back testing and optimization. Reads one or more
+ * data files of the same instrument, and creates another file, which contains only the
+ * snapshots within the specified hours of the day and date range. Overlapping recordings
+ * are merged in the order of time, and duplicate snapshots (with the same timestamp) are
+ * written once, from the first input file which contains them. The input files are read
+ * with BackTestFileReader, in parallel chunks and with the same validation, and can be in
+ * any of the supported formats. The format of the output file is determined by its
+ * extension, as in BackTestFileConverter.
  */
-public class BackTestFileStripper {
+public class BackTestFileStripper implements ProgressListener {
     public static final int SECONDS_IN_HOUR = 3600;
-    public static final int COLUMNS = 5;
-    private final BufferedReader reader;
-    private final PrintWriter writer;
-    private static long lineNumber;
-    private final int startSecond, endSecond;
-
-    public static void main(String[] args) throws JBookTraderException, IOException {
-        if (args.length != 4) {
-            System.out.println("Usage: <fileNameIn> <fileNameOut> <start hour> <end hour>");
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    private static final int COMPRESSED_BLOCK_SIZE = 4096;// snapshots
+    private static final int PROGRESS_INTERVAL = 100000;// snapshots
+    private final List<String> fileNamesIn;
+    private final String fileNameOut;
+    private int startSecond, endSecond;
+    private MarketSnapshotFilter filter;
+    private int duplicates;
+    private int previousPercent = -1;
+
+    public static void main(String[] args) throws JBookTraderException {
+        List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+        boolean isShortForm = (args.length == 4 && !args[0].startsWith("-") && args[2].matches("\\d+") && args[3].matches("\\d+"));
+        if (isShortForm) {
+            // <fileNameIn> <fileNameOut> <start hour> <end hour>
+            arguments = Arrays.asList("-hours", args[2], args[3], args[1], args[0]);
+        }
+
+        try {
+            BackTestFileStripper btfs = parse(arguments);
+            int count = btfs.process();
+            System.out.println("Wrote " + count + " snapshots, skipped " + btfs.getDuplicates() + " duplicates. Completed.");
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            System.out.println("Usage: [-hours <start hour> <end hour>] [-dates <from MMddyy> <to MMddyy>] [-instrument <symbol>]"
+                    + " <fileNameOut> <fileNameIn or directory>...");
             System.exit(1);
         }
+    }
 
-        BackTestFileStripper btfs = new BackTestFileStripper(args[0], args[1], Integer.valueOf(args[2]), Integer.valueOf(args[3]));
-        btfs.process();
-        System.out.println("Processed " + lineNumber + " lines. Completed.");
+    private static BackTestFileStripper parse(List<String> arguments) throws JBookTraderException {
+        int startHour = 0, endHour = 24;
+        String fromDate = null, toDate = null, instrument = null;
+        int index = 0;
+        try {
+            while (index < arguments.size() && arguments.get(index).startsWith("-")) {
+                String option = arguments.get(index++);
+                if (option.equals("-hours")) {
+                    startHour = Integer.parseInt(arguments.get(index++));
+                    endHour = Integer.parseInt(arguments.get(index++));
+                } else if (option.equals("-dates")) {
+                    fromDate = arguments.get(index++);
+                    toDate = arguments.get(index++);
+                } else if (option.equals("-instrument")) {
+                    instrument = arguments.get(index++);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+        } catch (IndexOutOfBoundsException ioobe) {
+            throw new IllegalArgumentException("Missing option value");
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Hours must be integers");
+        }
+        if (arguments.size() - index < 2) {
+            throw new IllegalArgumentException("Missing file names");
+        }
+
+        String fileNameOut = arguments.get(index++);
+        List<String> fileNamesIn = new ArrayList<String>();
+        for (String fileNameIn : arguments.subList(index, arguments.size())) {
+            fileNamesIn.addAll(getDataFiles(new File(fileNameIn), instrument));
+        }
+        fileNamesIn.remove(fileNameOut);
+
+        BackTestFileStripper btfs = new BackTestFileStripper(fileNamesIn, fileNameOut);
+        btfs.setHours(startHour, endHour);
+        if (fromDate != null) {
+            btfs.setDates(fromDate, toDate);
+        }
+        return btfs;
     }
 
-    public BackTestFileStripper(String fileNameIn, String fileNameOut, int startHour, int endHour) throws JBookTraderException {
+    /**
+     * Returns the data files of the instrument (those whose names start with the
+     * instrument symbol, if it is specified) in a directory, or the file itself.
+     */
+    private static List<String> getDataFiles(File file, String instrument) {
+        List<String> fileNames = new ArrayList<String>();
+        File[] files = file.isDirectory() ? file.listFiles() : new File[] {file};
+        Arrays.sort(files);
+        for (File dataFile : files) {
+            String name = dataFile.getName();
+            boolean isDataFile = !(dataFile.isDirectory() || name.endsWith(DayIndex.EXTENSION) || name.endsWith(".tmp"));
+            boolean isInstrument = (instrument == null || name.startsWith(instrument));
+            if (isDataFile && isInstrument) {
+                fileNames.add(dataFile.getPath());
+            }
+        }
+        return fileNames;
+    }
+
+    public BackTestFileStripper(List<String> fileNamesIn, String fileNameOut) {
+        this.fileNamesIn = fileNamesIn;
+        this.fileNameOut = fileNameOut;
+        setHours(0, 24);
+    }
+
+    /**
+     * Sets the hours of the day (in the time zone of the data files) within which
+     * the snapshots are kept, inclusively.
+     */
+    public void setHours(int startHour, int endHour) {
         startSecond = startHour * SECONDS_IN_HOUR;
         endSecond = endHour * SECONDS_IN_HOUR;
+    }
 
+    /**
+     * Sets the range of dates, in the MMddyy format, within which the snapshots are kept.
+     * As with the date range of the back tester, the dates are in the local time zone.
+     */
+    public void setDates(String fromDate, String toDate) throws JBookTraderException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MMddyy");
+        dateFormat.setLenient(false);
         try {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileNameIn)));
-        } catch (FileNotFoundException fnfe) {
-            throw new JBookTraderException("Could not find file " + fileNameIn);
+            long from = dateFormat.parse(fromDate).getTime();
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(dateFormat.parse(toDate));
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+            filter = new MarketSnapshotFilter(from, calendar.getTimeInMillis() - 1);
+        } catch (ParseException pe) {
+            throw new JBookTraderException("Dates must be in the MMddyy format: " + pe.getMessage());
         }
+    }
 
-        try {
-            writer = new PrintWriter(new BufferedWriter(new FileWriter(fileNameOut, true)));
-        } catch (IOException ioe) {
-            throw new JBookTraderException("Could not write to file " + fileNameOut);
-        }
+    public int getDuplicates() {
+        return duplicates;
     }
 
-    public void process() throws IOException, JBookTraderException {
-        String line;
+    /**
+     * Writes the merged snapshots to the output file, and returns their number.
+     */
+    public int process() throws JBookTraderException {
+        if (fileNamesIn.isEmpty()) {
+            throw new JBookTraderException("There are no data files to process.");
+        }
+
+        int inputs = fileNamesIn.size();
+        SnapshotStream[] streams = new SnapshotStream[inputs];
+        SnapshotSeries[] blocks = new SnapshotSeries[inputs];
+        int[] indexes = new int[inputs];
+        TimeZone timeZone = null;
+        SnapshotWriter writer = null;
+        int count = 0, merged = 0;
+        duplicates = 0;
 
-        while ((line = reader.readLine()) != null) {
-            lineNumber++;
-            if (lineNumber % 1000000 == 0) {
-                System.out.println("Processed " + lineNumber + " lines");
+        try {
+            for (int input = 0; input < inputs; input++) {
+                String fileNameIn = fileNamesIn.get(input);
+                BackTestFileReader reader = new BackTestFileReader(fileNameIn, filter);
+                streams[input] = reader.openStream(this);
+                if (timeZone == null) {
+                    timeZone = reader.getTimeZone();
+                } else if (!timeZone.getID().equals(reader.getTimeZone().getID())) {
+                    String msg = "Data file " + fileNameIn + " is in the " + reader.getTimeZone().getID() + " time zone, not in " + timeZone.getID() + ".";
+                    throw new JBookTraderException(msg);
+                }
+                blocks[input] = streams[input].next();
             }
-            boolean isComment = line.startsWith("#");
-            boolean isProperty = line.contains("=");
-            boolean isBlankLine = (line.trim().length() == 0);
-            boolean isMarketDepthLine = !(isComment || isProperty || isBlankLine);
-            if (!isMarketDepthLine || isInPeriod(line)) {
-                writer.println(line);
+
+            writer = openWriter(timeZone);
+            long previousTime = 0;
+            while (true) {
+                int next = -1;
+                long time = 0;
+                for (int input = 0; input < inputs; input++) {
+                    if (blocks[input] != null) {
+                        long inputTime = blocks[input].getTime(indexes[input]);
+                        if (next == -1 || inputTime < time) {
+                            next = input;
+                            time = inputTime;
+                        }
+                    }
+                }
+                if (next == -1) {
+                    break;
+                }
+
+                SnapshotSeries block = blocks[next];
+                int index = indexes[next];
+                if (merged != 0 && time == previousTime) {
+                    duplicates++;
+                } else if (isInHours(time, timeZone)) {
+                    writer.write(time, block.getBalance(index), block.getPrice(index), block.getVolume(index));
+                    count++;
+                }
+                previousTime = time;
+
+                if (++indexes[next] == block.size()) {
+                    blocks[next] = streams[next].next();
+                    indexes[next] = 0;
+                }
+                if (++merged % PROGRESS_INTERVAL == 0) {
+                    reportProgress(streams);
+                }
+            }
+        } finally {
+            for (SnapshotStream stream : streams) {
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+            if (writer != null) {
+                writer.close();
             }
         }
-        reader.close();
-        writer.close();
+        return count;
     }
 
-    private boolean isInPeriod(String line) throws JBookTraderException {
+    private boolean isInHours(long time, TimeZone timeZone) {
+        int secondOfDay = (int) (((time + timeZone.getOffset(time)) % DAY) / 1000);
+        return (secondOfDay >= startSecond && secondOfDay <= endSecond);
+    }
+
+    private void reportProgress(SnapshotStream[] streams) {
+        long position = 0, length = 0;
+        for (SnapshotStream stream : streams) {
+            position += stream.getPosition();
+            length += stream.getLength();
+        }
+        setProgress(position, length, "Processing historical data files");
+    }
+
+    private interface SnapshotWriter {
+        void write(long time, double balance, double price, int volume) throws JBookTraderException;
+
+        void close() throws JBookTraderException;
+    }
 
-        StringTokenizer st = new StringTokenizer(line, ",");
+    private SnapshotWriter openWriter(TimeZone timeZone) throws JBookTraderException {
+        if (fileNameOut.endsWith(BinarySnapshotFile.EXTENSION)) {
+            final BinarySnapshotFileWriter writer = new BinarySnapshotFileWriter(fileNameOut, timeZone);
+            return new SnapshotWriter() {
+                public void write(long time, double balance, double price, int volume) throws JBookTraderException {
+                    writer.write(time, balance, price, volume);
+                }
 
-        int tokenCount = st.countTokens();
-        if (tokenCount != COLUMNS) {
-            String msg = "The line should contain exactly " + COLUMNS + " comma-separated columns.";
-            throw new JBookTraderException(msg);
+                public void close() throws JBookTraderException {
+                    writer.close();
+                }
+            };
         }
 
-        st.nextToken(); // date
-        String timeToken = st.nextToken();
-        int hour = Integer.valueOf(timeToken.substring(0, 2));
-        int min = Integer.valueOf(timeToken.substring(2, 4));
-        int sec = Integer.valueOf(timeToken.substring(4, 6));
+        if (fileNameOut.endsWith(CompressedSnapshotFile.EXTENSION)) {
+            // the compressed writer appends to an existing file
+            new File(fileNameOut).delete();
+            final CompressedSnapshotFileWriter writer = new CompressedSnapshotFileWriter(fileNameOut, timeZone, COMPRESSED_BLOCK_SIZE);
+            return new SnapshotWriter() {
+                public void write(long time, double balance, double price, int volume) throws JBookTraderException {
+                    writer.write(time, balance, price, volume);
+                }
 
-        int secondsOfDay = hour * SECONDS_IN_HOUR + min * 60 + sec;
+                public void close() throws JBookTraderException {
+                    writer.close();
+                }
+            };
+        }
+
+        final TextSnapshotFileWriter writer = new TextSnapshotFileWriter(fileNameOut, timeZone, false);
+        return new SnapshotWriter() {
+            public void write(long time, double balance, double price, int volume) throws JBookTraderException {
+                writer.write(time, balance, price, volume);
+            }
 
-        return (secondsOfDay >= startSecond && secondsOfDay <= endSecond);
+            public void close() throws JBookTraderException {
+                writer.close();
+            }
+        };
+    }
+
+    public void setProgress(String progressText) {
+        System.out.println(progressText);
+    }
+
+    public void setProgress(long count, long iterations, String progressText) {
+        int percent = (int) (100 * (count / (double) iterations));
+        if (percent != previousPercent && percent % 10 == 0) {
+            System.out.println(progressText + ": " + percent + "% completed");
+            previousPercent = percent;
+        }
     }
-}
 
+    public boolean isCancelled() {
+        return false;
+    }
+}
@@ -2,72 +2,208 @@ package com.jbooktrader.platform.backtest;
 
 import com.jbooktrader.platform.marketbook.*;
 import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.preferences.*;
 import com.jbooktrader.platform.startup.*;
 import com.jbooktrader.platform.util.*;
 
 import java.io.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 
 /**
  * Writes historical market data to a file which is used for
- * back testing and optimization of trading strategies.
+ * back testing and optimization of trading strategies. Depending on the
+ * recording format preference, the data is written in the text format, or
+ * in the block-compressed format described in CompressedSnapshotFile.
+ * <p/>
+ * The snapshots are queued, and written in batches by a dedicated writer thread,
+ * so that a slow disk never delays the processing of the snapshots. Every flush
+ * interval, the written data is flushed and synced to the disk. If the queue is full,
+ * the new snapshots are dropped and reported, rather than blocking the caller.
+ * If writing to the file fails, the recording stops, and the snapshots received
+ * afterwards are reported as not recorded every flush interval, with the cause.
+ * <p/>
+ * On a normal exit, all the queued snapshots are written. If the application crashes,
+ * the snapshots received during the last flush interval may be lost; if the operating
+ * system crashes, the snapshots not yet synced, that is, up to one flush interval, may be
+ * lost. In the compressed format, incomplete blocks are only written on exit, so that
+ * up to one more block (one minute of snapshots) may be lost.
  */
-public class BackTestFileWriter {
+public class BackTestFileWriter implements Runnable {
     private static final String FILE_SEP = System.getProperty("file.separator");
-    private static final String LINE_SEP = System.getProperty("line.separator");
     private static final String MARKET_DATA_DIR = AtomicTrader.getAppPath() + FILE_SEP + "marketData";
+    private static final int COMPRESSED_BLOCK_SIZE = 60;// snapshots
+    private static final int QUEUE_CAPACITY = 3600;// snapshots
+    private static final long CLOSE_TIMEOUT = 10000;// milliseconds
+    private static final MarketSnapshot END = new MarketSnapshot(0, 0, 0, 0);
+    private final String fileName;
     private final DecimalFormat decimalFormat;
-    private final SimpleDateFormat dateFormat;
-    private PrintWriter writer;
+    private final BlockingQueue<MarketSnapshot> queue;
+    private final AtomicInteger droppedSnapshots;
+    private final long flushInterval;
+    private final Thread writerThread;
+    private final TextSnapshotFileWriter textWriter;
+    private CompressedSnapshotFileWriter compressedWriter;
+    private volatile boolean isClosed;
+    private volatile Exception failure;
 
     public BackTestFileWriter(String strategyName, TimeZone timeZone) throws JBookTraderException {
         decimalFormat = NumberFormatterFactory.getNumberFormatter(5);
-        dateFormat = new SimpleDateFormat("MMddyy,HHmmss");
-        dateFormat.setTimeZone(timeZone);
 
         File marketDataDir = new File(MARKET_DATA_DIR);
         if (!marketDataDir.exists()) {
             marketDataDir.mkdir();
         }
 
-        String fileName = MARKET_DATA_DIR + FILE_SEP + strategyName + ".txt";
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        flushInterval = prefs.getInt(JBTPreferences.RecordingFlushInterval) * 1000L;
+        if (prefs.get(JBTPreferences.RecordingFormat).equals("compressed")) {
+            fileName = MARKET_DATA_DIR + FILE_SEP + strategyName + CompressedSnapshotFile.EXTENSION;
+            compressedWriter = new CompressedSnapshotFileWriter(fileName, timeZone, COMPRESSED_BLOCK_SIZE);
+            textWriter = null;
+        } else {
+            fileName = MARKET_DATA_DIR + FILE_SEP + strategyName + ".txt";
+            textWriter = new TextSnapshotFileWriter(fileName, timeZone, true);
+        }
+
+        queue = new ArrayBlockingQueue<MarketSnapshot>(QUEUE_CAPACITY);
+        droppedSnapshots = new AtomicInteger();
+        writerThread = new Thread(this, "BackTestFileWriter-" + strategyName);
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        // write out the queued snapshots when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Queues the snapshot to be written by the writer thread. Never blocks.
+     */
+    public void write(MarketSnapshot marketSnapshot) {
+        if (isClosed || failure != null || !queue.offer(marketSnapshot)) {
+            droppedSnapshots.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes out the queued snapshots, and closes the data file.
+     */
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
         try {
-            boolean fileExisted = new File(fileName).exists();
-            writer = new PrintWriter(new BufferedWriter(new FileWriter(fileName, true)));
-            if (!fileExisted) {
-                StringBuilder header = getHeader();
-                writer.println(header);
+            if (queue.offer(END, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                writerThread.join(CLOSE_TIMEOUT);
             }
-        } catch (IOException ioe) {
-            throw new JBookTraderException("Could not write to file " + fileName);
+        } catch (InterruptedException ie) {
+            // the snapshots which are still queued are lost
         }
     }
 
+    public void run() {
+        List<MarketSnapshot> batch = new ArrayList<MarketSnapshot>();
+        long nextFlushTime = System.currentTimeMillis() + flushInterval;
+        boolean isEnd = false;
+        try {
+            while (!isEnd) {
+                long timeout = Math.max(0, nextFlushTime - System.currentTimeMillis());
+                MarketSnapshot marketSnapshot = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (marketSnapshot != null) {
+                    batch.add(marketSnapshot);
+                    queue.drainTo(batch);
+                    isEnd = (batch.get(batch.size() - 1) == END);
+                    if (isEnd) {
+                        batch.remove(batch.size() - 1);
+                    }
+                    write(batch);
+                    batch.clear();
+                }
 
-    public void write(MarketSnapshot marketSnapshot) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(dateFormat.format(marketSnapshot.getTime())).append(",");
-        sb.append(marketSnapshot.getBalance()).append(",");
-        sb.append(decimalFormat.format(marketSnapshot.getPrice())).append(",");
-        sb.append(marketSnapshot.getVolume());
-
-        writer.println(sb);
-        writer.flush();
+                if (isEnd || System.currentTimeMillis() >= nextFlushTime) {
+                    flush();
+                    nextFlushTime = System.currentTimeMillis() + flushInterval;
+                }
+            }
+        } catch (InterruptedException ie) {
+            // the snapshots which are still queued are lost
+        } finally {
+            closeFile();
+        }
     }
 
-    private StringBuilder getHeader() {
-        StringBuilder header = new StringBuilder();
-        header.append("# This historical data file was created by ").append(AtomicTrader.APP_NAME).append(LINE_SEP);
-        header.append("# Each line represents a 1-second snapshot of the market and contains ").append(BackTestFileReader.COLUMNS).append(" columns:").append(LINE_SEP);
-        header.append("# 1. date in the MMddyy format").append(LINE_SEP);
-        header.append("# 2. time in the HHmmss format").append(LINE_SEP);
-        header.append("# 3. book balance").append(LINE_SEP);
-        header.append("# 4. price").append(LINE_SEP);
-        header.append("# 5. volume").append(LINE_SEP);
-        header.append(LINE_SEP);
-        header.append("timeZone=").append(dateFormat.getTimeZone().getID()).append(LINE_SEP);
-        return header;
+    /**
+     * Writes the batch, unless the recording has failed, in which case the
+     * snapshots which are not written are counted as dropped.
+     */
+    private void write(List<MarketSnapshot> batch) {
+        int written = 0;
+        try {
+            while (failure == null && written < batch.size()) {
+                MarketSnapshot marketSnapshot = batch.get(written);
+                if (compressedWriter != null) {
+                    // round the price the same way as in the text format
+                    double price = Double.parseDouble(decimalFormat.format(marketSnapshot.getPrice()));
+                    compressedWriter.write(marketSnapshot.getTime(), marketSnapshot.getBalance(), price, marketSnapshot.getVolume());
+                } else {
+                    textWriter.write(marketSnapshot.getTime(), marketSnapshot.getBalance(), marketSnapshot.getPrice(), marketSnapshot.getVolume());
+                }
+                written++;
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+        droppedSnapshots.addAndGet(batch.size() - written);
+    }
+
+    /**
+     * Flushes the written data, syncs it to the disk, and reports the snapshots
+     * which were dropped since the last flush.
+     */
+    private void flush() {
+        if (failure == null) {
+            try {
+                if (compressedWriter != null) {
+                    compressedWriter.sync();
+                } else {
+                    textWriter.sync();
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        int dropped = droppedSnapshots.getAndSet(0);
+        if (dropped != 0) {
+            String reason = (failure == null) ? "the recording fell behind" : "the recording failed: " + failure.getMessage();
+            String msg = dropped + " market snapshots were not recorded to " + fileName + ", because " + reason + ".";
+            Dispatcher.getInstance().getEventReport().report(AtomicTrader.APP_NAME, msg);
+        }
+    }
+
+    private void fail(Exception e) {
+        failure = e;
+        Dispatcher.getInstance().getEventReport().report(e);
+    }
+
+    private void closeFile() {
+        try {
+            if (compressedWriter != null) {
+                compressedWriter.close();
+            } else {
+                textWriter.close();
+            }
+        } catch (Exception e) {
+            Dispatcher.getInstance().getEventReport().report(e);
+        }
     }
 }
@@ -12,58 +12,87 @@ import com.jbooktrader.platform.strategy.*;
 import java.util.*;
 
 /**
- * This class is responsible for running the strategy against historical market data
+ * This class is responsible for running the strategy against historical market data.
+ * Data files which are too large to be held in memory are replayed as a stream.
  */
 public class BackTester {
+    private static final long NO_TIME = -1;
     private final Strategy strategy;
     private final BackTestFileReader backTestFileReader;
-    private final BackTestDialog backTestDialog;
+    private final BackTestContext backTestContext;
 
-    public BackTester(Strategy strategy, BackTestFileReader backTestFileReader, BackTestDialog backTestDialog) {
+    public BackTester(Strategy strategy, BackTestFileReader backTestFileReader, BackTestContext backTestContext) {
         this.strategy = strategy;
         this.backTestFileReader = backTestFileReader;
-        this.backTestDialog = backTestDialog;
+        this.backTestContext = backTestContext;
     }
 
     public void execute() throws JBookTraderException {
-        List<MarketSnapshot> snapshots = backTestFileReader.load(backTestDialog);
+        IndicatorManager indicatorManager = strategy.getIndicatorManager();
+        strategy.getPerformanceManager().createPerformanceChartData(backTestContext.getBarSize(), indicatorManager.getIndicators());
+
+        if (backTestFileReader.isStreamed()) {
+            // replay the data file block by block, looking ahead one block for the gap detection
+            SnapshotStream stream = backTestFileReader.openStream(backTestContext);
+            try {
+                SnapshotSeries snapshots = stream.next();
+                while (snapshots != null) {
+                    SnapshotSeries nextSnapshots = stream.next();
+                    long nextTime = (nextSnapshots != null) ? nextSnapshots.getTime(0) : NO_TIME;
+                    replay(snapshots, nextTime, false);
+                    backTestContext.setProgress(stream.getPosition(), stream.getLength(), "Running back test");
+                    snapshots = nextSnapshots;
+                }
+            } finally {
+                stream.close();
+            }
+        } else {
+            MarketSnapshotSource snapshots = backTestFileReader.loadSource(backTestContext);
+            replay(snapshots, NO_TIME, true);
+        }
 
+        if (!backTestContext.isCancelled()) {
+            // go flat at the end of the test period to finalize the run
+            strategy.closePosition();
+            Dispatcher.getInstance().fireModelChanged(Event.StrategyUpdate, strategy);
+        }
+    }
+
+    /**
+     * Replays the snapshots. The time of the snapshot which follows the last one
+     * is used to detect a gap after the last snapshot, unless it is NO_TIME.
+     */
+    private void replay(MarketSnapshotSource snapshots, long nextTime, boolean isProgressReported) {
         MarketBook marketBook = strategy.getMarketBook();
+        marketBook.setSnapshots(snapshots);
         IndicatorManager indicatorManager = strategy.getIndicatorManager();
-        strategy.getPerformanceManager().createPerformanceChartData(backTestDialog.getBarSize(), indicatorManager.getIndicators());
-
         List<Indicator> indicators = indicatorManager.getIndicators();
         TradingSchedule tradingSchedule = strategy.getTradingSchedule();
         PerformanceChartData performanceChartData = strategy.getPerformanceManager().getPerformanceChartData();
 
-        long snapshotsCount = snapshots.size();
+        int snapshotsCount = snapshots.size();
         for (int count = 0; count < snapshotsCount; count++) {
-            MarketSnapshot marketSnapshot = snapshots.get(count);
-            marketBook.setSnapshot(marketSnapshot);
-            performanceChartData.update(marketSnapshot);
+            marketBook.setIndex(count);
+            long instant = snapshots.getTime(count);
+            performanceChartData.update(instant, snapshots.getPrice(count));
             indicatorManager.updateIndicators();
-            long instant = marketSnapshot.getTime();
 
             boolean isInSchedule = tradingSchedule.contains(instant);
             if (count < snapshotsCount - 1) {
-                isInSchedule = isInSchedule && !marketBook.isGapping(snapshots.get(count + 1));
+                isInSchedule = isInSchedule && !marketBook.isGapping(snapshots.getTime(count + 1));
+            } else if (nextTime != NO_TIME) {
+                isInSchedule = isInSchedule && !marketBook.isGapping(nextTime);
             }
 
             strategy.processInstant(isInSchedule);
             performanceChartData.update(indicators, instant);
 
-            if (count % 100000 == 0) {
-                backTestDialog.setProgress(count, snapshotsCount, "Running back test");
-                if (backTestDialog.isCancelled()) {
+            if (isProgressReported && count % 100000 == 0) {
+                backTestContext.setProgress(count, snapshotsCount, "Running back test");
+                if (backTestContext.isCancelled()) {
                     break;
                 }
             }
         }
-
-        if (!backTestDialog.isCancelled()) {
-            // go flat at the end of the test period to finalize the run
-            strategy.closePosition();
-            Dispatcher.getInstance().fireModelChanged(Event.StrategyUpdate, strategy);
-        }
     }
 }
@@ -0,0 +1,55 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+
+/**
+ * Describes the binary columnar format of the historical market data files.
+ * The file starts with a header, followed by four columns, each of which
+ * holds one value per market snapshot:
+ * <p/>
+ * -- int: magic number<br>
+ * -- int: format version<br>
+ * -- UTF: time zone ID<br>
+ * -- int: number of snapshots<br>
+ * -- long[]: time, delta-encoded (the first value is the absolute time)<br>
+ * -- double[]: book balance<br>
+ * -- double[]: price<br>
+ * -- int[]: volume
+ */
+public class BinarySnapshotFile {
+    public static final int MAGIC = 0x4A425453;// "JBTS"
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".bin";
+
+    // bytes per snapshot in each of the columns
+    public static final int TIME_SIZE = 8;
+    public static final int BALANCE_SIZE = 8;
+    public static final int PRICE_SIZE = 8;
+    public static final int VOLUME_SIZE = 4;
+
+    private BinarySnapshotFile() {
+        // static utility class
+    }
+
+    /**
+     * Returns true if the specified file starts with the binary snapshot file magic number.
+     */
+    public static boolean isBinary(File file) throws JBookTraderException {
+        if (file.length() < 4) {
+            return false;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readInt() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file " + file.getPath(), ioe);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Reads a historical data file written in the binary columnar format described
+ * in BinarySnapshotFile. The columns are read in blocks (see BinarySnapshotStream),
+ * so that no text parsing is involved in loading the snapshots. When a date range
+ * is set, the day index of the data file (see DayIndex) is used to read only the
+ * days in the range.
+ */
+public class BinarySnapshotFileReader {
+    private final String fileName;
+    private final MarketSnapshotFilter filter;
+    private final TimeZone timeZone;
+    private final int count;
+    private final long timesStart, balancesStart, pricesStart, volumesStart;
+    private int startRow, endRow;
+    private long startTime;
+
+    public BinarySnapshotFileReader(String fileName, MarketSnapshotFilter filter) throws JBookTraderException {
+        this.fileName = fileName;
+        this.filter = filter;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+            try {
+                if (in.readInt() != BinarySnapshotFile.MAGIC) {
+                    throw new JBookTraderException("File " + fileName + " is not a binary snapshot file.");
+                }
+                int version = in.readInt();
+                if (version != BinarySnapshotFile.VERSION) {
+                    throw new JBookTraderException("Binary snapshot file version " + version + " is not supported.");
+                }
+                String timeZoneId = in.readUTF();
+                timeZone = TimeZone.getTimeZone(timeZoneId);
+                count = in.readInt();
+                // magic + version + UTF length + UTF bytes + count
+                timesStart = 4 + 4 + 2 + timeZoneId.getBytes("UTF-8").length + 4;
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException fnfe) {
+            throw new JBookTraderException("Could not find file " + fileName);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file " + fileName, ioe);
+        }
+
+        balancesStart = timesStart + (long) count * BinarySnapshotFile.TIME_SIZE;
+        pricesStart = balancesStart + (long) count * BinarySnapshotFile.BALANCE_SIZE;
+        volumesStart = pricesStart + (long) count * BinarySnapshotFile.PRICE_SIZE;
+        long expectedSize = volumesStart + (long) count * BinarySnapshotFile.VOLUME_SIZE;
+        long fileSize = new File(fileName).length();
+        if (fileSize != expectedSize) {
+            throw new JBookTraderException("Binary snapshot file " + fileName + " is truncated or corrupt.");
+        }
+    }
+
+    public TimeZone getTimeZone() {
+        return timeZone;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public SnapshotSeries load(ProgressListener progressListener) throws JBookTraderException {
+        SnapshotSeries snapshots = (filter == null) ? new SnapshotSeries(count) : new SnapshotSeries();
+        BinarySnapshotStream stream = openStream(progressListener, true);
+        try {
+            SnapshotSeries block;
+            while ((block = stream.next()) != null) {
+                snapshots.addAll(block);
+                progressListener.setProgress(stream.getPosition(), stream.getLength(), "Loading historical data file");
+            }
+        } finally {
+            stream.close();
+        }
+
+        if (stream.getDayIndex() != null && !progressListener.isCancelled()) {
+            writeIndex(stream.getDayIndex());
+        }
+
+        snapshots.trimToSize();
+        return snapshots;
+    }
+
+    /**
+     * Returns the snapshots as a stream of blocks, which are read as they are needed.
+     */
+    public SnapshotStream openStream(ProgressListener progressListener) throws JBookTraderException {
+        return openStream(progressListener, false);
+    }
+
+    private BinarySnapshotStream openStream(ProgressListener progressListener, boolean isIndexing) throws JBookTraderException {
+        try {
+            FileChannel channel = new FileInputStream(fileName).getChannel();
+            DayIndex dayIndex;
+            try {
+                dayIndex = findRange(channel);
+            } catch (IOException ioe) {
+                channel.close();
+                throw ioe;
+            }
+            return new BinarySnapshotStream(channel, timesStart, balancesStart, pricesStart, volumesStart, startRow, endRow,
+                    startTime, filter, isIndexing ? dayIndex : null, progressListener);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Maps the data file into memory instead of loading it on heap. Only the
+     * snapshots accepted by the filter (which form a contiguous range, since
+     * the snapshots are ordered by time) are mapped.
+     */
+    public MappedSnapshotSource map(ProgressListener progressListener) throws JBookTraderException {
+        try {
+            FileChannel channel = new FileInputStream(fileName).getChannel();
+            try {
+                DayIndex dayIndex = findRange(channel);
+                int rows = endRow - startRow;
+                long[] times = new long[rows];
+                LongBuffer timesBuffer = map(channel, timesStart + (long) startRow * BinarySnapshotFile.TIME_SIZE, rows, BinarySnapshotFile.TIME_SIZE).asLongBuffer();
+                long time = startTime;
+                int first = rows, end = rows;
+                for (int index = 0; index < rows; index++) {
+                    if (index % 1000000 == 0) {
+                        progressListener.setProgress(index, rows, "Mapping historical data file");
+                        if (progressListener.isCancelled()) {
+                            end = Math.min(end, index);
+                            first = Math.min(first, end);
+                            dayIndex = null;
+                            break;
+                        }
+                    }
+
+                    int row = startRow + index;
+                    long delta = timesBuffer.get(index);
+                    if (delta <= 0 && row != 0) {
+                        String msg = "Timestamp of snapshot #" + (row + 1) + " is before or the same as the timestamp of the previous snapshot.";
+                        throw new JBookTraderException(msg);
+                    }
+                    time += delta;
+                    times[index] = time;
+                    if (dayIndex != null) {
+                        dayIndex.add(time, (long) row * BinarySnapshotFile.TIME_SIZE, row);
+                    }
+
+                    boolean isIncluded = (filter == null || filter.contains(time));
+                    if (isIncluded && first == rows) {
+                        first = index;
+                    } else if (!isIncluded && first != rows && end == rows) {
+                        end = index;
+                    }
+                }
+
+                if (dayIndex != null) {
+                    writeIndex(dayIndex);
+                }
+
+                int size = end - first;
+                if (size != rows) {
+                    long[] filteredTimes = new long[size];
+                    System.arraycopy(times, first, filteredTimes, 0, size);
+                    times = filteredTimes;
+                }
+
+                first += startRow;
+                DoubleBuffer balances = map(channel, balancesStart + (long) first * BinarySnapshotFile.BALANCE_SIZE, size, BinarySnapshotFile.BALANCE_SIZE).asDoubleBuffer();
+                DoubleBuffer prices = map(channel, pricesStart + (long) first * BinarySnapshotFile.PRICE_SIZE, size, BinarySnapshotFile.PRICE_SIZE).asDoubleBuffer();
+                IntBuffer volumes = map(channel, volumesStart + (long) first * BinarySnapshotFile.VOLUME_SIZE, size, BinarySnapshotFile.VOLUME_SIZE).asIntBuffer();
+                return new MappedSnapshotSource(times, balances, prices, volumes);
+            } finally {
+                // the mappings remain valid after the channel is closed
+                channel.close();
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not map data file " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Sets the range of rows to be read. When a date range is set, only the days in the
+     * date range are read. If the data file does not have a day index yet, a new one is
+     * returned, to be filled in as the rows are read.
+     */
+    private DayIndex findRange(FileChannel channel) throws IOException {
+        startRow = 0;
+        endRow = count;
+        startTime = 0;
+
+        DayIndex dayIndex = DayIndex.read(fileName, timeZone);
+        if (dayIndex == null) {
+            return new DayIndex(timeZone);
+        }
+
+        if (filter != null && dayIndex.size() != 0) {
+            int first = dayIndex.findStart(filter.getFromDate());
+            int end = dayIndex.findEnd(filter.getToDate());
+            startRow = (int) dayIndex.getRow(first);
+            endRow = (end == dayIndex.size()) ? count : Math.max(startRow, (int) dayIndex.getRow(end));
+            if (startRow != 0) {
+                // the times are delta-encoded, so start from the time of the previous row
+                ByteBuffer buffer = ByteBuffer.allocate(BinarySnapshotFile.TIME_SIZE);
+                read(channel, buffer, timesStart + (long) startRow * BinarySnapshotFile.TIME_SIZE, BinarySnapshotFile.TIME_SIZE);
+                startTime = dayIndex.getTime(first) - buffer.getLong();
+            }
+        }
+        return null;
+    }
+
+    private void writeIndex(DayIndex dayIndex) {
+        try {
+            dayIndex.write(fileName);
+        } catch (JBookTraderException e) {
+            // the index only speeds up loading, so the data file can still be used without it
+        }
+    }
+
+    private MappedByteBuffer map(FileChannel channel, long position, int count, int valueSize) throws IOException, JBookTraderException {
+        long size = (long) count * valueSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new JBookTraderException("Data file " + fileName + " has too many snapshots to be memory-mapped.");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private void read(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file " + fileName);
+            }
+        }
+        buffer.flip();
+    }
+}
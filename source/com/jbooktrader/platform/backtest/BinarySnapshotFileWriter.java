@@ -0,0 +1,117 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Writes market snapshots to a file in the binary columnar format described
+ * in BinarySnapshotFile. Since the number of snapshots is not known in advance,
+ * each column is first written to its own temporary file, and the columns are
+ * assembled into the data file when the writer is closed, along with its day index.
+ */
+public class BinarySnapshotFileWriter {
+    private final String fileName;
+    private final TimeZone timeZone;
+    private final File[] columnFiles;
+    private final DataOutputStream times, balances, prices, volumes;
+    private final DayIndex dayIndex;
+    private long previousTime;
+    private int count;
+
+    public BinarySnapshotFileWriter(String fileName, TimeZone timeZone) throws JBookTraderException {
+        this.fileName = fileName;
+        this.timeZone = timeZone;
+        dayIndex = new DayIndex(timeZone);
+
+        try {
+            File dir = new File(fileName).getAbsoluteFile().getParentFile();
+            columnFiles = new File[4];
+            for (int column = 0; column < columnFiles.length; column++) {
+                columnFiles[column] = File.createTempFile("column" + column + "-", ".tmp", dir);
+                columnFiles[column].deleteOnExit();
+            }
+            times = openColumn(columnFiles[0]);
+            balances = openColumn(columnFiles[1]);
+            prices = openColumn(columnFiles[2]);
+            volumes = openColumn(columnFiles[3]);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+    }
+
+    private DataOutputStream openColumn(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    public void write(MarketSnapshot marketSnapshot) throws JBookTraderException {
+        write(marketSnapshot.getTime(), marketSnapshot.getBalance(), marketSnapshot.getPrice(), marketSnapshot.getVolume());
+    }
+
+    public void write(long time, double balance, double price, int volume) throws JBookTraderException {
+        if (count != 0 && time <= previousTime) {
+            throw new JBookTraderException("Timestamp " + time + " is before or the same as the timestamp of the previous snapshot.");
+        }
+
+        try {
+            times.writeLong(time - previousTime);
+            balances.writeDouble(balance);
+            prices.writeDouble(price);
+            volumes.writeInt(volume);
+            dayIndex.add(time, (long) count * BinarySnapshotFile.TIME_SIZE, count);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+
+        previousTime = time;
+        count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void close() throws JBookTraderException {
+        try {
+            times.close();
+            balances.close();
+            prices.close();
+            volumes.close();
+
+            FileOutputStream out = new FileOutputStream(fileName);
+            try {
+                DataOutputStream header = new DataOutputStream(new BufferedOutputStream(out));
+                header.writeInt(BinarySnapshotFile.MAGIC);
+                header.writeInt(BinarySnapshotFile.VERSION);
+                header.writeUTF(timeZone.getID());
+                header.writeInt(count);
+                header.flush();
+
+                FileChannel outChannel = out.getChannel();
+                for (File columnFile : columnFiles) {
+                    FileChannel inChannel = new FileInputStream(columnFile).getChannel();
+                    try {
+                        long position = 0, size = inChannel.size();
+                        while (position < size) {
+                            position += inChannel.transferTo(position, size - position, outChannel);
+                        }
+                    } finally {
+                        inChannel.close();
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            dayIndex.write(fileName);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        } finally {
+            for (File columnFile : columnFiles) {
+                columnFile.delete();
+            }
+        }
+    }
+}
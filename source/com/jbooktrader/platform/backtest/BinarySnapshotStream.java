@@ -0,0 +1,133 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Reads a range of rows of a binary snapshot file as a stream of blocks. Each block
+ * is read from the four columns of the data file, and decoded into a new series.
+ */
+public class BinarySnapshotStream implements SnapshotStream {
+    private static final int BLOCK_SIZE = 64 * 1024;// snapshots per block
+    private static final int ROW_SIZE = BinarySnapshotFile.TIME_SIZE + BinarySnapshotFile.BALANCE_SIZE
+            + BinarySnapshotFile.PRICE_SIZE + BinarySnapshotFile.VOLUME_SIZE;
+    private final FileChannel channel;
+    private final long timesStart, balancesStart, pricesStart, volumesStart;
+    private final int startRow, endRow;
+    private final MarketSnapshotFilter filter;
+    private final DayIndex dayIndex;
+    private final ProgressListener progressListener;
+    private final ByteBuffer timesBuffer, balancesBuffer, pricesBuffer, volumesBuffer;
+    private final long[] times;
+    private final double[] balances, prices;
+    private final int[] volumes;
+    private int blockStart;
+    private long time;
+
+    /**
+     * @param startTime time of the row preceding the start row, as the times are delta-encoded
+     * @param dayIndex  index to be filled in as the rows are read, or null
+     */
+    BinarySnapshotStream(FileChannel channel, long timesStart, long balancesStart, long pricesStart, long volumesStart,
+                         int startRow, int endRow, long startTime, MarketSnapshotFilter filter, DayIndex dayIndex,
+                         ProgressListener progressListener) {
+        this.channel = channel;
+        this.timesStart = timesStart;
+        this.balancesStart = balancesStart;
+        this.pricesStart = pricesStart;
+        this.volumesStart = volumesStart;
+        this.startRow = startRow;
+        this.endRow = endRow;
+        this.filter = filter;
+        this.dayIndex = dayIndex;
+        this.progressListener = progressListener;
+        blockStart = startRow;
+        time = startTime;
+
+        timesBuffer = ByteBuffer.allocate(BLOCK_SIZE * BinarySnapshotFile.TIME_SIZE);
+        balancesBuffer = ByteBuffer.allocate(BLOCK_SIZE * BinarySnapshotFile.BALANCE_SIZE);
+        pricesBuffer = ByteBuffer.allocate(BLOCK_SIZE * BinarySnapshotFile.PRICE_SIZE);
+        volumesBuffer = ByteBuffer.allocate(BLOCK_SIZE * BinarySnapshotFile.VOLUME_SIZE);
+        times = new long[BLOCK_SIZE];
+        balances = new double[BLOCK_SIZE];
+        prices = new double[BLOCK_SIZE];
+        volumes = new int[BLOCK_SIZE];
+    }
+
+    public SnapshotSeries next() throws JBookTraderException {
+        try {
+            while (blockStart < endRow && !progressListener.isCancelled()) {
+                int blockSize = Math.min(BLOCK_SIZE, endRow - blockStart);
+                read(timesBuffer, timesStart + (long) blockStart * BinarySnapshotFile.TIME_SIZE, blockSize * BinarySnapshotFile.TIME_SIZE);
+                read(balancesBuffer, balancesStart + (long) blockStart * BinarySnapshotFile.BALANCE_SIZE, blockSize * BinarySnapshotFile.BALANCE_SIZE);
+                read(pricesBuffer, pricesStart + (long) blockStart * BinarySnapshotFile.PRICE_SIZE, blockSize * BinarySnapshotFile.PRICE_SIZE);
+                read(volumesBuffer, volumesStart + (long) blockStart * BinarySnapshotFile.VOLUME_SIZE, blockSize * BinarySnapshotFile.VOLUME_SIZE);
+                timesBuffer.asLongBuffer().get(times, 0, blockSize);
+                balancesBuffer.asDoubleBuffer().get(balances, 0, blockSize);
+                pricesBuffer.asDoubleBuffer().get(prices, 0, blockSize);
+                volumesBuffer.asIntBuffer().get(volumes, 0, blockSize);
+
+                SnapshotSeries snapshots = new SnapshotSeries(blockSize);
+                for (int index = 0; index < blockSize; index++) {
+                    int row = blockStart + index;
+                    long delta = times[index];
+                    if (delta <= 0 && row != 0) {
+                        String msg = "Timestamp of snapshot #" + (row + 1) + " is before or the same as the timestamp of the previous snapshot.";
+                        throw new JBookTraderException(msg);
+                    }
+                    time += delta;
+                    if (filter == null || filter.contains(time)) {
+                        snapshots.add(time, balances[index], prices[index], volumes[index]);
+                    }
+                    if (dayIndex != null) {
+                        dayIndex.add(time, (long) row * BinarySnapshotFile.TIME_SIZE, row);
+                    }
+                }
+
+                blockStart += blockSize;
+                if (snapshots.size() != 0) {
+                    snapshots.trimToSize();
+                    return snapshots;
+                }
+            }
+            return null;
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file", ioe);
+        }
+    }
+
+    public long getPosition() {
+        return (long) (blockStart - startRow) * ROW_SIZE;
+    }
+
+    public long getLength() {
+        return (long) (endRow - startRow) * ROW_SIZE;
+    }
+
+    public DayIndex getDayIndex() {
+        return dayIndex;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            // nothing was written, so there is nothing to lose
+        }
+    }
+
+    private void read(ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of data file");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,184 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Decodes a run of consecutive blocks of a compressed snapshot file. The blocks are
+ * decoded independently of the other runs, so that the runs of a file can be decoded
+ * in parallel on a fork-join pool. The timestamps are validated within the run only;
+ * the stream validates the timestamps at the seams between adjacent runs.
+ */
+public class CompressedBlockDecoder extends RecursiveTask<SnapshotSeries> {
+    private final FileChannel channel;
+    private final long start, end;
+    private final int count;
+    private final MarketSnapshotFilter filter;
+    private final ProgressListener progressListener;
+    private final AtomicLong bytesDecoded;
+    private byte[] bytes;
+    private int position;
+    private long firstTime, lastTime;
+    private Exception error;
+
+    /**
+     * @param count total number of snapshots in the blocks
+     */
+    public CompressedBlockDecoder(FileChannel channel, long start, long end, int count, MarketSnapshotFilter filter,
+                                  ProgressListener progressListener, AtomicLong bytesDecoded) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.count = count;
+        this.filter = filter;
+        this.progressListener = progressListener;
+        this.bytesDecoded = bytesDecoded;
+    }
+
+    @Override
+    protected SnapshotSeries compute() {
+        SnapshotSeries snapshots = new SnapshotSeries((filter == null) ? count : 16);
+        if (progressListener.isCancelled()) {
+            return snapshots;
+        }
+
+        int length = (int) (end - start);
+        try {
+            bytes = read(length);
+            while (position < length) {
+                decodeBlock(snapshots);
+            }
+        } catch (Exception e) {
+            error = e;
+        }
+
+        bytes = null;
+        bytesDecoded.addAndGet(length);
+        snapshots.trimToSize();
+        return snapshots;
+    }
+
+    private void decodeBlock(SnapshotSeries snapshots) throws JBookTraderException {
+        long blockStart = start + position;
+        int blockCount = getInt();
+        int payloadSize = getInt();
+        long time = getLong();
+        long blockLastTime = getLong();
+        int payloadEnd = position + payloadSize;
+        int balanceScale = bytes[position++];
+        int priceScale = bytes[position++];
+        if (!isValid(balanceScale) || !isValid(priceScale)) {
+            throw corruptBlock(blockStart);
+        }
+
+        if (time <= lastTime && firstTime != 0) {
+            throw new JBookTraderException("Timestamp " + time + " in block at position " + blockStart + " is before or the same as the timestamp of the previous snapshot.");
+        }
+        if (firstTime == 0) {
+            firstTime = time;
+        }
+
+        long balance = 0, price = 0;
+        for (int index = 0; index < blockCount; index++) {
+            if (index != 0) {
+                long delta = getVarLong();
+                if (delta <= 0) {
+                    throw new JBookTraderException("Timestamp " + (time + delta) + " in block at position " + blockStart + " is before or the same as the timestamp of the previous snapshot.");
+                }
+                time += delta;
+            }
+
+            double balanceValue, priceValue;
+            if (balanceScale == CompressedSnapshotFile.RAW_SCALE) {
+                balanceValue = Double.longBitsToDouble(getLong());
+            } else {
+                balance += unZigZag(getVarLong());
+                balanceValue = balance / CompressedSnapshotFile.POWERS_OF_TEN[balanceScale];
+            }
+            if (priceScale == CompressedSnapshotFile.RAW_SCALE) {
+                priceValue = Double.longBitsToDouble(getLong());
+            } else {
+                price += unZigZag(getVarLong());
+                priceValue = price / CompressedSnapshotFile.POWERS_OF_TEN[priceScale];
+            }
+            int volume = (int) unZigZag(getVarLong());
+
+            if (filter == null || filter.contains(time)) {
+                snapshots.add(time, balanceValue, priceValue, volume);
+            }
+        }
+
+        if (position != payloadEnd || time != blockLastTime) {
+            throw corruptBlock(blockStart);
+        }
+        lastTime = time;
+    }
+
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    private static boolean isValid(int scale) {
+        return scale >= CompressedSnapshotFile.RAW_SCALE && scale < CompressedSnapshotFile.POWERS_OF_TEN.length;
+    }
+
+    private static JBookTraderException corruptBlock(long blockStart) {
+        return new JBookTraderException("Block at position " + blockStart + " of the compressed snapshot file is corrupt.");
+    }
+
+    private int getInt() {
+        int value = 0;
+        for (int index = 0; index < 4; index++) {
+            value = (value << 8) | (bytes[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    private long getLong() {
+        long value = 0;
+        for (int index = 0; index < 8; index++) {
+            value = (value << 8) | (bytes[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    private long getVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private byte[] read(int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of data file");
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,112 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Describes the block-compressed format of the historical market data files. The file
+ * starts with a header, followed by blocks of consecutive snapshots. Each block can be
+ * decoded independently of the other blocks, so that the blocks can be decoded in parallel,
+ * and new blocks can be appended to the file as the market data is recorded.
+ * <p/>
+ * Header:<br>
+ * -- int: magic number<br>
+ * -- int: format version<br>
+ * -- UTF: time zone ID<br>
+ * Block header:<br>
+ * -- int: number of snapshots in the block<br>
+ * -- int: size of the block payload, in bytes<br>
+ * -- long: time of the first snapshot<br>
+ * -- long: time of the last snapshot<br>
+ * Block payload:<br>
+ * -- byte: decimal scale of the balances, or RAW_SCALE<br>
+ * -- byte: decimal scale of the prices, or RAW_SCALE<br>
+ * -- for each snapshot: time (varint delta from the previous snapshot, omitted for the
+ * first snapshot), balance and price (zigzag varint delta of the value multiplied by
+ * 10^scale, or the raw 8-byte value if the scale is RAW_SCALE), volume (zigzag varint)
+ */
+public class CompressedSnapshotFile {
+    public static final int MAGIC = 0x4A42545A;// "JBTZ"
+    public static final int VERSION = 1;
+    public static final String EXTENSION = ".jbz";
+    public static final int BLOCK_HEADER_SIZE = 4 + 4 + 8 + 8;
+    public static final int RAW_SCALE = -1;
+    public static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+    private static final double MAX_EXACT_LONG = 9007199254740992.0;// 2^53
+
+    private CompressedSnapshotFile() {
+        // static utility class
+    }
+
+    /**
+     * Returns true if the specified file starts with the compressed snapshot file magic number.
+     */
+    public static boolean isCompressed(File file) throws JBookTraderException {
+        if (file.length() < 4) {
+            return false;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readInt() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file " + file.getPath(), ioe);
+        }
+    }
+
+    /**
+     * Returns the smallest decimal scale at which all the values can be stored as
+     * integers and restored exactly, or RAW_SCALE if there is no such scale.
+     */
+    public static int findScale(double[] values, int count) {
+        for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+            double powerOfTen = POWERS_OF_TEN[scale];
+            boolean isExact = true;
+            for (int index = 0; index < count && isExact; index++) {
+                double value = values[index];
+                double scaledValue = value * powerOfTen;
+                if (Math.abs(scaledValue) >= MAX_EXACT_LONG) {
+                    isExact = false;
+                } else {
+                    double restoredValue = Math.round(scaledValue) / powerOfTen;
+                    isExact = (Double.doubleToLongBits(restoredValue) == Double.doubleToLongBits(value));
+                }
+            }
+            if (isExact) {
+                return scale;
+            }
+        }
+        return RAW_SCALE;
+    }
+
+    /**
+     * Returns the position right after the last complete block, starting from the
+     * position of the first block. A block may be incomplete if the recording was
+     * interrupted while the block was written.
+     */
+    public static long findEnd(FileChannel channel, long position) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        while (position + BLOCK_HEADER_SIZE <= fileSize) {
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.read(header, position + header.position());
+            }
+            int count = header.getInt(0);
+            int payloadSize = header.getInt(4);
+            long blockEnd = position + BLOCK_HEADER_SIZE + payloadSize;
+            if (count <= 0 || payloadSize <= 0 || blockEnd > fileSize) {
+                break;
+            }
+            position = blockEnd;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,90 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Reads a historical data file written in the block-compressed format described in
+ * CompressedSnapshotFile. The blocks are decoded in parallel (see CompressedSnapshotStream).
+ */
+public class CompressedSnapshotFileReader {
+    private static final long LOAD_RUN_SIZE = 4 * 1024 * 1024;
+    private static final long STREAM_RUN_SIZE = 256 * 1024;
+    private final String fileName;
+    private final MarketSnapshotFilter filter;
+    private final TimeZone timeZone;
+    private final long dataStart;
+
+    public CompressedSnapshotFileReader(String fileName, MarketSnapshotFilter filter) throws JBookTraderException {
+        this.fileName = fileName;
+        this.filter = filter;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+            try {
+                if (in.readInt() != CompressedSnapshotFile.MAGIC) {
+                    throw new JBookTraderException("File " + fileName + " is not a compressed snapshot file.");
+                }
+                int version = in.readInt();
+                if (version != CompressedSnapshotFile.VERSION) {
+                    throw new JBookTraderException("Compressed snapshot file version " + version + " is not supported.");
+                }
+                String timeZoneId = in.readUTF();
+                timeZone = TimeZone.getTimeZone(timeZoneId);
+                // magic + version + UTF length + UTF bytes
+                dataStart = 4 + 4 + 2 + timeZoneId.getBytes("UTF-8").length;
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException fnfe) {
+            throw new JBookTraderException("Could not find file " + fileName);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file " + fileName, ioe);
+        }
+    }
+
+    public TimeZone getTimeZone() {
+        return timeZone;
+    }
+
+    public SnapshotSeries load(ProgressListener progressListener) throws JBookTraderException {
+        SnapshotStream stream = openStream(progressListener, LOAD_RUN_SIZE, Integer.MAX_VALUE, "Loading historical data file");
+        List<SnapshotSeries> blocks = new ArrayList<SnapshotSeries>();
+        int size = 0;
+        try {
+            SnapshotSeries block;
+            while ((block = stream.next()) != null) {
+                blocks.add(block);
+                size += block.size();
+            }
+        } finally {
+            stream.close();
+        }
+
+        SnapshotSeries snapshots = new SnapshotSeries(size);
+        for (SnapshotSeries block : blocks) {
+            snapshots.addAll(block);
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns the snapshots as a stream of blocks, which are decoded as they are needed.
+     */
+    public SnapshotStream openStream(ProgressListener progressListener) throws JBookTraderException {
+        return openStream(progressListener, STREAM_RUN_SIZE, Runtime.getRuntime().availableProcessors() + 1, null);
+    }
+
+    private SnapshotStream openStream(ProgressListener progressListener, long runSize, int maxRuns, String progressText) throws JBookTraderException {
+        try {
+            FileChannel channel = new FileInputStream(fileName).getChannel();
+            return new CompressedSnapshotStream(channel, dataStart, channel.size(), filter, runSize, maxRuns, progressListener, progressText);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file " + fileName, ioe);
+        }
+    }
+}
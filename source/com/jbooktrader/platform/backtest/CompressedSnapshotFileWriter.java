@@ -0,0 +1,200 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Writes market snapshots to a file in the block-compressed format described in
+ * CompressedSnapshotFile. The snapshots are buffered until a block is full, and each
+ * block is written at once, so that an interrupted recording loses at most one block.
+ * If the data file already exists, the new blocks are appended to it.
+ */
+public class CompressedSnapshotFileWriter {
+    private final String fileName;
+    private final int blockSize;
+    private final RandomAccessFile file;
+    private final long[] times;
+    private final double[] balances, prices;
+    private final int[] volumes;
+    private byte[] payload;
+    private int payloadSize, count;
+    private long previousTime;
+
+    /**
+     * @param blockSize maximum number of snapshots in a block
+     */
+    public CompressedSnapshotFileWriter(String fileName, TimeZone timeZone, int blockSize) throws JBookTraderException {
+        this.fileName = fileName;
+        this.blockSize = blockSize;
+        times = new long[blockSize];
+        balances = new double[blockSize];
+        prices = new double[blockSize];
+        volumes = new int[blockSize];
+        payload = new byte[blockSize * 16];
+
+        try {
+            boolean fileExisted = new File(fileName).length() != 0;
+            file = new RandomAccessFile(fileName, "rw");
+            if (fileExisted) {
+                open(timeZone);
+            } else {
+                file.writeInt(CompressedSnapshotFile.MAGIC);
+                file.writeInt(CompressedSnapshotFile.VERSION);
+                file.writeUTF(timeZone.getID());
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Prepares an existing data file for appending. A trailing block which was not
+     * completely written is discarded.
+     */
+    private void open(TimeZone timeZone) throws IOException, JBookTraderException {
+        boolean isValid = file.readInt() == CompressedSnapshotFile.MAGIC && file.readInt() == CompressedSnapshotFile.VERSION;
+        if (!isValid) {
+            file.close();
+            throw new JBookTraderException("File " + fileName + " is not a compressed snapshot file.");
+        }
+        String timeZoneId = file.readUTF();
+        if (!timeZoneId.equals(timeZone.getID())) {
+            file.close();
+            throw new JBookTraderException("Time zone of file " + fileName + " is " + timeZoneId + ", not " + timeZone.getID() + ".");
+        }
+
+        FileChannel channel = file.getChannel();
+        long end = CompressedSnapshotFile.findEnd(channel, file.getFilePointer());
+        channel.truncate(end);
+        file.seek(end);
+    }
+
+    public void write(MarketSnapshot marketSnapshot) throws JBookTraderException {
+        write(marketSnapshot.getTime(), marketSnapshot.getBalance(), marketSnapshot.getPrice(), marketSnapshot.getVolume());
+    }
+
+    public void write(long time, double balance, double price, int volume) throws JBookTraderException {
+        if (count != 0 && time <= previousTime) {
+            throw new JBookTraderException("Timestamp " + time + " is before or the same as the timestamp of the previous snapshot.");
+        }
+
+        times[count] = time;
+        balances[count] = balance;
+        prices[count] = price;
+        volumes[count] = volume;
+        previousTime = time;
+        count++;
+
+        if (count == blockSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered snapshots to the data file as a block.
+     */
+    public void flush() throws JBookTraderException {
+        if (count == 0) {
+            return;
+        }
+
+        payloadSize = 0;
+        int balanceScale = CompressedSnapshotFile.findScale(balances, count);
+        int priceScale = CompressedSnapshotFile.findScale(prices, count);
+        ensureCapacity(2);
+        payload[payloadSize++] = (byte) balanceScale;
+        payload[payloadSize++] = (byte) priceScale;
+
+        long previousBalance = 0, previousPrice = 0;
+        for (int index = 0; index < count; index++) {
+            if (index != 0) {
+                writeVarLong(times[index] - times[index - 1]);
+            }
+            previousBalance = writeValue(balances[index], balanceScale, previousBalance);
+            previousPrice = writeValue(prices[index], priceScale, previousPrice);
+            writeVarLong(zigZag(volumes[index]));
+        }
+
+        try {
+            byte[] block = new byte[CompressedSnapshotFile.BLOCK_HEADER_SIZE + payloadSize];
+            putLong(block, 0, ((long) count << 32) | payloadSize);
+            putLong(block, 8, times[0]);
+            putLong(block, 16, times[count - 1]);
+            System.arraycopy(payload, 0, block, CompressedSnapshotFile.BLOCK_HEADER_SIZE, payloadSize);
+            file.write(block);
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+        count = 0;
+    }
+
+    /**
+     * Syncs the written blocks to the disk. The buffered snapshots are not written.
+     */
+    public void sync() throws JBookTraderException {
+        try {
+            file.getFD().sync();
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+    }
+
+    public void close() throws JBookTraderException {
+        try {
+            flush();
+        } finally {
+            try {
+                file.close();
+            } catch (IOException ioe) {
+                throw new JBookTraderException("Could not write to file " + fileName, ioe);
+            }
+        }
+    }
+
+    /**
+     * Writes the value, and returns the value scaled to an integer, from which the
+     * next value is delta-encoded.
+     */
+    private long writeValue(double value, int scale, long previousScaledValue) {
+        if (scale == CompressedSnapshotFile.RAW_SCALE) {
+            ensureCapacity(8);
+            putLong(payload, payloadSize, Double.doubleToLongBits(value));
+            payloadSize += 8;
+            return previousScaledValue;
+        }
+
+        long scaledValue = Math.round(value * CompressedSnapshotFile.POWERS_OF_TEN[scale]);
+        writeVarLong(zigZag(scaledValue - previousScaledValue));
+        return scaledValue;
+    }
+
+    private void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            payload[payloadSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        payload[payloadSize++] = (byte) value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int index = 7; index >= 0; index--) {
+            bytes[offset + index] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (payloadSize + size > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payload.length * 2, payloadSize + size));
+        }
+    }
+}
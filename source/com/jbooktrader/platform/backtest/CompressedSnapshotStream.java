@@ -0,0 +1,194 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Reads a compressed snapshot file as a stream of blocks. Consecutive blocks are
+ * grouped into runs, which are decoded ahead on a fork-join pool, and returned in order,
+ * one series per run. The number of runs in flight is bounded, which bounds the memory
+ * taken by the stream. When a date range is set, the blocks outside of the range are
+ * skipped by their first and last timestamps, without being read. A trailing block
+ * which was not completely written is ignored.
+ */
+public class CompressedSnapshotStream implements SnapshotStream {
+    private static final long PROGRESS_INTERVAL = 200;// milliseconds
+    private final FileChannel channel;
+    private final long start, runSize;
+    private final int maxRuns;
+    private final MarketSnapshotFilter filter;
+    private final ProgressListener progressListener;
+    private final String progressText;
+    private final ForkJoinPool pool;
+    private final AtomicLong bytesDecoded;
+    private final LinkedList<CompressedBlockDecoder> runs;
+    private final ByteBuffer header;
+    private long end, nextBlockStart, previousTime;
+
+    /**
+     * @param start   position of the first block
+     * @param end     position of the end of the data file
+     * @param runSize approximate number of bytes decoded by one task
+     * @param maxRuns maximum number of runs decoded ahead
+     */
+    public CompressedSnapshotStream(FileChannel channel, long start, long end, MarketSnapshotFilter filter, long runSize,
+                                    int maxRuns, ProgressListener progressListener, String progressText) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.filter = filter;
+        this.runSize = runSize;
+        this.maxRuns = maxRuns;
+        this.progressListener = progressListener;
+        this.progressText = progressText;
+        nextBlockStart = start;
+        pool = new ForkJoinPool();
+        bytesDecoded = new AtomicLong();
+        runs = new LinkedList<CompressedBlockDecoder>();
+        header = ByteBuffer.allocate(CompressedSnapshotFile.BLOCK_HEADER_SIZE);
+    }
+
+    public SnapshotSeries next() throws JBookTraderException {
+        try {
+            while (true) {
+                while (runs.size() < maxRuns && nextBlockStart < end) {
+                    CompressedBlockDecoder run = nextRun();
+                    if (run != null) {
+                        runs.add(run);
+                        pool.execute(run);
+                    }
+                }
+
+                if (runs.isEmpty()) {
+                    return null;
+                }
+
+                CompressedBlockDecoder run = runs.removeFirst();
+                SnapshotSeries snapshots = join(run);
+                if (progressListener.isCancelled()) {
+                    return null;
+                }
+
+                validate(run);
+                if (run.getFirstTime() != 0) {
+                    previousTime = run.getLastTime();
+                }
+
+                if (snapshots.size() != 0) {
+                    return snapshots;
+                }
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file", ioe);
+        }
+    }
+
+    public long getPosition() {
+        return bytesDecoded.get();
+    }
+
+    public long getLength() {
+        return end - start;
+    }
+
+    public void close() {
+        pool.shutdownNow();
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            // nothing was written, so there is nothing to lose
+        }
+    }
+
+    /**
+     * Groups the blocks starting at the next block position into a run of about
+     * runSize bytes. Returns null if all the blocks were skipped by the date range.
+     */
+    private CompressedBlockDecoder nextRun() throws IOException {
+        long runStart = -1, runEnd = -1;
+        int count = 0;
+        while (nextBlockStart < end && (runStart == -1 || nextBlockStart - runStart < runSize)) {
+            int blockCount = 0, payloadSize = 0;
+            if (nextBlockStart + CompressedSnapshotFile.BLOCK_HEADER_SIZE <= end) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (channel.read(header, nextBlockStart + header.position()) < 0) {
+                        throw new EOFException("Unexpected end of data file");
+                    }
+                }
+                blockCount = header.getInt(0);
+                payloadSize = header.getInt(4);
+            }
+            long blockEnd = nextBlockStart + CompressedSnapshotFile.BLOCK_HEADER_SIZE + payloadSize;
+            if (blockCount <= 0 || payloadSize <= 0 || blockEnd > end) {
+                // the recording was interrupted while this block was written
+                end = nextBlockStart;
+                break;
+            }
+            long firstTime = header.getLong(8);
+            long lastTime = header.getLong(16);
+
+            boolean isBeforeRange = (filter != null && lastTime < filter.getFromDate());
+            boolean isAfterRange = (filter != null && firstTime > filter.getToDate());
+            if (isAfterRange) {
+                bytesDecoded.addAndGet(end - nextBlockStart);
+                nextBlockStart = end;
+            } else if (isBeforeRange) {
+                bytesDecoded.addAndGet(blockEnd - nextBlockStart);
+                nextBlockStart = blockEnd;
+                if (runStart != -1) {
+                    break;
+                }
+            } else {
+                if (runStart == -1) {
+                    runStart = nextBlockStart;
+                }
+                runEnd = blockEnd;
+                count += blockCount;
+                nextBlockStart = blockEnd;
+            }
+        }
+
+        if (runStart == -1) {
+            return null;
+        }
+        return new CompressedBlockDecoder(channel, runStart, runEnd, count, filter, progressListener, bytesDecoded);
+    }
+
+    private void validate(CompressedBlockDecoder run) throws IOException, JBookTraderException {
+        Exception error = run.getError();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error != null) {
+            throw new JBookTraderException(error.getMessage() != null ? error.getMessage() : error.toString());
+        }
+        if (run.getFirstTime() != 0 && run.getFirstTime() <= previousTime) {
+            throw new JBookTraderException("Timestamp " + run.getFirstTime() + " is before or the same as the timestamp of the previous snapshot.");
+        }
+    }
+
+    private SnapshotSeries join(CompressedBlockDecoder run) throws JBookTraderException {
+        while (true) {
+            if (progressText != null) {
+                progressListener.setProgress(bytesDecoded.get(), end - start, progressText);
+            }
+            try {
+                return run.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException te) {
+                // keep reporting progress until the run is decoded
+            } catch (InterruptedException ie) {
+                throw new JBookTraderException("Loading of data file was interrupted");
+            } catch (ExecutionException ee) {
+                throw new JBookTraderException(ee.getCause());
+            }
+        }
+    }
+}
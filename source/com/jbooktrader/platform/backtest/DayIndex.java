@@ -0,0 +1,178 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Index of a historical data file which maps each day of data to the position of the
+ * first snapshot of that day. The index is stored next to the data file, in a sidecar
+ * file with the ".idx" extension, so that the reader can seek directly to the start of
+ * a date range and stop at its end, instead of reading the entire data file.
+ * <p/>
+ * Each entry holds the time of the snapshot, its byte position in the file (for the binary
+ * format, its position in the time column), and its row (for the text format, the number
+ * of lines which precede it). The index also records the size and the modification time
+ * of the data file, and is ignored once the data file changes.
+ */
+public class DayIndex {
+    public static final String EXTENSION = ".idx";
+    private static final int MAGIC = 0x4A425449;// "JBTI"
+    private static final int VERSION = 1;
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    private final TimeZone timeZone;
+    private long[] times, positions, rows;
+    private int size;
+    private long dayEnd;
+
+    public DayIndex(TimeZone timeZone) {
+        this.timeZone = timeZone;
+        times = new long[64];
+        positions = new long[64];
+        rows = new long[64];
+        dayEnd = Long.MIN_VALUE;
+    }
+
+    /**
+     * Adds the snapshot to the index if it is the first snapshot of a new day. The
+     * snapshots must be added in the order of time.
+     */
+    public void add(long time, long position, long row) {
+        if (time < dayEnd) {
+            return;
+        }
+
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        times[size] = time;
+        positions[size] = position;
+        rows[size] = row;
+        size++;
+
+        int offset = timeZone.getOffset(time);
+        long localTime = time + offset;
+        dayEnd = localTime - (localTime % DAY) + DAY - offset;
+    }
+
+    /**
+     * Adds the entries of the index of a part of the data file, whose rows are counted
+     * from the start of that part.
+     */
+    public void addAll(DayIndex dayIndex, long rowOffset) {
+        for (int entry = 0; entry < dayIndex.size; entry++) {
+            add(dayIndex.times[entry], dayIndex.positions[entry], dayIndex.rows[entry] + rowOffset);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int entry) {
+        return times[entry];
+    }
+
+    public long getPosition(int entry) {
+        return positions[entry];
+    }
+
+    public long getRow(int entry) {
+        return rows[entry];
+    }
+
+    /**
+     * Returns the entry from which the data file must be read, so that no snapshot
+     * at or after the specified time is skipped.
+     */
+    public int findStart(long time) {
+        int entry = Arrays.binarySearch(times, 0, size, time);
+        if (entry < 0) {
+            entry = -entry - 2;
+        }
+        return Math.max(entry, 0);
+    }
+
+    /**
+     * Returns the entry at which reading of the data file can stop, because the
+     * snapshots from that entry on are all after the specified time. Returns
+     * size() if the data file must be read to the end.
+     */
+    public int findEnd(long time) {
+        int entry = Arrays.binarySearch(times, 0, size, time);
+        return (entry < 0) ? -entry - 1 : entry + 1;
+    }
+
+    /**
+     * Reads the index of the specified data file. Returns null if the index does not
+     * exist, cannot be read, or was created for a different version of the data file.
+     */
+    public static DayIndex read(String dataFileName, TimeZone timeZone) {
+        File dataFile = new File(dataFileName);
+        File indexFile = new File(dataFileName + EXTENSION);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                boolean isValid = (in.readInt() == MAGIC && in.readInt() == VERSION);
+                isValid = isValid && in.readLong() == dataFile.length() && in.readLong() == dataFile.lastModified();
+                if (!isValid) {
+                    return null;
+                }
+
+                DayIndex dayIndex = new DayIndex(timeZone);
+                int size = in.readInt();
+                for (int entry = 0; entry < size; entry++) {
+                    dayIndex.add(in.readLong(), in.readLong(), in.readLong());
+                }
+                return dayIndex;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index of the specified data file. The data file must be complete,
+     * as its size and modification time are recorded in the index.
+     */
+    public void write(String dataFileName) throws JBookTraderException {
+        File dataFile = new File(dataFileName);
+        File indexFile = new File(dataFileName + EXTENSION);
+        File tempFile = new File(dataFileName + EXTENSION + ".tmp");
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(dataFile.length());
+                out.writeLong(dataFile.lastModified());
+                out.writeInt(size);
+                for (int entry = 0; entry < size; entry++) {
+                    out.writeLong(times[entry]);
+                    out.writeLong(positions[entry]);
+                    out.writeLong(rows[entry]);
+                }
+            } finally {
+                out.close();
+            }
+
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("Could not rename " + tempFile.getPath());
+            }
+        } catch (IOException ioe) {
+            tempFile.delete();
+            throw new JBookTraderException("Could not write index file " + indexFile.getPath(), ioe);
+        }
+    }
+}
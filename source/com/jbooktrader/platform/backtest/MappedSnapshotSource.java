@@ -0,0 +1,50 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+
+import java.nio.*;
+
+/**
+ * Market snapshot source backed by a memory-mapped binary snapshot file.
+ * The balance, price, and volume columns stay off-heap in the OS page cache,
+ * and are read directly from the mapping. Since the time column is
+ * delta-encoded, it is decoded once into an array of absolute times.
+ * All optimizer workers share the same instance.
+ */
+public class MappedSnapshotSource implements MarketSnapshotSource {
+    private final long[] times;
+    private final DoubleBuffer balances, prices;
+    private final IntBuffer volumes;
+
+    MappedSnapshotSource(long[] times, DoubleBuffer balances, DoubleBuffer prices, IntBuffer volumes) {
+        this.times = times;
+        this.balances = balances;
+        this.prices = prices;
+        this.volumes = volumes;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    // Absolute gets do not change the buffer state, so they are safe for concurrent reads
+    public double getBalance(int index) {
+        return balances.get(index);
+    }
+
+    public double getPrice(int index) {
+        return prices.get(index);
+    }
+
+    public int getVolume(int index) {
+        return volumes.get(index);
+    }
+
+    public MarketSnapshot getSnapshot(int index) {
+        return new MarketSnapshot(times[index], balances.get(index), prices.get(index), volumes.get(index));
+    }
+}
@@ -0,0 +1,89 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Process-wide cache of loaded historical data, shared by the back tester and the
+ * optimizer, so that repeated runs against the same data file do not reload it. The
+ * snapshots are keyed by the data file path, its size and modification time, and the
+ * date filter. The least recently used snapshots are evicted when the heap memory
+ * taken by the cached snapshots exceeds the limit.
+ */
+public class SnapshotCache {
+    private static final long MAX_SIZE = Runtime.getRuntime().maxMemory() / 4;// bytes
+    private static SnapshotCache instance;
+    private final LinkedHashMap<String, MarketSnapshotSource> sources;
+    private long size;
+
+    public static synchronized SnapshotCache getInstance() {
+        if (instance == null) {
+            instance = new SnapshotCache();
+        }
+        return instance;
+    }
+
+    // private constructor for non-instantiability
+    private SnapshotCache() {
+        // access order, so that the iteration starts from the least recently used
+        sources = new LinkedHashMap<String, MarketSnapshotSource>(16, 0.75f, true);
+    }
+
+    public static String getKey(String fileName, MarketSnapshotFilter filter) {
+        File file = new File(fileName).getAbsoluteFile();
+        String key = file.getPath() + "|" + file.length() + "|" + file.lastModified();
+        if (filter != null) {
+            key += "|" + filter.getFromDate() + "|" + filter.getToDate();
+        }
+        return key;
+    }
+
+    /**
+     * Returns true if snapshots taking the specified number of bytes of heap memory can be cached.
+     */
+    public boolean canHold(long size) {
+        return size <= MAX_SIZE;
+    }
+
+    public synchronized MarketSnapshotSource get(String key) {
+        return sources.get(key);
+    }
+
+    public synchronized void put(String key, MarketSnapshotSource source) {
+        long sourceSize = getSize(source);
+        if (sourceSize > MAX_SIZE) {
+            return;
+        }
+
+        MarketSnapshotSource previousSource = sources.put(key, source);
+        if (previousSource != null) {
+            size -= getSize(previousSource);
+        }
+        size += sourceSize;
+
+        Iterator<MarketSnapshotSource> iterator = sources.values().iterator();
+        while (size > MAX_SIZE && iterator.hasNext()) {
+            MarketSnapshotSource leastRecentlyUsed = iterator.next();
+            if (leastRecentlyUsed != source) {
+                size -= getSize(leastRecentlyUsed);
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        sources.clear();
+        size = 0;
+    }
+
+    /**
+     * Estimated heap memory taken by the snapshots. Memory-mapped snapshots only
+     * keep their times on heap.
+     */
+    private static long getSize(MarketSnapshotSource source) {
+        int bytesPerSnapshot = (source instanceof MappedSnapshotSource) ? 8 : 28;
+        return (long) source.size() * bytesPerSnapshot;
+    }
+}
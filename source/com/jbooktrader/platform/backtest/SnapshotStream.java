@@ -0,0 +1,28 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+/**
+ * Reads the snapshots of a historical data file as a sequence of consecutive blocks,
+ * so that the data file can be replayed without holding all of its snapshots in memory.
+ */
+public interface SnapshotStream {
+    /**
+     * Returns the next block of snapshots, or null if there are no more snapshots or
+     * the reading was cancelled. The returned blocks are never empty.
+     */
+    SnapshotSeries next() throws JBookTraderException;
+
+    /**
+     * Returns the number of bytes of the data file read so far.
+     */
+    long getPosition();
+
+    /**
+     * Returns the number of bytes of the data file to be read.
+     */
+    long getLength();
+
+    void close();
+}
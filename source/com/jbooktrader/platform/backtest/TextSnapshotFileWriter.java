@@ -0,0 +1,95 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.startup.*;
+import com.jbooktrader.platform.util.*;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Writes market snapshots to a file in the text format, one line per snapshot:
+ * MMddyy,HHmmss,balance,price,volume. The header, which defines the time zone of
+ * the data file, is written when the file is created.
+ */
+public class TextSnapshotFileWriter {
+    private static final String LINE_SEP = System.getProperty("line.separator");
+    private final String fileName;
+    private final DecimalFormat decimalFormat;
+    private final SimpleDateFormat dateFormat;
+    private final FileOutputStream out;
+    private final Writer writer;
+    private final StringBuilder line;
+
+    /**
+     * @param isAppending if true and the file exists, the snapshots are appended to it
+     */
+    public TextSnapshotFileWriter(String fileName, TimeZone timeZone, boolean isAppending) throws JBookTraderException {
+        this.fileName = fileName;
+        decimalFormat = NumberFormatterFactory.getNumberFormatter(5);
+        dateFormat = new SimpleDateFormat("MMddyy,HHmmss");
+        dateFormat.setTimeZone(timeZone);
+        line = new StringBuilder();
+
+        try {
+            boolean fileExisted = isAppending && new File(fileName).exists();
+            out = new FileOutputStream(fileName, isAppending);
+            writer = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+            if (!fileExisted) {
+                writer.write(getHeader().toString());
+                writer.write(LINE_SEP);
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName);
+        }
+    }
+
+    public void write(long time, double balance, double price, int volume) throws JBookTraderException {
+        line.setLength(0);
+        line.append(dateFormat.format(time)).append(",");
+        line.append(balance).append(",");
+        line.append(decimalFormat.format(price)).append(",");
+        line.append(volume);
+        line.append(LINE_SEP);
+        try {
+            writer.write(line.toString());
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Flushes the written snapshots, and syncs them to the disk.
+     */
+    public void sync() throws JBookTraderException {
+        try {
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+    }
+
+    public void close() throws JBookTraderException {
+        try {
+            writer.close();
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to file " + fileName, ioe);
+        }
+    }
+
+    private StringBuilder getHeader() {
+        StringBuilder header = new StringBuilder();
+        header.append("# This historical data file was created by ").append(AtomicTrader.APP_NAME).append(LINE_SEP);
+        header.append("# Each line represents a 1-second snapshot of the market and contains ").append(BackTestFileReader.COLUMNS).append(" columns:").append(LINE_SEP);
+        header.append("# 1. date in the MMddyy format").append(LINE_SEP);
+        header.append("# 2. time in the HHmmss format").append(LINE_SEP);
+        header.append("# 3. book balance").append(LINE_SEP);
+        header.append("# 4. price").append(LINE_SEP);
+        header.append("# 5. volume").append(LINE_SEP);
+        header.append(LINE_SEP);
+        header.append("timeZone=").append(dateFormat.getTimeZone().getID()).append(LINE_SEP);
+        return header;
+    }
+}
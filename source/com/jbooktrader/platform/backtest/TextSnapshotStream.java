@@ -0,0 +1,184 @@
+package com.jbooktrader.platform.backtest;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Reads a byte range of a historical data file in the text format as a stream of
+ * blocks. The range is split into chunks on line boundaries, which are parsed ahead
+ * on a fork-join pool, and returned in order, one block per chunk. The number of chunks
+ * in flight is bounded, which bounds the memory taken by the stream. The timestamps at
+ * the seams between adjacent chunks are validated here, as each chunk can only validate
+ * its own lines.
+ */
+public class TextSnapshotStream implements SnapshotStream {
+    private static final long PROGRESS_INTERVAL = 200;// milliseconds
+    private final FileChannel channel;
+    private final long start, end, chunkSize;
+    private final int maxChunks;
+    private final TimeZone timeZone;
+    private final MarketSnapshotFilter filter;
+    private final DayIndex dayIndex;
+    private final ProgressListener progressListener;
+    private final String progressText;
+    private final ForkJoinPool pool;
+    private final AtomicLong bytesParsed;
+    private final LinkedList<BackTestFileChunk> chunks;
+    private long nextChunkStart, lineNumber, previousTime;
+
+    /**
+     * @param linesBefore number of lines in the data file before the start of the range
+     * @param dayIndex    index to be filled in as the range is parsed, or null
+     * @param maxChunks   maximum number of chunks parsed ahead
+     */
+    public TextSnapshotStream(String fileName, long start, long end, long linesBefore, TimeZone timeZone,
+                              MarketSnapshotFilter filter, DayIndex dayIndex, long chunkSize, int maxChunks,
+                              ProgressListener progressListener, String progressText) throws JBookTraderException {
+        this.start = start;
+        this.end = end;
+        this.timeZone = timeZone;
+        this.filter = filter;
+        this.dayIndex = dayIndex;
+        this.chunkSize = chunkSize;
+        this.maxChunks = maxChunks;
+        this.progressListener = progressListener;
+        this.progressText = progressText;
+        nextChunkStart = start;
+        lineNumber = linesBefore;
+        pool = new ForkJoinPool();
+        bytesParsed = new AtomicLong();
+        chunks = new LinkedList<BackTestFileChunk>();
+
+        try {
+            channel = new FileInputStream(fileName).getChannel();
+        } catch (FileNotFoundException fnfe) {
+            pool.shutdownNow();
+            throw new JBookTraderException("Could not find file " + fileName);
+        }
+    }
+
+    public SnapshotSeries next() throws JBookTraderException {
+        try {
+            while (true) {
+                while (chunks.size() < maxChunks && nextChunkStart < end) {
+                    long chunkEnd = Math.min(end, findLineStart(nextChunkStart + chunkSize));
+                    BackTestFileChunk chunk = new BackTestFileChunk(channel, nextChunkStart, chunkEnd, timeZone, filter, progressListener, bytesParsed, dayIndex != null);
+                    chunks.add(chunk);
+                    pool.execute(chunk);
+                    nextChunkStart = chunkEnd;
+                }
+
+                if (chunks.isEmpty()) {
+                    return null;
+                }
+
+                BackTestFileChunk chunk = chunks.removeFirst();
+                SnapshotSeries snapshots = join(chunk);
+                if (progressListener.isCancelled()) {
+                    return null;
+                }
+
+                validate(chunk);
+                if (chunk.getFirstTime() != 0) {
+                    previousTime = chunk.getLastTime();
+                }
+                if (dayIndex != null) {
+                    dayIndex.addAll(chunk.getDayIndex(), lineNumber);
+                }
+                lineNumber += chunk.getLineCount();
+
+                if (snapshots.size() != 0) {
+                    return snapshots;
+                }
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read data file");
+        }
+    }
+
+    public long getPosition() {
+        return bytesParsed.get();
+    }
+
+    public long getLength() {
+        return end - start;
+    }
+
+    public void close() {
+        pool.shutdownNow();
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            // nothing was written, so there is nothing to lose
+        }
+    }
+
+    private void validate(BackTestFileChunk chunk) throws IOException {
+        Exception error = chunk.getError();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+
+        boolean isErrorFirst = (error != null) && (chunk.getFirstTime() == 0 || chunk.getLineCount() < chunk.getFirstLineNumber());
+        if (isErrorFirst) {
+            throw BackTestFileReader.parsingError(lineNumber + chunk.getLineCount(), chunk.getErrorLine(), error);
+        }
+        if (chunk.getFirstTime() != 0 && chunk.getFirstTime() <= previousTime) {
+            String msg = "Timestamp of this line is before or the same as the timestamp of the previous line.";
+            throw BackTestFileReader.parsingError(lineNumber + chunk.getFirstLineNumber(), chunk.getFirstLine(), new JBookTraderException(msg));
+        }
+        if (error != null) {
+            throw BackTestFileReader.parsingError(lineNumber + chunk.getLineCount(), chunk.getErrorLine(), error);
+        }
+    }
+
+    private SnapshotSeries join(BackTestFileChunk chunk) throws JBookTraderException {
+        while (true) {
+            if (progressText != null) {
+                progressListener.setProgress(bytesParsed.get(), end - start, progressText);
+            }
+            try {
+                return chunk.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException te) {
+                // keep reporting progress until the chunk is parsed
+            } catch (InterruptedException ie) {
+                throw new JBookTraderException("Loading of data file was interrupted");
+            } catch (ExecutionException ee) {
+                throw new JBookTraderException(ee.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the first line which starts at or after the specified position.
+     */
+    private long findLineStart(long position) throws IOException {
+        if (position >= end) {
+            return end;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        position--;
+        while (position < end) {
+            buffer.clear();
+            int bytesRead = channel.read(buffer, position);
+            if (bytesRead < 0) {
+                break;
+            }
+            for (int index = 0; index < bytesRead; index++) {
+                if (buffer.get(index) == '\n') {
+                    return position + index + 1;
+                }
+            }
+            position += bytesRead;
+        }
+        return end;
+    }
+}
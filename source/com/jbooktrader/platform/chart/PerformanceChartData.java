@@ -79,9 +79,11 @@ public class PerformanceChartData {
     }
 
     public void update(MarketSnapshot marketSnapshot) {
+        update(marketSnapshot.getTime(), marketSnapshot.getPrice());
+    }
+
+    public void update(long time, double price) {
         long frequency = barSize.getSize();
-        long time = marketSnapshot.getTime();
-        double price = marketSnapshot.getPrice();
 
         // Integer division gives us the number of whole periods
         long completedPeriods = time / frequency;
@@ -0,0 +1,23 @@
+package com.jbooktrader.platform.indicator;
+
+/**
+ * Replays the values of an indicator from its precomputed series.
+ */
+class CachedIndicator extends Indicator {
+    private final double[] series;
+
+    CachedIndicator(String key, double[] series) {
+        super(key);
+        this.series = series;
+    }
+
+    @Override
+    public void calculate() {
+        value = series[marketBook.getIndex()];
+    }
+
+    @Override
+    public void reset() {
+        // the resets are already reflected in the series
+    }
+}
@@ -33,6 +33,10 @@ public abstract class Indicator {
         key = sb.toString();
     }
 
+    protected Indicator(String key) {
+        this.key = key;
+    }
+
     public String getKey() {
         return key;
     }
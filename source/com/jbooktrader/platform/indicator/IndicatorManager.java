@@ -17,6 +17,7 @@ public class IndicatorManager {
     private final List<Indicator> indicators;
 
     private MarketBook marketBook;
+    private IndicatorSeriesCache seriesCache;
     private long previousSnapshotTime;
     private long samples;
 
@@ -28,6 +29,13 @@ public class IndicatorManager {
             }
         }
 
+        if (seriesCache != null && marketBook != null && marketBook.getSnapshots() != null) {
+            double[] series = seriesCache.getSeries(newIndicator);
+            if (series != null) {
+                newIndicator = new CachedIndicator(key, series);
+            }
+        }
+
         indicators.add(newIndicator);
         newIndicator.setMarketBook(marketBook);
 
@@ -39,6 +47,13 @@ public class IndicatorManager {
         indicators = new ArrayList<Indicator>();
     }
 
+    /**
+     * Sets the cache from which the indicators added afterwards replay their values.
+     */
+    public void setSeriesCache(IndicatorSeriesCache seriesCache) {
+        this.seriesCache = seriesCache;
+    }
+
     public void setMarketBook(MarketBook marketBook) {
         this.marketBook = marketBook;
         for (Indicator indicator : indicators) {
@@ -58,11 +73,10 @@ public class IndicatorManager {
     }
 
     public void updateIndicators() {
-        MarketSnapshot snapshot = marketBook.getSnapshot();
-        if (snapshot == null) {
+        if (marketBook.isEmpty()) {
             return;
         }
-        long lastSnapshotTime = snapshot.getTime();
+        long lastSnapshotTime = marketBook.getTime();
         samples++;
         int size = indicators.size();
 
@@ -0,0 +1,93 @@
+package com.jbooktrader.platform.indicator;
+
+import com.jbooktrader.platform.marketbook.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Values of the indicators over a snapshot series, computed once for each distinct indicator key,
+ * so that the optimizer batches replay them instead of recalculating the indicators. Each series
+ * is computed by an IndicatorManager of its own, so the values are the same as if the indicator
+ * was updated along with the strategies, including the resets after the gaps in the data.
+ * The cache keeps as many series as fit in the specified memory, and evicts the least recently
+ * used ones. Concurrent requests for the same series wait until it is computed once.
+ */
+public class IndicatorSeriesCache {
+    private final MarketSnapshotSource snapshots;
+    private final int maxSeries;
+    private final Map<String, FutureTask<double[]>> series;
+
+    public IndicatorSeriesCache(MarketSnapshotSource snapshots, long maxBytes) {
+        this.snapshots = snapshots;
+        long seriesBytes = 8L * Math.max(1, snapshots.size());
+        maxSeries = (int) Math.min(Integer.MAX_VALUE, maxBytes / seriesBytes);
+        series = new LinkedHashMap<String, FutureTask<double[]>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<double[]>> eldest) {
+                return size() > maxSeries;
+            }
+        };
+    }
+
+    /**
+     * Returns the series of the values of the indicator, or null if it does not fit in the cache,
+     * in which case the indicator should be calculated as the snapshots are replayed.
+     */
+    public double[] getSeries(final Indicator indicator) {
+        if (maxSeries == 0) {
+            return null;
+        }
+
+        String key = indicator.getKey();
+        FutureTask<double[]> task;
+        boolean isComputing = false;
+        synchronized (series) {
+            task = series.get(key);
+            if (task == null) {
+                task = new FutureTask<double[]>(new Callable<double[]>() {
+                    public double[] call() {
+                        return compute(indicator);
+                    }
+                });
+                series.put(key, task);
+                isComputing = true;
+            }
+        }
+
+        if (isComputing) {
+            task.run();
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ee) {
+            synchronized (series) {
+                if (series.get(key) == task) {
+                    series.remove(key);
+                }
+            }
+            throw new RuntimeException(ee.getCause().getMessage(), ee.getCause());
+        }
+    }
+
+    private double[] compute(Indicator indicator) {
+        MarketBook marketBook = new MarketBook();
+        marketBook.setSnapshots(snapshots);
+        IndicatorManager indicatorManager = new IndicatorManager();
+        indicatorManager.setMarketBook(marketBook);
+        indicatorManager.addIndicator(indicator);
+
+        int size = snapshots.size();
+        double[] values = new double[size];
+        for (int index = 0; index < size; index++) {
+            marketBook.setIndex(index);
+            indicatorManager.updateIndicators();
+            values[index] = indicator.getValue();
+        }
+        return values;
+    }
+}
@@ -8,10 +8,15 @@ import java.util.*;
 
 /**
  * Holds history of market snapshots for a trading instrument.
+ * In the trading modes, the book holds the latest snapshot taken from the market depth.
+ * In the back testing and optimization modes, the book points at the current index
+ * in a snapshot series, so that no snapshot objects are created during the replay.
  */
 public class MarketBook {
     private static final long GAP_SIZE = 60 * 60 * 1000;// 1 hour
     private MarketSnapshot marketSnapshot;
+    private MarketSnapshotSource snapshots;
+    private int index;
     private final MarketDepth marketDepth;
     private final String name;
     private final TimeZone timeZone;
@@ -43,22 +48,64 @@ public class MarketBook {
     }
 
     public boolean isEmpty() {
-        return marketSnapshot == null;
+        return marketSnapshot == null && (snapshots == null || snapshots.size() == 0);
     }
 
     public void setSnapshot(MarketSnapshot marketSnapshot) {
         this.marketSnapshot = marketSnapshot;
+        snapshots = null;
+    }
+
+    /**
+     * Sets the snapshot series to replay. The current snapshot is then selected by setIndex().
+     */
+    public void setSnapshots(MarketSnapshotSource snapshots) {
+        this.snapshots = snapshots;
+        marketSnapshot = null;
+        index = 0;
+    }
+
+    public MarketSnapshotSource getSnapshots() {
+        return snapshots;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getTime() {
+        return (snapshots != null) ? snapshots.getTime(index) : marketSnapshot.getTime();
+    }
+
+    public double getBalance() {
+        return (snapshots != null) ? snapshots.getBalance(index) : marketSnapshot.getBalance();
+    }
+
+    public double getPrice() {
+        return (snapshots != null) ? snapshots.getPrice(index) : marketSnapshot.getPrice();
+    }
+
+    public int getVolume() {
+        return (snapshots != null) ? snapshots.getVolume(index) : marketSnapshot.getVolume();
     }
 
     public boolean isGapping(MarketSnapshot newMarketSnapshot) {
+        return isGapping(newMarketSnapshot.getTime());
+    }
+
+    public boolean isGapping(long newTime) {
         if (!isEmpty()) {
-            return (newMarketSnapshot.getTime() - marketSnapshot.getTime() > GAP_SIZE);
+            return (newTime - getTime() > GAP_SIZE);
         }
         return false;
     }
 
     public MarketSnapshot getSnapshot() {
-        return marketSnapshot;
+        return (snapshots != null) ? snapshots.getSnapshot(index) : marketSnapshot;
     }
 
     public void takeMarketSnapshot(long time) {
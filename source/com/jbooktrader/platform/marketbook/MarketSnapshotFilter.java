@@ -23,6 +23,21 @@ public class MarketSnapshotFilter {
         }
     }
 
+    public MarketSnapshotFilter(long fromDate, long toDate) {
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+        if (fromDate > toDate) {
+            throw new RuntimeException("The \"from\" date must be before or the same as the \"to\" date.");
+        }
+    }
+
+    public long getFromDate() {
+        return fromDate;
+    }
+
+    public long getToDate() {
+        return toDate;
+    }
 
     public boolean contains(long time) {
         return (time >= fromDate && time <= toDate);
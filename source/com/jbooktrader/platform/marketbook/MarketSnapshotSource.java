@@ -0,0 +1,20 @@
+package com.jbooktrader.platform.marketbook;
+
+/**
+ * Read-only, random access sequence of market snapshots ordered by time.
+ * Implementations must be safe for concurrent reads, so that a single
+ * instance can be shared by all optimizer workers.
+ */
+public interface MarketSnapshotSource {
+    int size();
+
+    long getTime(int index);
+
+    double getBalance(int index);
+
+    double getPrice(int index);
+
+    int getVolume(int index);
+
+    MarketSnapshot getSnapshot(int index);
+}
@@ -0,0 +1,103 @@
+package com.jbooktrader.platform.marketbook;
+
+/**
+ * Market snapshot series stored as primitive arrays (one array per column)
+ * rather than as a list of snapshot objects. This takes less than half of the
+ * memory per snapshot, and keeps the data contiguous for the replay loops of
+ * the back tester and optimizer. The series is appended to while the data file
+ * is loaded, and is read-only afterwards.
+ */
+public class SnapshotSeries implements MarketSnapshotSource {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private long[] times;
+    private double[] balances, prices;
+    private int[] volumes;
+    private int size;
+
+    public SnapshotSeries(int capacity) {
+        capacity = Math.max(capacity, 1);
+        times = new long[capacity];
+        balances = new double[capacity];
+        prices = new double[capacity];
+        volumes = new int[capacity];
+    }
+
+    public SnapshotSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public void add(long time, double balance, double price, int volume) {
+        if (size == times.length) {
+            grow(size + (size >> 1) + 1);
+        }
+        times[size] = time;
+        balances[size] = balance;
+        prices[size] = price;
+        volumes[size] = volume;
+        size++;
+    }
+
+    public void add(MarketSnapshot marketSnapshot) {
+        add(marketSnapshot.getTime(), marketSnapshot.getBalance(), marketSnapshot.getPrice(), marketSnapshot.getVolume());
+    }
+
+    public void addAll(SnapshotSeries series) {
+        int newSize = size + series.size;
+        if (newSize > times.length) {
+            grow(newSize);
+        }
+        System.arraycopy(series.times, 0, times, size, series.size);
+        System.arraycopy(series.balances, 0, balances, size, series.size);
+        System.arraycopy(series.prices, 0, prices, size, series.size);
+        System.arraycopy(series.volumes, 0, volumes, size, series.size);
+        size = newSize;
+    }
+
+    /**
+     * Releases the unused capacity once the series is fully loaded.
+     */
+    public void trimToSize() {
+        if (size < times.length) {
+            grow(size);
+        }
+    }
+
+    private void grow(int capacity) {
+        long[] newTimes = new long[capacity];
+        double[] newBalances = new double[capacity];
+        double[] newPrices = new double[capacity];
+        int[] newVolumes = new int[capacity];
+        System.arraycopy(times, 0, newTimes, 0, size);
+        System.arraycopy(balances, 0, newBalances, 0, size);
+        System.arraycopy(prices, 0, newPrices, 0, size);
+        System.arraycopy(volumes, 0, newVolumes, 0, size);
+        times = newTimes;
+        balances = newBalances;
+        prices = newPrices;
+        volumes = newVolumes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getBalance(int index) {
+        return balances[index];
+    }
+
+    public double getPrice(int index) {
+        return prices[index];
+    }
+
+    public int getVolume(int index) {
+        return volumes[index];
+    }
+
+    public MarketSnapshot getSnapshot(int index) {
+        return new MarketSnapshot(times[index], balances[index], prices[index], volumes[index]);
+    }
+}
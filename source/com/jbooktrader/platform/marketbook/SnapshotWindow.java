@@ -0,0 +1,46 @@
+package com.jbooktrader.platform.marketbook;
+
+/**
+ * A range of the snapshots of another source, read through without copying them, so that
+ * the windows of a walk-forward optimization all share the snapshots loaded once.
+ */
+public class SnapshotWindow implements MarketSnapshotSource {
+    private final MarketSnapshotSource snapshots;
+    private final int start, size;
+
+    /**
+     * Creates the window of the snapshots from start, inclusive, to end, exclusive.
+     */
+    public SnapshotWindow(MarketSnapshotSource snapshots, int start, int end) {
+        if (start < 0 || end > snapshots.size() || start > end) {
+            throw new IndexOutOfBoundsException("Window " + start + "-" + end + " of " + snapshots.size() + " snapshots");
+        }
+        this.snapshots = snapshots;
+        this.start = start;
+        size = end - start;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return snapshots.getTime(start + index);
+    }
+
+    public double getBalance(int index) {
+        return snapshots.getBalance(start + index);
+    }
+
+    public double getPrice(int index) {
+        return snapshots.getPrice(start + index);
+    }
+
+    public int getVolume(int index) {
+        return snapshots.getVolume(start + index);
+    }
+
+    public MarketSnapshot getSnapshot(int index) {
+        return snapshots.getSnapshot(start + index);
+    }
+}
@@ -95,6 +95,21 @@ public class Dispatcher {
         System.exit(0);
     }
 
+    /**
+     * Sets the mode of a process which runs without the user interface, such as an optimizer
+     * worker process, where the reporting and the services of the trading modes are not used.
+     */
+    public void setHeadlessMode(Mode mode) {
+        this.mode = mode;
+        if (eventReport != null) {
+            if (mode == Mode.Optimization) {
+                eventReport.disable();
+            } else {
+                eventReport.enable();
+            }
+        }
+    }
+
     public void setMode(Mode mode) throws JBookTraderException {
         if (mode == Mode.Trade || mode == Mode.ForwardTest || mode == Mode.ClosingPositions) {
             if (ntpClock == null) {
@@ -14,7 +14,11 @@ public class AdvancedOptimizationOptionsDialog extends JBTDialog {
     private static final Dimension FIELD_DIMENSION = new Dimension(Integer.MAX_VALUE, 22);
     private final PreferencesHolder prefs;
     private JSlider divideAndConquerCoverageSlider;
-    private JTextField strategiesPerProcessorText;
+    private JTextField strategiesPerProcessorText, resultsKeptText;
+    private JTextField populationSizeText, mutationRateText, elitismText, generationsText;
+    private JTextField bayesianEvaluationsText, pruneMaxDrawdownText, pruneLosersAfterText;
+    private JTextField optimizerProcessesText, optimizerProcessMemoryText;
+    private JCheckBox saveAllResultsCheckBox, checkpointCheckBox, cacheResultsCheckBox;
 
     public AdvancedOptimizationOptionsDialog(JFrame parent) {
         super(parent);
@@ -87,13 +91,75 @@ public class AdvancedOptimizationOptionsDialog extends JBTDialog {
         divideAndConquerCoverageSlider.setPaintLabels(true);
         add(contentPanel, DivideAndConquerCoverage, divideAndConquerCoverageSlider);
 
-        SpringUtilities.makeCompactGrid(contentPanel, 2, 2, 12, 12, 6, 8);
+        resultsKeptText = new JTextField();
+        resultsKeptText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, ResultsKept, resultsKeptText);
+
+        saveAllResultsCheckBox = new JCheckBox("", prefs.get(SaveAllResults).equals("true"));
+        genericAdd(contentPanel, SaveAllResults, saveAllResultsCheckBox);
+
+        populationSizeText = new JTextField();
+        populationSizeText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, GeneticPopulationSize, populationSizeText);
+
+        mutationRateText = new JTextField();
+        mutationRateText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, GeneticMutationRate, mutationRateText);
+
+        elitismText = new JTextField();
+        elitismText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, GeneticElitism, elitismText);
+
+        generationsText = new JTextField();
+        generationsText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, GeneticGenerations, generationsText);
+
+        bayesianEvaluationsText = new JTextField();
+        bayesianEvaluationsText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, BayesianEvaluations, bayesianEvaluationsText);
+
+        pruneMaxDrawdownText = new JTextField();
+        pruneMaxDrawdownText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, PruneMaxDrawdown, pruneMaxDrawdownText);
+
+        pruneLosersAfterText = new JTextField();
+        pruneLosersAfterText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, PruneLosersAfter, pruneLosersAfterText);
+
+        checkpointCheckBox = new JCheckBox("", prefs.get(CheckpointOptimization).equals("true"));
+        genericAdd(contentPanel, CheckpointOptimization, checkpointCheckBox);
+
+        cacheResultsCheckBox = new JCheckBox("", prefs.get(CacheOptimizationResults).equals("true"));
+        genericAdd(contentPanel, CacheOptimizationResults, cacheResultsCheckBox);
+
+        optimizerProcessesText = new JTextField();
+        optimizerProcessesText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, OptimizerProcesses, optimizerProcessesText);
+
+        optimizerProcessMemoryText = new JTextField();
+        optimizerProcessMemoryText.setHorizontalAlignment(SwingConstants.RIGHT);
+        add(contentPanel, OptimizerProcessMemory, optimizerProcessMemoryText);
+
+        SpringUtilities.makeCompactGrid(contentPanel, 15, 2, 12, 12, 6, 8);
 
 
         okButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 prefs.set(DivideAndConquerCoverage, divideAndConquerCoverageSlider.getValue());
                 prefs.set(StrategiesPerProcessor, strategiesPerProcessorText.getText());
+                prefs.set(ResultsKept, resultsKeptText.getText());
+                prefs.set(SaveAllResults, (saveAllResultsCheckBox.isSelected() ? "true" : "false"));
+                prefs.set(GeneticPopulationSize, populationSizeText.getText());
+                prefs.set(GeneticMutationRate, mutationRateText.getText());
+                prefs.set(GeneticElitism, elitismText.getText());
+                prefs.set(GeneticGenerations, generationsText.getText());
+                prefs.set(BayesianEvaluations, bayesianEvaluationsText.getText());
+                prefs.set(PruneMaxDrawdown, pruneMaxDrawdownText.getText());
+                prefs.set(PruneLosersAfter, pruneLosersAfterText.getText());
+                prefs.set(CheckpointOptimization, (checkpointCheckBox.isSelected() ? "true" : "false"));
+                prefs.set(CacheOptimizationResults, (cacheResultsCheckBox.isSelected() ? "true" : "false"));
+                prefs.set(OptimizerProcesses, optimizerProcessesText.getText());
+                prefs.set(OptimizerProcessMemory, optimizerProcessMemoryText.getText());
                 dispose();
             }
         });
@@ -106,7 +172,7 @@ public class AdvancedOptimizationOptionsDialog extends JBTDialog {
 
 
         getRootPane().setDefaultButton(okButton);
-        setPreferredSize(new Dimension(650, 380));
+        setPreferredSize(new Dimension(650, 820));
     }
 
 }
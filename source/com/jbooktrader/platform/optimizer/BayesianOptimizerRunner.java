@@ -0,0 +1,255 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.preferences.*;
+import com.jbooktrader.platform.strategy.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Optimizes a strategy with few evaluations, for the strategies which are expensive to evaluate.
+ * A Gaussian process is fitted to the values of the selected performance metric of the evaluated
+ * parameters, and the next batch of parameters, one per processor, is chosen by the expected
+ * improvement over the best value. Within a batch, each chosen point is added to the model with
+ * its predicted value, so that the rest of the batch explores elsewhere. The strategies which do
+ * not qualify for the results are modeled with the worst value observed.
+ */
+public class BayesianOptimizerRunner extends OptimizerRunner {
+    private static final int RANDOM_CANDIDATES = 2000;
+    private static final int LOCAL_CANDIDATES = 50;// around each of the best points
+    private static final int BEST_POINTS = 5;
+    private static final double[] LENGTH_SCALES = {0.05, 0.1, 0.2, 0.4, 0.8};
+    private final StrategyParamsSchema bounds;
+    private final Map<Object, OptimizationResult> evaluatedResults;
+    private final Random random;
+
+    public BayesianOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params) throws JBookTraderException {
+        this(optimizerContext, strategy, params, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BayesianOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params, int processors) throws JBookTraderException {
+        super(optimizerContext, strategy, params, processors);
+        // the candidates never leave the original ranges, so they can be packed within them
+        bounds = strategyParams.getSchema();
+        evaluatedResults = new ConcurrentHashMap<Object, OptimizationResult>();
+        random = new Random();
+    }
+
+    @Override
+    public void addResults(List<OptimizationResult> results) throws JBookTraderException {
+        super.addResults(results);
+        for (OptimizationResult result : results) {
+            evaluatedResults.put(getKey(result.getParams()), result);
+        }
+    }
+
+    @Override
+    public void optimize() throws JBookTraderException {
+        StrategyParamsSchema schema = strategyParams.getSchema();
+        int dimensions = schema.size();
+        double combinations = 1;
+        for (int index = 0; index < dimensions; index++) {
+            combinations *= schema.getValueCount(index);
+        }
+        int evaluations = (int) Math.min(combinations, PreferencesHolder.getInstance().getInt(JBTPreferences.BayesianEvaluations));
+        int batchSize = Math.max(1, availableProcessors);
+        setTotalStrategies(evaluations);
+        setTotalSteps(snapshotCount * evaluations);
+
+        List<StrategyParams> evaluated = new ArrayList<StrategyParams>();
+        Set<Object> evaluatedKeys = new HashSet<Object>();
+
+        // start with the specified parameters and random points
+        List<StrategyParams> batch = new ArrayList<StrategyParams>();
+        int[] startingValues = new int[dimensions];
+        for (int index = 0; index < dimensions; index++) {
+            startingValues[index] = schema.getValue(index, schema.getValueNumber(index, strategyParams.getValue(index)));
+        }
+        addCandidate(new StrategyParams(schema, startingValues), batch, evaluatedKeys);
+        int initialSize = Math.min(evaluations, Math.max(batchSize, 2 * dimensions + 2));
+        while (batch.size() < initialSize) {
+            addCandidate(getRandomParams(schema), batch, evaluatedKeys);
+        }
+
+        while (!batch.isEmpty() && !cancelled) {
+            execute(new StrategyParamsList(batch, getIndicatorGrouping()));
+            evaluated.addAll(batch);
+
+            int remaining = evaluations - evaluated.size();
+            batch = (remaining > 0) ? proposeBatch(schema, evaluated, evaluatedKeys, Math.min(batchSize, remaining)) : new ArrayList<StrategyParams>();
+        }
+
+        if (optimizationResults.isEmpty() && !cancelled) {
+            noResultsFound();
+        }
+    }
+
+    private Object getKey(StrategyParams params) {
+        return bounds.isPackable() ? (Object) params.getPackedKey(bounds) : params.getKey();
+    }
+
+    private boolean addCandidate(StrategyParams params, List<StrategyParams> batch, Set<Object> evaluatedKeys) {
+        if (evaluatedKeys.add(getKey(params))) {
+            batch.add(params);
+            return true;
+        }
+        return false;
+    }
+
+    private StrategyParams getRandomParams(StrategyParamsSchema schema) {
+        int[] values = new int[schema.size()];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = schema.getValue(index, random.nextInt(schema.getValueCount(index)));
+        }
+        return new StrategyParams(schema, values);
+    }
+
+    private static double[] toPoint(StrategyParams params) {
+        StrategyParamsSchema schema = params.getSchema();
+        double[] point = new double[params.size()];
+        for (int index = 0; index < point.length; index++) {
+            int range = schema.getMax(index) - schema.getMin(index);
+            point[index] = (range > 0) ? (params.getValue(index) - schema.getMin(index)) / (double) range : 0;
+        }
+        return point;
+    }
+
+    private List<StrategyParams> proposeBatch(StrategyParamsSchema schema, List<StrategyParams> evaluated, Set<Object> evaluatedKeys, int batchSize) {
+        PerformanceMetric performanceMetric = getResultComparator().getPerformanceMetric();
+
+        // the qualified results, and the worst of them for the others
+        double[] values = new double[evaluated.size()];
+        double worst = Double.MAX_VALUE;
+        boolean[] isQualified = new boolean[values.length];
+        for (int index = 0; index < values.length; index++) {
+            OptimizationResult result = evaluatedResults.get(getKey(evaluated.get(index)));
+            if (result != null) {
+                values[index] = result.get(performanceMetric);
+                isQualified[index] = true;
+                worst = Math.min(worst, values[index]);
+            }
+        }
+        if (worst == Double.MAX_VALUE) {
+            worst = 0;
+        }
+
+        // standardize the values
+        double mean = 0, variance = 0;
+        for (int index = 0; index < values.length; index++) {
+            if (!isQualified[index]) {
+                values[index] = worst;
+            }
+            mean += values[index];
+        }
+        mean /= values.length;
+        for (double value : values) {
+            variance += (value - mean) * (value - mean);
+        }
+        double deviation = Math.sqrt(variance / values.length);
+        if (deviation == 0) {
+            deviation = 1;
+        }
+
+        double[][] points = new double[values.length][];
+        double best = -Double.MAX_VALUE;
+        Integer[] order = new Integer[values.length];
+        for (int index = 0; index < values.length; index++) {
+            points[index] = toPoint(evaluated.get(index));
+            values[index] = (values[index] - mean) / deviation;
+            best = Math.max(best, values[index]);
+            order[index] = index;
+        }
+
+        // fit the length scale by the marginal likelihood
+        GaussianProcess model = null;
+        double maxLikelihood = -Double.MAX_VALUE;
+        for (double lengthScale : LENGTH_SCALES) {
+            GaussianProcess gaussianProcess = new GaussianProcess(lengthScale * Math.sqrt(points[0].length));
+            for (int index = 0; index < points.length; index++) {
+                gaussianProcess.add(points[index], values[index]);
+            }
+            double likelihood = gaussianProcess.getLogLikelihood();
+            if (likelihood > maxLikelihood) {
+                maxLikelihood = likelihood;
+                model = gaussianProcess;
+            }
+        }
+
+        // random candidates, and candidates near the best points
+        final double[] standardValues = values;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer index1, Integer index2) {
+                return Double.compare(standardValues[index2], standardValues[index1]);
+            }
+        });
+        List<StrategyParams> candidates = new ArrayList<StrategyParams>();
+        for (int count = 0; count < RANDOM_CANDIDATES; count++) {
+            candidates.add(getRandomParams(schema));
+        }
+        for (int rank = 0; rank < Math.min(BEST_POINTS, order.length); rank++) {
+            StrategyParams bestParams = evaluated.get(order[rank]);
+            for (int count = 0; count < LOCAL_CANDIDATES; count++) {
+                int[] candidateValues = new int[schema.size()];
+                for (int index = 0; index < candidateValues.length; index++) {
+                    int valueNumber = schema.getValueNumber(index, bestParams.getValue(index));
+                    if (random.nextInt(schema.size()) == 0) {
+                        valueNumber += random.nextInt(7) - 3;
+                    }
+                    valueNumber = Math.max(0, Math.min(schema.getValueCount(index) - 1, valueNumber));
+                    candidateValues[index] = schema.getValue(index, valueNumber);
+                }
+                candidates.add(new StrategyParams(schema, candidateValues));
+            }
+        }
+
+        List<StrategyParams> batch = new ArrayList<StrategyParams>();
+        Set<Object> candidateKeys = new HashSet<Object>();
+        while (batch.size() < batchSize) {
+            StrategyParams bestCandidate = null;
+            double[] bestPoint = null;
+            double maxImprovement = -1;
+            for (StrategyParams candidate : candidates) {
+                Object key = getKey(candidate);
+                if (evaluatedKeys.contains(key) || !candidateKeys.add(key)) {
+                    continue;
+                }
+                double[] point = toPoint(candidate);
+                double improvement = getExpectedImprovement(model.predict(point), best);
+                if (improvement > maxImprovement) {
+                    maxImprovement = improvement;
+                    bestCandidate = candidate;
+                    bestPoint = point;
+                }
+            }
+            candidateKeys.clear();
+            if (bestCandidate == null) {
+                break;// all the candidates have been evaluated
+            }
+            addCandidate(bestCandidate, batch, evaluatedKeys);
+            model.add(bestPoint, model.predict(bestPoint)[0]);
+        }
+
+        return batch;
+    }
+
+    private static double getExpectedImprovement(double[] prediction, double best) {
+        double deviation = Math.sqrt(prediction[1]);
+        if (deviation < 1e-9) {
+            return Math.max(0, prediction[0] - best);
+        }
+        double z = (prediction[0] - best) / deviation;
+        double density = Math.exp(-0.5 * z * z) / Math.sqrt(2 * Math.PI);
+        return (prediction[0] - best) * getNormalDistribution(z) + deviation * density;
+    }
+
+    /**
+     * Returns the standard normal cumulative distribution (Abramowitz and Stegun, 26.2.17).
+     */
+    private static double getNormalDistribution(double z) {
+        double t = 1 / (1 + 0.2316419 * Math.abs(z));
+        double density = Math.exp(-0.5 * z * z) / Math.sqrt(2 * Math.PI);
+        double tail = density * t * (0.319381530 + t * (-0.356563782 + t * (1.781477937 + t * (-1.821255978 + t * 1.330274429))));
+        return (z >= 0) ? 1 - tail : tail;
+    }
+}
@@ -3,20 +3,22 @@ package com.jbooktrader.platform.optimizer;
 import com.jbooktrader.platform.model.*;
 import com.jbooktrader.platform.strategy.*;
 
-import java.util.*;
-
 /**
  */
 public class BruteForceOptimizerRunner extends OptimizerRunner {
 
-    public BruteForceOptimizerRunner(OptimizerDialog optimizerDialog, Strategy strategy, StrategyParams params) throws JBookTraderException {
-        super(optimizerDialog, strategy, params);
+    public BruteForceOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params) throws JBookTraderException {
+        super(optimizerContext, strategy, params);
+    }
+
+    public BruteForceOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params, int processors) throws JBookTraderException {
+        super(optimizerContext, strategy, params, processors);
     }
 
     @Override
     public void optimize() throws JBookTraderException {
-        Queue<StrategyParams> tasks = getTasks(strategyParams);
-        int taskSize = tasks.size();
+        StrategyParamsGrid tasks = getTasks(strategyParams);
+        long taskSize = tasks.getTaskCount();
         setTotalSteps(snapshotCount * taskSize);
         setTotalStrategies(taskSize);
         execute(tasks);
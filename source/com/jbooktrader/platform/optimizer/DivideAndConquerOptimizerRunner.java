@@ -5,16 +5,34 @@ import com.jbooktrader.platform.preferences.*;
 import com.jbooktrader.platform.strategy.*;
 
 import java.util.*;
-import java.util.concurrent.*;
 
 /**
  * Runs a trading strategy in the optimizer mode using a data file containing
  * historical market snapshots.
  */
 public class DivideAndConquerOptimizerRunner extends OptimizerRunner {
+    private static final int DIVIDER = 3;
 
-    public DivideAndConquerOptimizerRunner(OptimizerDialog optimizerDialog, Strategy strategy, StrategyParams params) throws JBookTraderException {
-        super(optimizerDialog, strategy, params);
+    public DivideAndConquerOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params) throws JBookTraderException {
+        super(optimizerContext, strategy, params);
+    }
+
+    public DivideAndConquerOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params, int processors) throws JBookTraderException {
+        super(optimizerContext, strategy, params, processors);
+    }
+
+    private int getChunkSize() {
+        return 100 * PreferencesHolder.getInstance().getInt(JBTPreferences.DivideAndConquerCoverage);
+    }
+
+    private int getNumberOfCandidates() {
+        return Math.max(1, (int) (getChunkSize() / Math.pow(DIVIDER, strategyParams.size())));
+    }
+
+    @Override
+    protected int getMinResultsKept() {
+        // the candidates for the next iteration are taken from the best results
+        return Math.max(super.getMinResultsKept(), getNumberOfCandidates());
     }
 
     @Override
@@ -23,22 +41,24 @@ public class DivideAndConquerOptimizerRunner extends OptimizerRunner {
         StrategyParams startingParams = new StrategyParams(strategyParams);
         topParams.add(startingParams);
         int dimensions = strategyParams.size();
-        HashSet<String> uniqueParams = new HashSet<String>();
+        // the parameter values never leave the original ranges, so they can be packed within them
+        StrategyParamsSchema bounds = strategyParams.getSchema();
+        boolean isPackable = bounds.isPackable();
+        HashSet<Object> uniqueParams = new HashSet<Object>();
 
         int maxRange = 0;
         for (StrategyParam param : startingParams.getAll()) {
             maxRange = Math.max(maxRange, param.getMax() - param.getMin());
         }
 
-        int divider = 3;
+        int divider = DIVIDER;
         int iterationsRemaining = 1 + (int) (Math.log(maxRange) / Math.log(divider));
 
         long completedSteps = 0;
         LinkedList<StrategyParams> tasks = new LinkedList<StrategyParams>();
-        Queue<StrategyParams> filteredTasks = new LinkedBlockingQueue<StrategyParams>();
-        PreferencesHolder prefs = PreferencesHolder.getInstance();
-        int chunkSize = 100 * prefs.getInt(JBTPreferences.DivideAndConquerCoverage);
-        int numberOfCandidates = Math.max(1, (int) (chunkSize / Math.pow(divider, dimensions)));
+        List<StrategyParams> filteredTasks = new ArrayList<StrategyParams>();
+        int chunkSize = getChunkSize();
+        int numberOfCandidates = getNumberOfCandidates();
         int filteredTasksSize;
 
         do {
@@ -50,14 +70,15 @@ public class DivideAndConquerOptimizerRunner extends OptimizerRunner {
                     int step = Math.max(1, (param.getMax() - param.getMin()) / (maxPartsPerDimension - 1));
                     param.setStep(step);
                 }
-                tasks.addAll(getTasks(params));
+                for (StrategyParams task : getTasks(params)) {
+                    tasks.add(task);
+                }
             }
 
             filteredTasks.clear();
             for (StrategyParams params : tasks) {
-                String key = params.getKey();
-                if (!uniqueParams.contains(key)) {
-                    uniqueParams.add(key);
+                Object key = isPackable ? (Object) params.getPackedKey(bounds) : params.getKey();
+                if (uniqueParams.add(key)) {
                     filteredTasks.add(params);
                 }
             }
@@ -66,21 +87,23 @@ public class DivideAndConquerOptimizerRunner extends OptimizerRunner {
             setTotalSteps(totalSteps);
             filteredTasksSize = filteredTasks.size();
             setTotalStrategies(filteredTasksSize);
-            execute(filteredTasks);
+            execute(new StrategyParamsList(filteredTasks, getIndicatorGrouping()));
 
             iterationsRemaining = Math.max(1, --iterationsRemaining);
             completedSteps += snapshotCount * filteredTasksSize;
 
-            if (optimizationResults.isEmpty() && !cancelled) {
-                throw new JBookTraderException("No strategies found within the specified parameter boundaries.");
+            List<OptimizationResult> results = optimizationResults.get();
+            if (results.isEmpty() && !cancelled) {
+                noResultsFound();
+                return;
             }
 
 
             topParams.clear();
 
-            int maxIndex = Math.min(numberOfCandidates, optimizationResults.size());
+            int maxIndex = Math.min(numberOfCandidates, results.size());
             for (int index = 0; index < maxIndex; index++) {
-                StrategyParams params = optimizationResults.get(index).getParams();
+                StrategyParams params = results.get(index).getParams();
                 for (StrategyParam param : params.getAll()) {
                     String name = param.getName();
                     int value = param.getValue();
@@ -0,0 +1,61 @@
+package com.jbooktrader.platform.optimizer;
+
+/**
+ * The net profit of a strategy over time, as a point for each time it changed,
+ * stored as primitive arrays.
+ */
+public class EquityCurve {
+    private static final int DEFAULT_CAPACITY = 64;
+    private long[] times;
+    private double[] netProfits;
+    private int size;
+
+    public EquityCurve() {
+        times = new long[DEFAULT_CAPACITY];
+        netProfits = new double[DEFAULT_CAPACITY];
+    }
+
+    public void add(long time, double netProfit) {
+        if (size == times.length) {
+            int capacity = size + (size >> 1) + 1;
+            long[] newTimes = new long[capacity];
+            double[] newNetProfits = new double[capacity];
+            System.arraycopy(times, 0, newTimes, 0, size);
+            System.arraycopy(netProfits, 0, newNetProfits, 0, size);
+            times = newTimes;
+            netProfits = newNetProfits;
+        }
+        times[size] = time;
+        netProfits[size] = netProfit;
+        size++;
+    }
+
+    /**
+     * Appends the points of the specified curve, with their net profit added to the last one of this curve.
+     */
+    public void append(EquityCurve curve) {
+        double offset = getNetProfit();
+        for (int index = 0; index < curve.size; index++) {
+            add(curve.times[index], offset + curve.netProfits[index]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getNetProfit(int index) {
+        return netProfits[index];
+    }
+
+    /**
+     * Returns the last net profit, or 0 if the curve is empty.
+     */
+    public double getNetProfit() {
+        return (size == 0) ? 0 : netProfits[size - 1];
+    }
+}
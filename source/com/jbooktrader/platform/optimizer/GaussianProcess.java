@@ -0,0 +1,129 @@
+package com.jbooktrader.platform.optimizer;
+
+import java.util.*;
+
+/**
+ * Gaussian process regression with a squared exponential kernel, over points scaled to the
+ * unit hypercube. The Cholesky factor of the kernel matrix is extended one row at a time, as
+ * the observations are added.
+ */
+class GaussianProcess {
+    private static final double NOISE = 1e-4;
+    private final double lengthScale;
+    private final List<double[]> points, choleskyRows;
+    private final List<Double> values;
+    private double[] alpha;
+
+    GaussianProcess(double lengthScale) {
+        this.lengthScale = lengthScale;
+        points = new ArrayList<double[]>();
+        choleskyRows = new ArrayList<double[]>();
+        values = new ArrayList<Double>();
+    }
+
+    private double kernel(double[] point1, double[] point2) {
+        double distance = 0;
+        for (int index = 0; index < point1.length; index++) {
+            double delta = point1[index] - point2[index];
+            distance += delta * delta;
+        }
+        return Math.exp(-distance / (2 * lengthScale * lengthScale));
+    }
+
+    /**
+     * Solves L * x = b, where L is the Cholesky factor.
+     */
+    private double[] solveLower(double[] b) {
+        int size = b.length;
+        double[] x = new double[size];
+        for (int row = 0; row < size; row++) {
+            double[] choleskyRow = choleskyRows.get(row);
+            double sum = b[row];
+            for (int column = 0; column < row; column++) {
+                sum -= choleskyRow[column] * x[column];
+            }
+            x[row] = sum / choleskyRow[row];
+        }
+        return x;
+    }
+
+    /**
+     * Solves transpose(L) * x = b, where L is the Cholesky factor.
+     */
+    private double[] solveUpper(double[] b) {
+        int size = b.length;
+        double[] x = new double[size];
+        for (int row = size - 1; row >= 0; row--) {
+            double sum = b[row];
+            for (int column = row + 1; column < size; column++) {
+                sum -= choleskyRows.get(column)[row] * x[column];
+            }
+            x[row] = sum / choleskyRows.get(row)[row];
+        }
+        return x;
+    }
+
+    void add(double[] point, double value) {
+        int size = points.size();
+        double[] covariances = new double[size];
+        for (int index = 0; index < size; index++) {
+            covariances[index] = kernel(points.get(index), point);
+        }
+        double[] row = Arrays.copyOf(solveLower(covariances), size + 1);
+        double sum = 0;
+        for (int index = 0; index < size; index++) {
+            sum += row[index] * row[index];
+        }
+        row[size] = Math.sqrt(Math.max(1 + NOISE - sum, NOISE));
+
+        points.add(point);
+        choleskyRows.add(row);
+        values.add(value);
+        alpha = null;
+    }
+
+    private double[] getAlpha() {
+        if (alpha == null) {
+            double[] y = new double[values.size()];
+            for (int index = 0; index < y.length; index++) {
+                y[index] = values.get(index);
+            }
+            alpha = solveUpper(solveLower(y));
+        }
+        return alpha;
+    }
+
+    /**
+     * Returns the mean and the variance of the value predicted at the point.
+     */
+    double[] predict(double[] point) {
+        int size = points.size();
+        double[] covariances = new double[size];
+        for (int index = 0; index < size; index++) {
+            covariances[index] = kernel(points.get(index), point);
+        }
+        double mean = 0;
+        double[] alpha = getAlpha();
+        for (int index = 0; index < size; index++) {
+            mean += covariances[index] * alpha[index];
+        }
+        double[] v = solveLower(covariances);
+        double variance = 1;
+        for (double vi : v) {
+            variance -= vi * vi;
+        }
+        return new double[] {mean, Math.max(variance, 0)};
+    }
+
+    /**
+     * Returns the log of the marginal likelihood of the observations, up to a constant.
+     */
+    double getLogLikelihood() {
+        double[] alpha = getAlpha();
+        double likelihood = 0;
+        for (int index = 0; index < alpha.length; index++) {
+            likelihood -= 0.5 * values.get(index) * alpha[index] + Math.log(choleskyRows.get(index)[index]);
+        }
+        return likelihood;
+    }
+}
@@ -0,0 +1,152 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.preferences.*;
+import com.jbooktrader.platform.strategy.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Optimizes a strategy with a genetic algorithm. Each individual is a combination of the parameter
+ * values on the grid defined by the parameter ranges and steps. Each generation is evaluated in
+ * parallel by the optimizer workers, skipping the combinations evaluated in the earlier generations.
+ * The next generation keeps the elite of the previous one, and the rest of it is bred from the
+ * parents chosen by tournaments, with uniform crossover and random mutation of the values. The
+ * strategies which do not qualify for the results lose to all those which do.
+ */
+public class GeneticOptimizerRunner extends OptimizerRunner {
+    private static final int TOURNAMENT_SIZE = 3;
+    private final StrategyParamsSchema bounds;
+    private final Map<Object, OptimizationResult> evaluatedResults;
+    private final Random random;
+
+    public GeneticOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params) throws JBookTraderException {
+        this(optimizerContext, strategy, params, Runtime.getRuntime().availableProcessors());
+    }
+
+    public GeneticOptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params, int processors) throws JBookTraderException {
+        super(optimizerContext, strategy, params, processors);
+        // the individuals never leave the original ranges, so they can be packed within them
+        bounds = strategyParams.getSchema();
+        evaluatedResults = new ConcurrentHashMap<Object, OptimizationResult>();
+        random = new Random();
+    }
+
+    @Override
+    public void addResults(List<OptimizationResult> results) throws JBookTraderException {
+        super.addResults(results);
+        for (OptimizationResult result : results) {
+            evaluatedResults.put(getKey(result.getParams()), result);
+        }
+    }
+
+    @Override
+    protected int getMinResultsKept() {
+        return Math.max(super.getMinResultsKept(), PreferencesHolder.getInstance().getInt(JBTPreferences.GeneticElitism));
+    }
+
+    @Override
+    public void optimize() throws JBookTraderException {
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        int populationSize = Math.max(2, prefs.getInt(JBTPreferences.GeneticPopulationSize));
+        double mutationRate = prefs.getInt(JBTPreferences.GeneticMutationRate) / 100.0;
+        int eliteSize = Math.min(populationSize, prefs.getInt(JBTPreferences.GeneticElitism));
+        int generations = Math.max(1, prefs.getInt(JBTPreferences.GeneticGenerations));
+
+        StrategyParamsSchema schema = strategyParams.getSchema();
+        int[] valueCounts = new int[schema.size()];
+        for (int index = 0; index < valueCounts.length; index++) {
+            valueCounts[index] = schema.getValueCount(index);
+        }
+
+        List<StrategyParams> population = new ArrayList<StrategyParams>();
+        int[] startingValues = new int[valueCounts.length];
+        for (int index = 0; index < startingValues.length; index++) {
+            startingValues[index] = schema.getValue(index, schema.getValueNumber(index, strategyParams.getValue(index)));
+        }
+        population.add(new StrategyParams(schema, startingValues));
+        while (population.size() < populationSize) {
+            int[] values = new int[valueCounts.length];
+            for (int index = 0; index < values.length; index++) {
+                values[index] = schema.getValue(index, random.nextInt(valueCounts[index]));
+            }
+            population.add(new StrategyParams(schema, values));
+        }
+
+        Set<Object> evaluatedKeys = new HashSet<Object>();
+        setTotalStrategies((long) populationSize * generations);
+        long completedSteps = 0;
+
+        for (int generation = 0; generation < generations && !cancelled; generation++) {
+            List<StrategyParams> newParams = new ArrayList<StrategyParams>();
+            for (StrategyParams params : population) {
+                if (evaluatedKeys.add(getKey(params))) {
+                    newParams.add(params);
+                }
+            }
+
+            int remainingGenerations = generations - generation - 1;
+            setTotalSteps(completedSteps + snapshotCount * (newParams.size() + (long) remainingGenerations * populationSize));
+            execute(new StrategyParamsList(newParams, getIndicatorGrouping()));
+            completedSteps += snapshotCount * newParams.size();
+
+            if (remainingGenerations == 0) {
+                break;
+            }
+
+            Collections.sort(population, new Comparator<StrategyParams>() {
+                public int compare(StrategyParams params1, StrategyParams params2) {
+                    return compareFitness(params1, params2);
+                }
+            });
+
+            List<StrategyParams> nextPopulation = new ArrayList<StrategyParams>(population.subList(0, eliteSize));
+            while (nextPopulation.size() < populationSize) {
+                StrategyParams parent1 = select(population);
+                StrategyParams parent2 = select(population);
+                int[] values = new int[valueCounts.length];
+                for (int index = 0; index < values.length; index++) {
+                    if (random.nextDouble() < mutationRate) {
+                        values[index] = schema.getValue(index, random.nextInt(valueCounts[index]));
+                    } else {
+                        values[index] = random.nextBoolean() ? parent1.getValue(index) : parent2.getValue(index);
+                    }
+                }
+                nextPopulation.add(new StrategyParams(schema, values));
+            }
+            population = nextPopulation;
+        }
+
+        if (optimizationResults.isEmpty() && !cancelled) {
+            noResultsFound();
+        }
+    }
+
+    private Object getKey(StrategyParams params) {
+        return bounds.isPackable() ? (Object) params.getPackedKey(bounds) : params.getKey();
+    }
+
+    /**
+     * Compares the fitness of the parameters, the fittest first.
+     */
+    private int compareFitness(StrategyParams params1, StrategyParams params2) {
+        OptimizationResult result1 = evaluatedResults.get(getKey(params1));
+        OptimizationResult result2 = evaluatedResults.get(getKey(params2));
+        if (result1 == null || result2 == null) {
+            return (result1 == null) ? ((result2 == null) ? 0 : 1) : -1;
+        }
+        return getResultComparator().compare(result1, result2);
+    }
+
+    private StrategyParams select(List<StrategyParams> population) {
+        StrategyParams winner = population.get(random.nextInt(population.size()));
+        for (int round = 1; round < TOURNAMENT_SIZE; round++) {
+            StrategyParams challenger = population.get(random.nextInt(population.size()));
+            if (compareFitness(challenger, winner) < 0) {
+                winner = challenger;
+            }
+        }
+        return winner;
+    }
+}
@@ -0,0 +1,86 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.indicator.*;
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.strategy.*;
+
+import java.util.*;
+
+/**
+ * Identifies the strategy parameters which affect the construction of the indicators,
+ * by creating the indicators of the strategy with each parameter changed in turn. The
+ * optimizer groups the tasks by the values of these parameters, so that the strategies
+ * in a batch, which share an IndicatorManager, also share their indicators, and each
+ * distinct set of indicators is computed once for all of them. The grouping only affects
+ * how much work is shared, never the results.
+ */
+public class IndicatorGrouping {
+    private final int[] indicatorParams;
+
+    public IndicatorGrouping(OptimizerRunner optimizerRunner, StrategyParams params) throws JBookTraderException {
+        StrategyParams baseParams = new StrategyParams(params);
+        for (int index = 0; index < baseParams.size(); index++) {
+            baseParams.setValue(index, params.getSchema().getMin(index));
+        }
+        List<String> baseKeys = getIndicatorKeys(optimizerRunner, baseParams);
+
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int index = 0; index < baseParams.size(); index++) {
+            StrategyParamsSchema schema = params.getSchema();
+            if (schema.getMax(index) > schema.getMin(index)) {
+                StrategyParams probeParams = new StrategyParams(baseParams);
+                probeParams.setValue(index, schema.getMax(index));
+                if (!getIndicatorKeys(optimizerRunner, probeParams).equals(baseKeys)) {
+                    indexes.add(index);
+                }
+            }
+        }
+
+        indicatorParams = new int[indexes.size()];
+        for (int index = 0; index < indicatorParams.length; index++) {
+            indicatorParams[index] = indexes.get(index);
+        }
+    }
+
+    private static List<String> getIndicatorKeys(OptimizerRunner optimizerRunner, StrategyParams params) throws JBookTraderException {
+        Strategy strategy = optimizerRunner.getStrategyInstance(params);
+        IndicatorManager indicatorManager = new IndicatorManager();
+        strategy.setMarketBook(new MarketBook());
+        strategy.setIndicatorManager(indicatorManager);
+        strategy.setIndicators();
+
+        List<String> keys = new ArrayList<String>();
+        for (Indicator indicator : indicatorManager.getIndicators()) {
+            keys.add(indicator.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the indexes of the parameters which affect the indicators.
+     */
+    public int[] getIndicatorParams() {
+        return indicatorParams;
+    }
+
+    public boolean isIndicatorParam(int index) {
+        for (int indicatorParam : indicatorParams) {
+            if (indicatorParam == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a key which is the same for the parameters with the same indicators.
+     */
+    public String getKey(StrategyParams params) {
+        StringBuilder key = new StringBuilder();
+        for (int index : indicatorParams) {
+            key.append(params.getValue(index)).append("/");
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.strategy.*;
+
+/**
+ * The search methods of the optimizer, in the order in which the optimizer dialog lists them, and
+ * with the names by which they are selected there.
+ */
+public enum OptimizationMethod {
+    BruteForce("Brute force"),
+    DivideAndConquer("Divide & Conquer"),
+    Genetic("Genetic"),
+    Bayesian("Bayesian");
+
+    private final String name;
+
+    OptimizationMethod(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static OptimizationMethod getMethod(String name) {
+        for (OptimizationMethod optimizationMethod : values()) {
+            if (optimizationMethod.name.equals(name)) {
+                return optimizationMethod;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the runner of this method, which runs the strategies in the specified number of threads.
+     */
+    public OptimizerRunner createRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params, int processors) throws JBookTraderException {
+        switch (this) {
+            case BruteForce:
+                return new BruteForceOptimizerRunner(optimizerContext, strategy, params, processors);
+            case DivideAndConquer:
+                return new DivideAndConquerOptimizerRunner(optimizerContext, strategy, params, processors);
+            case Genetic:
+                return new GeneticOptimizerRunner(optimizerContext, strategy, params, processors);
+            default:
+                return new BayesianOptimizerRunner(optimizerContext, strategy, params, processors);
+        }
+    }
+}
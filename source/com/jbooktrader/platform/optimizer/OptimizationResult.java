@@ -22,6 +22,21 @@ public class OptimizationResult {
         bias = performanceManager.getBias();
     }
 
+    /**
+     * Creates the result with the values of the performance metrics, in the order of PerformanceMetric.values().
+     */
+    OptimizationResult(StrategyParams params, double[] metrics) {
+        this.params = params;
+        trades = (int) metrics[PerformanceMetric.Trades.ordinal()];
+        aveDuration = metrics[PerformanceMetric.Duration.ordinal()];
+        bias = metrics[PerformanceMetric.Bias.ordinal()];
+        profitFactor = metrics[PerformanceMetric.PF.ordinal()];
+        performanceIndex = metrics[PerformanceMetric.PI.ordinal()];
+        kellyCriterion = metrics[PerformanceMetric.Kelly.ordinal()];
+        maxDrawdown = metrics[PerformanceMetric.MaxDD.ordinal()];
+        netProfit = metrics[PerformanceMetric.NetProfit.ordinal()];
+    }
+
     public StrategyParams getParams() {
         return params;
     }
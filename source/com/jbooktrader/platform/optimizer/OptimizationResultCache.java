@@ -0,0 +1,401 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * Disk-backed cache of the optimization results, which records the parameter combinations evaluated
+ * by the optimizer, with the performance metrics of those which qualified for the results. The
+ * workers look up each combination before running its strategy, so that an interrupted optimization
+ * is resumed without evaluating the same combinations again, and so is a later optimization of the
+ * same strategy on the same data. The file starts with a signature of the strategy class, the data,
+ * and the optimization settings, and it is only used if the signature matches. Each record is the
+ * int parameter values, a qualified flag, and, for the qualified ones, the double values of the
+ * performance metrics. The records are appended as the batches complete, and flushed to disk
+ * periodically, so that a crash loses little work. An incomplete record at the end is discarded.
+ * <p/>
+ * All the records are kept in the file, but only the packed keys of the combinations which are in
+ * the current ranges of the parameters, with the positions of their metrics in the file, are kept
+ * in memory, and the metrics are read from the file when they are looked up. The parameters must
+ * therefore be packable, as tested by StrategyParamsSchema.isPackable(). A file which was not
+ * modified for MAX_AGE_DAYS is started over, and a file larger than MAX_SIZE is compacted to its
+ * newest records, up to half of that size. The file is only rewritten in those cases, by replacing
+ * it with a new one, so that a crash leaves either the old file or the new one.
+ */
+public class OptimizationResultCache {
+    public static final String EXTENSION = ".cache";
+    public static final long MAX_SIZE = 256L << 20;
+    public static final int MAX_AGE_DAYS = 30;
+    private static final String MAGIC = "JBTResultCache1";
+    private static final PerformanceMetric[] METRICS = PerformanceMetric.values();
+    private static final long NOT_QUALIFIED = -1;
+    private final File file;
+    private final StrategyParamsSchema bounds;
+    private final int recordLength;// the length of the records which did not qualify
+    private long[] keys, positions;// sorted by key; the positions of the metrics in the file, or NOT_QUALIFIED
+    private int size;
+    private final RandomAccessFile metricsFile;
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+
+    public OptimizationResultCache(File file, String signature, StrategyParams params) throws JBookTraderException {
+        this.file = file;
+        bounds = params.getSchema();
+        recordLength = 4 * bounds.size() + 1;
+        keys = new long[1024];
+        positions = new long[1024];
+
+        try {
+            long maxAge = MAX_AGE_DAYS * 24L * 60 * 60 * 1000;
+            if (!hasSignature(signature) || System.currentTimeMillis() - file.lastModified() > maxAge) {
+                rewrite(signature, Long.MAX_VALUE);
+            } else if (file.length() > MAX_SIZE) {
+                rewrite(signature, file.length() - MAX_SIZE / 2);
+            }
+
+            long length = index(signature);
+            sort(0, size);
+            metricsFile = new RandomAccessFile(file, "r");
+            fileOut = new FileOutputStream(file, true);
+            // discards a record which was partially written at the end of the file
+            fileOut.getChannel().truncate(length);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not open optimization results cache " + file, ioe);
+        }
+    }
+
+    private DataInputStream openInput() throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    private boolean hasSignature(String signature) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+
+        DataInputStream in = openInput();
+        try {
+            return MAGIC.equals(in.readUTF()) && signature.equals(in.readUTF());
+        } catch (IOException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long getHeaderLength(String signature) {
+        // the lengths of the modified UTF-8 encodings, as written by writeUTF()
+        return 4 + utfLength(MAGIC) + utfLength(signature);
+    }
+
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int index = 0; index < s.length(); index++) {
+            char c = s.charAt(index);
+            length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        return length;
+    }
+
+    /**
+     * Reads the next record into the specified arrays, and returns its length.
+     *
+     * @throws EOFException at the end of the file, possibly within a record which was partially written
+     */
+    private int readRecord(DataInputStream in, int[] values, double[] metrics) throws IOException {
+        for (int index = 0; index < values.length; index++) {
+            values[index] = in.readInt();
+        }
+        if (!in.readBoolean()) {
+            return recordLength;
+        }
+        for (int index = 0; index < metrics.length; index++) {
+            metrics[index] = in.readDouble();
+        }
+        return recordLength + 8 * metrics.length;
+    }
+
+    /**
+     * Indexes the records of the combinations which are in the current ranges of the parameters,
+     * and returns the length of the file up to the end of its last complete record.
+     */
+    private long index(String signature) throws IOException {
+        long position = getHeaderLength(signature);
+        DataInputStream in = openInput();
+        try {
+            // the signature was checked when the cache was opened
+            in.readUTF();
+            in.readUTF();
+            int[] values = new int[bounds.size()];
+            double[] metrics = new double[METRICS.length];
+            try {
+                while (true) {
+                    int length = readRecord(in, values, metrics);
+                    if (isInRange(values)) {
+                        add(bounds.pack(values), length > recordLength ? position + recordLength : NOT_QUALIFIED);
+                    }
+                    position += length;
+                }
+            } catch (EOFException eofe) {
+                return position;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces the file with a new one, which has the records of the existing file from the specified
+     * position on, if its signature matches. The new file is written next to the existing one, and
+     * then moved over it atomically.
+     */
+    private void rewrite(String signature, long fromPosition) throws IOException {
+        File newFile = new File(file.getPath() + ".tmp");
+        DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile), 1 << 16));
+        try {
+            newOut.writeUTF(MAGIC);
+            newOut.writeUTF(signature);
+            if (fromPosition < file.length()) {
+                copy(signature, newOut, fromPosition);
+            }
+        } finally {
+            newOut.close();
+        }
+
+        Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void copy(String signature, DataOutputStream newOut, long fromPosition) throws IOException {
+        long position = getHeaderLength(signature);
+        DataInputStream in = openInput();
+        try {
+            // the signature was checked when the cache was opened
+            in.readUTF();
+            in.readUTF();
+            int[] values = new int[bounds.size()];
+            double[] metrics = new double[METRICS.length];
+            try {
+                while (true) {
+                    int length = readRecord(in, values, metrics);
+                    if (position >= fromPosition) {
+                        for (int value : values) {
+                            newOut.writeInt(value);
+                        }
+                        newOut.writeBoolean(length > recordLength);
+                        if (length > recordLength) {
+                            for (double metric : metrics) {
+                                newOut.writeDouble(metric);
+                            }
+                        }
+                    }
+                    position += length;
+                }
+            } catch (EOFException eofe) {
+                // the end of the file, possibly within a record which was partially written
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private boolean isInRange(int[] values) {
+        for (int index = 0; index < values.length; index++) {
+            int value = values[index];
+            if (value < bounds.getMin(index) || value > bounds.getMax(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(long key, long position) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+        keys[size] = key;
+        positions[size] = position;
+        size++;
+    }
+
+    /**
+     * Sorts the keys in the specified range, with their positions.
+     */
+    private void sort(int from, int to) {
+        while (to - from > 1) {
+            long pivot = keys[(from + to) >>> 1];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long key = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = key;
+                    long position = positions[i];
+                    positions[i] = positions[j];
+                    positions[j] = position;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller part, so that the depth of the recursion is logarithmic
+            if (j + 1 - from < to - i) {
+                sort(from, j + 1);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j + 1;
+            }
+        }
+    }
+
+    private int indexOf(StrategyParams params) {
+        return Arrays.binarySearch(keys, 0, size, params.getPackedKey(bounds));
+    }
+
+    /**
+     * Returns the number of the parameter combinations evaluated before.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the strategy with the specified parameters was evaluated before.
+     */
+    public boolean contains(StrategyParams params) {
+        return indexOf(params) >= 0;
+    }
+
+    /**
+     * Returns the result of the strategy with the specified parameters, evaluated before,
+     * or null if it did not qualify for the results.
+     */
+    public OptimizationResult get(StrategyParams params) throws JBookTraderException {
+        int index = indexOf(params);
+        if (index < 0 || positions[index] == NOT_QUALIFIED) {
+            return null;
+        }
+
+        byte[] bytes = new byte[8 * METRICS.length];
+        try {
+            synchronized (metricsFile) {
+                metricsFile.seek(positions[index]);
+                metricsFile.readFully(bytes);
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not read optimization results cache " + file, ioe);
+        }
+        double[] metrics = new double[METRICS.length];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(metrics);
+        return new OptimizationResult(params, metrics);
+    }
+
+    /**
+     * Records the evaluated parameter combinations, some of which have the specified results.
+     */
+    public synchronized void write(List<StrategyParams> evaluated, List<OptimizationResult> batchResults) throws JBookTraderException {
+        Map<String, OptimizationResult> resultsByKey = new HashMap<String, OptimizationResult>();
+        for (OptimizationResult result : batchResults) {
+            resultsByKey.put(result.getParams().getKey(), result);
+        }
+
+        try {
+            for (StrategyParams params : evaluated) {
+                for (int index = 0; index < params.size(); index++) {
+                    out.writeInt(params.getValue(index));
+                }
+                OptimizationResult result = resultsByKey.get(params.getKey());
+                out.writeBoolean(result != null);
+                if (result != null) {
+                    for (PerformanceMetric metric : METRICS) {
+                        out.writeDouble(result.get(metric));
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write optimization results cache " + file, ioe);
+        }
+    }
+
+    /**
+     * Forces the records written so far to the disk.
+     */
+    public synchronized void flush() throws JBookTraderException {
+        try {
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write optimization results cache " + file, ioe);
+        }
+    }
+
+    public synchronized void close() throws JBookTraderException {
+        try {
+            out.close();
+            metricsFile.close();
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not close optimization results cache " + file, ioe);
+        }
+    }
+
+    /**
+     * Closes and deletes the cache, once the optimization is completed and the results are not to be kept.
+     */
+    public synchronized void delete() throws JBookTraderException {
+        close();
+        if (!file.delete()) {
+            throw new JBookTraderException("Could not delete optimization results cache " + file);
+        }
+    }
+
+    /**
+     * Returns the hex digest of the contents of the specified stream, which is closed.
+     */
+    public static String getDigest(InputStream in) throws JBookTraderException {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            try {
+                byte[] buffer = new byte[1 << 16];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    messageDigest.update(buffer, 0, length);
+                }
+            } finally {
+                in.close();
+            }
+            return toHex(messageDigest.digest());
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new JBookTraderException(nsae);
+        } catch (IOException ioe) {
+            throw new JBookTraderException(ioe);
+        }
+    }
+
+    public static String getDigest(String s) throws JBookTraderException {
+        try {
+            return getDigest(new ByteArrayInputStream(s.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException uee) {
+            throw new JBookTraderException(uee);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.model.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes all the optimization results to a compact binary file, for analysis beyond the best
+ * results kept in memory. The file starts with the number and the names of the strategy
+ * parameters, followed by the number and the names of the performance metrics. Each result
+ * is then a record of the int parameter values followed by the double metric values.
+ */
+public class OptimizationResultsFile {
+    public static final String EXTENSION = ".results";
+    private static final PerformanceMetric[] METRICS = PerformanceMetric.values();
+    private final DataOutputStream out;
+    private final String fileName;
+
+    public OptimizationResultsFile(String fileName, StrategyParams params) throws JBookTraderException {
+        this.fileName = fileName;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+            out.writeInt(params.size());
+            for (StrategyParam param : params.getAll()) {
+                out.writeUTF(param.getName());
+            }
+            out.writeInt(METRICS.length);
+            for (PerformanceMetric metric : METRICS) {
+                out.writeUTF(metric.getName());
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not create optimization results file " + fileName, ioe);
+        }
+    }
+
+    public synchronized void write(List<OptimizationResult> results) throws JBookTraderException {
+        try {
+            for (OptimizationResult result : results) {
+                StrategyParams params = result.getParams();
+                for (int index = 0; index < params.size(); index++) {
+                    out.writeInt(params.getValue(index));
+                }
+                for (PerformanceMetric metric : METRICS) {
+                    out.writeDouble(result.get(metric));
+                }
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not write to optimization results file " + fileName, ioe);
+        }
+    }
+
+    public synchronized void close() throws JBookTraderException {
+        try {
+            out.close();
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not close optimization results file " + fileName, ioe);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.jbooktrader.platform.optimizer;
+
+/**
+ * Strategy parameters to be optimized, addressed by index, so that the optimizer workers
+ * can split them into ranges. The tasks which share their indicators are contiguous.
+ */
+public interface OptimizationTasks {
+    long getTaskCount();
+
+    StrategyParams getTask(long index);
+
+    /**
+     * Returns the index after the last task which shares the indicators of the specified task.
+     */
+    long getGroupEnd(long index);
+}
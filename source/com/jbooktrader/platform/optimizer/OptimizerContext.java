@@ -0,0 +1,32 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.marketbook.*;
+
+import java.util.*;
+
+/**
+ * What an OptimizerRunner is given to run, and where it reports its progress and results:
+ * the optimizer dialog, or a process which runs the optimization without the user interface.
+ */
+public interface OptimizerContext extends ProgressListener {
+    String getFileName();
+
+    MarketSnapshotFilter getDateFilter();
+
+    int getMinTrades();
+
+    PerformanceMetric getSortCriteria();
+
+    void enableProgress();
+
+    void setRemainingTime(String remainingTime);
+
+    void setResults(List<OptimizationResult> optimizationResults);
+
+    void signalCompleted();
+
+    void showMessage(String message);
+
+    void showException(Throwable t);
+}
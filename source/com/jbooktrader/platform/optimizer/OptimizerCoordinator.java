@@ -0,0 +1,376 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.preferences.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs the optimization tasks in worker processes on the same machine, so that an optimization
+ * can use the memory and the processors of more than one JVM. The coordinator listens on the
+ * loopback interface only, and starts the worker processes, which connect to it, load the data
+ * file once, and then run the ranges of the tasks which the coordinator sends them, each range
+ * with its own fork-join pool. A worker sends its progress as it goes, and the results of a range
+ * when it is completed. If a worker dies, the range it was running is run by another worker.
+ * The tasks found in the optimization results cache are not sent to the workers.
+ */
+public class OptimizerCoordinator {
+    static final byte JOB = 1, RANGE = 2, PROGRESS = 3, RESULTS = 4, ERROR = 5;
+    private static final int MIN_RANGES_PER_WORKER = 4;// so that the workers can balance the end of a round
+    private static final int MAX_RANGE_SIZE = 5000;// max number of tasks in a range
+    private static final long MIN_WORKER_MEMORY = 256;// megabytes
+    // the preferences which the workers take from the coordinator, since they affect the results
+    private static final JBTPreferences[] JOB_PREFERENCES = {JBTPreferences.InclusionCriteria, JBTPreferences.PruneMaxDrawdown,
+            JBTPreferences.PruneLosersAfter, JBTPreferences.StrategiesPerProcessor};
+    private final OptimizerRunner optimizerRunner;
+    private final ServerSocket serverSocket;
+    private final List<Process> processes;
+    private final List<Socket> sockets;
+    private final LinkedList<Range> failedRanges;
+    private final int workerProcesses, threadsPerWorker;
+    private int connectedWorkers, pendingRanges;
+    private OptimizationTasks tasks;
+    private long nextTask;
+    private int rangeSize;
+    private Throwable failure;
+    private boolean isClosed;
+
+    private static class Range {
+        private final OptimizationTasks tasks;
+        private final long start, end;
+        private final AtomicLong creditedSteps;
+
+        private Range(OptimizationTasks tasks, long start, long end) {
+            this.tasks = tasks;
+            this.start = start;
+            this.end = end;
+            creditedSteps = new AtomicLong();
+        }
+    }
+
+    private class Acceptor implements Runnable {
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    synchronized (OptimizerCoordinator.this) {
+                        sockets.add(socket);
+                        connectedWorkers++;
+                    }
+                    Thread thread = new Thread(new Connection(socket), "Optimizer connection " + socket.getPort());
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException ioe) {
+                    // the server socket is closed
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the ranges of the tasks to one worker process, and receives their results.
+     */
+    private class Connection implements Runnable {
+        private final Socket socket;
+
+        private Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            Range range = null;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                writeJob(out);
+                while ((range = takeRange()) != null) {
+                    runRange(range, in, out);
+                    rangeCompleted(range);
+                    range = null;
+                }
+            } catch (JBookTraderException e) {
+                fail(e);
+            } catch (IOException ioe) {
+                // the worker died, or the coordinator is closed
+            } catch (InterruptedException ie) {
+                // the coordinator is closed
+            } finally {
+                workerLost(range);
+                try {
+                    socket.close();
+                } catch (IOException ioe) {
+                    // already closed
+                }
+            }
+        }
+    }
+
+    public OptimizerCoordinator(OptimizerRunner optimizerRunner, int workerProcesses) throws JBookTraderException {
+        this.optimizerRunner = optimizerRunner;
+        this.workerProcesses = workerProcesses;
+        threadsPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / workerProcesses);
+        processes = new ArrayList<Process>();
+        sockets = new ArrayList<Socket>();
+        failedRanges = new LinkedList<Range>();
+
+        try {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName(null));
+        } catch (IOException ioe) {
+            throw new JBookTraderException("Could not listen for the optimizer processes", ioe);
+        }
+        Thread acceptor = new Thread(new Acceptor(), "Optimizer coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        String fileSeparator = System.getProperty("file.separator");
+        String java = System.getProperty("java.home") + fileSeparator + "bin" + fileSeparator + "java";
+        // unless specified, the workers share the memory which this JVM may take, as it does not load the data
+        long workerMemory = PreferencesHolder.getInstance().getInt(JBTPreferences.OptimizerProcessMemory);
+        if (workerMemory <= 0) {
+            workerMemory = Math.max(MIN_WORKER_MEMORY, Runtime.getRuntime().maxMemory() / (1024 * 1024) / workerProcesses);
+        }
+        String maxMemory = "-Xmx" + workerMemory + "m";
+        String classPath = System.getProperty("java.class.path");
+        String port = String.valueOf(serverSocket.getLocalPort());
+        for (int process = 0; process < workerProcesses; process++) {
+            ProcessBuilder processBuilder = new ProcessBuilder(java, maxMemory, "-cp", classPath, OptimizerWorkerProcess.class.getName(), port);
+            processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            try {
+                processes.add(processBuilder.start());
+            } catch (IOException ioe) {
+                close();
+                throw new JBookTraderException("Could not start the optimizer process", ioe);
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks in the worker processes, and returns when all of them are completed,
+     * or the optimization is cancelled.
+     */
+    void execute(OptimizationTasks tasks) throws JBookTraderException {
+        synchronized (this) {
+            this.tasks = tasks;
+            nextTask = 0;
+            failedRanges.clear();
+            long taskCount = tasks.getTaskCount();
+            long ranges = (long) MIN_RANGES_PER_WORKER * workerProcesses;
+            rangeSize = (int) Math.max(1, Math.min(MAX_RANGE_SIZE, (taskCount + ranges - 1) / ranges));
+            notifyAll();
+
+            try {
+                while ((pendingRanges > 0 || nextTask < taskCount || !failedRanges.isEmpty()) && failure == null && !optimizerRunner.isCancelled()) {
+                    if (connectedWorkers == 0 && !isAnyProcessAlive()) {
+                        failure = new JBookTraderException("The optimizer processes have stopped.");
+                    } else {
+                        wait(1000);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                throw new JBookTraderException(ie);
+            } finally {
+                this.tasks = null;
+                pendingRanges = 0;
+            }
+
+            if (failure != null) {
+                throw (failure instanceof JBookTraderException) ? (JBookTraderException) failure : new JBookTraderException(failure);
+            }
+        }
+    }
+
+    private boolean isAnyProcessAlive() {
+        for (Process process : processes) {
+            try {
+                process.exitValue();
+            } catch (IllegalThreadStateException itse) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next range of the tasks to run, waiting until there is one, or null
+     * if the coordinator is closed. The ranges of the dead workers are run first. The
+     * other ranges end where the groups of the tasks with the same indicators end, if
+     * that does not make them much larger.
+     */
+    private synchronized Range takeRange() throws InterruptedException {
+        while (!isClosed) {
+            if (tasks != null && failure == null && !optimizerRunner.isCancelled()) {
+                if (!failedRanges.isEmpty()) {
+                    pendingRanges++;
+                    return failedRanges.removeFirst();
+                }
+                long taskCount = tasks.getTaskCount();
+                if (nextTask < taskCount) {
+                    long end = Math.min(taskCount, nextTask + rangeSize);
+                    long groupEnd = tasks.getGroupEnd(end - 1);
+                    if (groupEnd - end <= rangeSize / 2) {
+                        end = groupEnd;
+                    }
+                    Range range = new Range(tasks, nextTask, end);
+                    nextTask = end;
+                    pendingRanges++;
+                    return range;
+                }
+            }
+            wait();
+        }
+        return null;
+    }
+
+    private synchronized void rangeCompleted(Range range) {
+        if (range.tasks == tasks) {
+            pendingRanges--;
+            notifyAll();
+        }
+    }
+
+    private synchronized void workerLost(Range range) {
+        connectedWorkers--;
+        if (range != null && range.tasks == tasks) {
+            // the progress of the range is credited again when it is run again
+            optimizerRunner.iterationsCompleted(-range.creditedSteps.get());
+            failedRanges.addFirst(new Range(range.tasks, range.start, range.end));
+            pendingRanges--;
+        }
+        notifyAll();
+    }
+
+    private synchronized void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+        notifyAll();
+    }
+
+    private void writeJob(DataOutputStream out) throws IOException {
+        StrategyParams params = optimizerRunner.strategyParams;
+        OptimizerContext optimizerContext = optimizerRunner.getContext();
+        out.writeByte(JOB);
+        out.writeUTF(optimizerRunner.getStrategyClass().getName());
+        out.writeInt(params.size());
+        for (StrategyParam param : params.getAll()) {
+            out.writeUTF(param.getName());
+            out.writeInt(param.getMin());
+            out.writeInt(param.getMax());
+            out.writeInt(param.getStep());
+            out.writeInt(param.getValue());
+        }
+        out.writeUTF(optimizerContext.getFileName());
+        MarketSnapshotFilter filter = optimizerContext.getDateFilter();
+        out.writeBoolean(filter != null);
+        if (filter != null) {
+            out.writeLong(filter.getFromDate());
+            out.writeLong(filter.getToDate());
+        }
+        out.writeInt(optimizerRunner.getMinTrades());
+        out.writeUTF(optimizerContext.getSortCriteria().name());
+        out.writeInt(threadsPerWorker);
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        out.writeInt(JOB_PREFERENCES.length);
+        for (JBTPreferences pref : JOB_PREFERENCES) {
+            out.writeUTF(pref.name());
+            out.writeUTF(prefs.get(pref));
+        }
+        out.flush();
+    }
+
+    /**
+     * Sends the tasks of the range which are not in the results cache to the worker,
+     * and adds their results when the worker completes them.
+     */
+    private void runRange(Range range, DataInputStream in, DataOutputStream out) throws IOException, JBookTraderException {
+        OptimizationResultCache resultCache = optimizerRunner.getResultCache();
+        List<StrategyParams> rangeParams = new ArrayList<StrategyParams>();
+        List<OptimizationResult> cachedResults = new ArrayList<OptimizationResult>();
+        for (long index = range.start; index < range.end; index++) {
+            StrategyParams params = range.tasks.getTask(index);
+            if (resultCache != null && resultCache.contains(params)) {
+                OptimizationResult cachedResult = resultCache.get(params);
+                if (cachedResult != null) {
+                    cachedResults.add(cachedResult);
+                }
+                optimizerRunner.iterationsCompleted(optimizerRunner.snapshotCount);
+            } else {
+                rangeParams.add(params);
+            }
+        }
+        int cachedCount = (int) (range.end - range.start) - rangeParams.size();
+        if (cachedCount > 0) {
+            optimizerRunner.cacheHits(cachedCount);
+            optimizerRunner.addResults(cachedResults);
+        }
+        if (rangeParams.isEmpty()) {
+            return;
+        }
+
+        out.writeByte(RANGE);
+        out.writeInt(rangeParams.size());
+        for (StrategyParams params : rangeParams) {
+            for (int index = 0; index < params.size(); index++) {
+                out.writeInt(params.getValue(index));
+            }
+        }
+        out.flush();
+
+        while (true) {
+            byte message = in.readByte();
+            if (message == PROGRESS) {
+                long steps = in.readLong();
+                range.creditedSteps.addAndGet(steps);
+                optimizerRunner.iterationsCompleted(steps);
+            } else if (message == RESULTS) {
+                int resultsCount = in.readInt();
+                List<OptimizationResult> results = new ArrayList<OptimizationResult>(resultsCount);
+                double[] metrics = new double[PerformanceMetric.values().length];
+                for (int result = 0; result < resultsCount; result++) {
+                    int index = in.readInt();
+                    for (int metric = 0; metric < metrics.length; metric++) {
+                        metrics[metric] = in.readDouble();
+                    }
+                    // the results take the parameters of the tasks, whose ranges some optimizers use
+                    results.add(new OptimizationResult(rangeParams.get(index), metrics));
+                }
+                optimizerRunner.addResults(results);
+                optimizerRunner.cacheResults(rangeParams, results);
+                return;
+            } else if (message == ERROR) {
+                throw new JBookTraderException(in.readUTF());
+            } else {
+                throw new JBookTraderException("Unexpected message from the optimizer process: " + message);
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            isClosed = true;
+            notifyAll();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ioe) {
+            // already closed
+        }
+        synchronized (this) {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException ioe) {
+                    // already closed
+                }
+            }
+        }
+        for (Process process : processes) {
+            process.destroy();
+        }
+    }
+}
@@ -26,7 +26,7 @@ import java.util.List;
 /**
  * Dialog to specify options for back testing using a historical data file.
  */
-public class OptimizerDialog extends JBTDialog implements ProgressListener {
+public class OptimizerDialog extends JBTDialog implements OptimizerContext {
     private final PreferencesHolder prefs;
     private final String strategyName;
     private JPanel progressPanel;
@@ -88,6 +88,14 @@ public class OptimizerDialog extends JBTDialog implements ProgressListener {
         getRootPane().setDefaultButton(cancelButton);
     }
 
+    public void showMessage(String message) {
+        MessageDialog.showMessage(message);
+    }
+
+    public void showException(Throwable t) {
+        MessageDialog.showException(t);
+    }
+
     public void signalCompleted() {
         progressPanel.setVisible(false);
         optimizeButton.setEnabled(true);
@@ -117,14 +125,17 @@ public class OptimizerDialog extends JBTDialog implements ProgressListener {
         }
     }
 
+    private OptimizationMethod getOptimizationMethod() {
+        return OptimizationMethod.getMethod((String) optimizationMethodCombo.getSelectedItem());
+    }
+
     private void setParamTableColumns() {
-        int optimizationMethod = optimizationMethodCombo.getSelectedIndex();
         int columnCount = paramTableColumnModel.getColumnCount();
-        if (optimizationMethod == 0) {
+        if (getOptimizationMethod() != OptimizationMethod.DivideAndConquer) {
             if (columnCount == 3) {
                 paramTableColumnModel.addColumn(stepColumn);
             }
-        } else if (optimizationMethod == 1) {
+        } else {
             if (columnCount == 4) {
                 paramTableColumnModel.removeColumn(stepColumn);
             }
@@ -149,12 +160,8 @@ public class OptimizerDialog extends JBTDialog implements ProgressListener {
                     setOptions();
                     StrategyParams params = paramTableModel.getParams();
 
-                    int optimizationMethod = optimizationMethodCombo.getSelectedIndex();
-                    if (optimizationMethod == 0) {
-                        optimizerRunner = new BruteForceOptimizerRunner(OptimizerDialog.this, strategy, params);
-                    } else if (optimizationMethod == 1) {
-                        optimizerRunner = new DivideAndConquerOptimizerRunner(OptimizerDialog.this, strategy, params);
-                    }
+                    optimizerRunner = getOptimizationMethod().createRunner(OptimizerDialog.this, strategy, params,
+                            Runtime.getRuntime().availableProcessors());
 
                     new Thread(optimizerRunner).start();
                 } catch (Exception ex) {
@@ -343,7 +350,10 @@ public class OptimizerDialog extends JBTDialog implements ProgressListener {
         JPanel optimizationOptionsPanel = new JPanel(new SpringLayout());
 
         JLabel optimizationMethodLabel = new JLabel("Search method:");
-        optimizationMethodCombo = new JComboBox(new String[] {"Brute force", "Divide & Conquer"});
+        optimizationMethodCombo = new JComboBox();
+        for (OptimizationMethod optimizationMethod : OptimizationMethod.values()) {
+            optimizationMethodCombo.addItem(optimizationMethod.getName());
+        }
         String optimizerMethod = prefs.get(OptimizerMethod);
         optimizationMethodCombo.setSelectedItem(optimizerMethod);
 
@@ -1,10 +1,13 @@
 package com.jbooktrader.platform.optimizer;
 
 import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.indicator.*;
 import com.jbooktrader.platform.marketbook.*;
 import com.jbooktrader.platform.model.*;
 import static com.jbooktrader.platform.optimizer.PerformanceMetric.*;
+import com.jbooktrader.platform.preferences.*;
 import com.jbooktrader.platform.report.*;
+import com.jbooktrader.platform.startup.*;
 import com.jbooktrader.platform.strategy.*;
 import com.jbooktrader.platform.util.*;
 
@@ -20,55 +23,90 @@ import java.util.concurrent.atomic.*;
  * historical market snapshots.
  */
 public abstract class OptimizerRunner implements Runnable {
-    protected final List<OptimizationResult> optimizationResults;
+    protected TopResults optimizationResults;
     protected final StrategyParams strategyParams;
     protected long snapshotCount;
     protected boolean cancelled;
     protected final int availableProcessors;
     private static final int MAX_SAVED_RESULTS = 100;// max number of results in the optimization results file
+    private static final long TARGET_BATCH_NANOS = 500 * 1000000L;// run time of a batch, once the strategy cost is measured
+    private static final int MAX_BATCH_SIZE = 2000;// max number of strategies in a batch
+    private static final int MIN_BATCHES_PER_PROCESSOR = 4;// so that the processors can balance the end of a round
+    private static final Map<String, String> fileDigests = new HashMap<String, String>();
     private final Constructor<?> strategyConstructor;
     private final ScheduledExecutorService progressExecutor, resultsTableExecutor;
-    private ExecutorService optimizationExecutor;
+    private final ForkJoinPool optimizationPool;
+    private final AtomicLong batchStrategies, batchNanos;
     private final NumberFormat nf2, nf0, gnf0;
     private final String strategyName;
     private final int minTrades;
     private final AtomicLong completedSteps;
-    private final OptimizerDialog optimizerDialog;
+    private final OptimizerContext optimizerContext;
     private ResultComparator resultComparator;
     private ComputationalTimeEstimator timeEstimator;
-    private List<MarketSnapshot> snapshots;
+    private MarketSnapshotSource snapshots, sharedSnapshots;
+    private long sharedSeriesCacheBytes;
+    private IndicatorGrouping indicatorGrouping;
+    private IndicatorSeriesCache indicatorSeriesCache;
+    private PruningRules pruningRules;
     private long totalSteps;
     private String totalStrategiesString;
     private long previousResultsSize;
+    private OptimizationResultsFile allResultsFile;
+    private OptimizationResultCache resultCache;
+    private OptimizerCoordinator coordinator;
+    private final AtomicLong cachedStrategies;
 
     private class ProgressRunner implements Runnable {
         public void run() {
             if (completedSteps.get() > 0) {
-                showProgress(completedSteps.get(), "Optimizing " + totalStrategiesString + " strategies");
+                String text = "Optimizing " + totalStrategiesString + " strategies";
+                long cached = cachedStrategies.get();
+                if (cached > 0) {
+                    text += ", " + gnf0.format(cached) + " from cache";
+                }
+                showProgress(completedSteps.get(), text);
             }
         }
     }
 
     private class ResultsTableRunner implements Runnable {
         public void run() {
-            int size = optimizationResults.size();
-            if (size > previousResultsSize) {
-                optimizerDialog.setResults(optimizationResults);
-                previousResultsSize = size;
+            long count = optimizationResults.getCount();
+            if (count > previousResultsSize) {
+                optimizerContext.setResults(optimizationResults.get());
+                previousResultsSize = count;
+            }
+        }
+    }
+
+    private class ResultCacheRunner implements Runnable {
+        public void run() {
+            try {
+                resultCache.flush();
+            } catch (JBookTraderException e) {
+                optimizerContext.showException(e);
             }
         }
     }
 
-    protected OptimizerRunner(OptimizerDialog optimizerDialog, Strategy strategy, StrategyParams params) throws JBookTraderException {
-        this.optimizerDialog = optimizerDialog;
+    protected OptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params) throws JBookTraderException {
+        this(optimizerContext, strategy, params, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the runner which runs the strategies in the specified number of threads.
+     */
+    protected OptimizerRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params, int processors) throws JBookTraderException {
+        this.optimizerContext = optimizerContext;
         strategyName = strategy.getName();
         strategyParams = params;
-        optimizationResults = new LinkedList<OptimizationResult>();
         nf2 = NumberFormatterFactory.getNumberFormatter(2);
         nf0 = NumberFormatterFactory.getNumberFormatter(0);
         gnf0 = NumberFormatterFactory.getNumberFormatter(0, true);
-        availableProcessors = Runtime.getRuntime().availableProcessors();
+        availableProcessors = processors;
         completedSteps = new AtomicLong();
+        cachedStrategies = new AtomicLong();
 
         Class<?> clazz;
         try {
@@ -83,11 +121,21 @@ public abstract class OptimizerRunner implements Runnable {
             throw new JBookTraderException("Could not find strategy constructor for " + strategy.getClass().getName());
         }
 
-        resultComparator = new ResultComparator(optimizerDialog.getSortCriteria());
-        minTrades = optimizerDialog.getMinTrades();
+        resultComparator = new ResultComparator(optimizerContext.getSortCriteria());
+        minTrades = optimizerContext.getMinTrades();
         progressExecutor = Executors.newSingleThreadScheduledExecutor();
         resultsTableExecutor = Executors.newSingleThreadScheduledExecutor();
-        optimizationExecutor = Executors.newFixedThreadPool(availableProcessors);
+        optimizationPool = new ForkJoinPool(availableProcessors);
+        batchStrategies = new AtomicLong();
+        batchNanos = new AtomicLong();
+    }
+
+    Class<?> getStrategyClass() {
+        return strategyConstructor.getDeclaringClass();
+    }
+
+    OptimizerContext getContext() {
+        return optimizerContext;
     }
 
     public Strategy getStrategyInstance(StrategyParams params) throws JBookTraderException {
@@ -114,43 +162,231 @@ public abstract class OptimizerRunner implements Runnable {
         totalStrategiesString = gnf0.format(totalStrategies);
     }
 
+    protected ResultComparator getResultComparator() {
+        return resultComparator;
+    }
+
     public int getMinTrades() {
         return minTrades;
     }
 
-    public List<MarketSnapshot> getSnapshots() {
+    public MarketSnapshotSource getSnapshots() {
         return snapshots;
     }
 
-    public void addResults(List<OptimizationResult> results) {
-        synchronized (optimizationResults) {
-            optimizationResults.addAll(results);
-            Collections.sort(optimizationResults, resultComparator);
+    /**
+     * Makes the runner optimize on the specified snapshots, which are shared with other runners,
+     * rather than on the data file of the context, keeping at most the specified number of bytes
+     * of the indicator series. Such a run saves no reports, and runs in this process only.
+     */
+    void setSharedSnapshots(MarketSnapshotSource snapshots, long seriesCacheBytes) {
+        sharedSnapshots = snapshots;
+        sharedSeriesCacheBytes = seriesCacheBytes;
+    }
+
+    /**
+     * Returns the minimum number of the best results which must be kept in memory.
+     */
+    protected int getMinResultsKept() {
+        return MAX_SAVED_RESULTS;
+    }
+
+    /**
+     * Called when no strategy qualified for the results. This is an error when optimizing on the
+     * data file, but a valid outcome for a window of a walk-forward optimization, which then stays
+     * flat out of sample.
+     */
+    protected void noResultsFound() throws JBookTraderException {
+        if (sharedSnapshots == null) {
+            throw new JBookTraderException("No strategies found within the specified parameter boundaries.");
         }
     }
 
-    void execute(Queue<StrategyParams> tasks) throws JBookTraderException {
-        if (!tasks.isEmpty()) {
-            Set<Callable<Void>> workers = new HashSet<Callable<Void>>();
-            for (int worker = 0; worker < availableProcessors; worker++) {
-                Callable<Void> optimizerWorker = new OptimizerWorker(this, tasks);
-                workers.add(optimizerWorker);
+    /**
+     * Returns the best results, sorted from the best, once the optimization has run.
+     */
+    List<OptimizationResult> getResults() {
+        return optimizationResults.get();
+    }
+
+    public void addResults(List<OptimizationResult> results) throws JBookTraderException {
+        optimizationResults.addAll(results);
+        if (allResultsFile != null) {
+            allResultsFile.write(results);
+        }
+    }
+
+    /**
+     * Returns the results of the strategies evaluated in the earlier optimizations with the same
+     * settings, or null if the results are not cached.
+     */
+    public OptimizationResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Counts the strategies whose results were found in the cache, rather than evaluated.
+     */
+    void cacheHits(int strategies) {
+        cachedStrategies.addAndGet(strategies);
+    }
+
+    /**
+     * Records the strategies of a batch which was run to the end, with those of their results
+     * which qualified, so that they are not evaluated again.
+     */
+    void cacheResults(List<StrategyParams> evaluated, List<OptimizationResult> results) throws JBookTraderException {
+        if (resultCache != null) {
+            resultCache.write(evaluated, results);
+        }
+    }
+
+    /**
+     * Returns what the results of the strategies depend on, apart from their parameter values: the
+     * version of the strategy class, the contents of the data file with the date filter, and the
+     * settings which decide whether a strategy qualifies for the results.
+     */
+    private String getResultCacheSignature() throws JBookTraderException {
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        Class<?> strategyClass = strategyConstructor.getDeclaringClass();
+        StringBuilder signature = new StringBuilder(strategyClass.getName());
+        InputStream classStream = strategyClass.getResourceAsStream(strategyClass.getSimpleName() + ".class");
+        if (classStream != null) {
+            signature.append("|").append(OptimizationResultCache.getDigest(classStream));
+        }
+        for (StrategyParam param : strategyParams.getAll()) {
+            signature.append("|").append(param.getName());
+        }
+        signature.append("|").append(getFileDigest(optimizerContext.getFileName()));
+        MarketSnapshotFilter filter = optimizerContext.getDateFilter();
+        if (filter != null) {
+            signature.append("|").append(filter.getFromDate()).append("|").append(filter.getToDate());
+        }
+        if (sharedSnapshots != null && snapshotCount > 0) {
+            signature.append("|").append(snapshots.getTime(0)).append("|").append(snapshots.getTime((int) snapshotCount - 1));
+        }
+        signature.append("|").append(minTrades);
+        signature.append("|").append(prefs.get(JBTPreferences.InclusionCriteria));
+        signature.append("|").append(prefs.get(JBTPreferences.PruneMaxDrawdown));
+        signature.append("|").append(prefs.get(JBTPreferences.PruneLosersAfter));
+        return signature.toString();
+    }
+
+    /**
+     * Returns the digest of the contents of the data file, computed once for each version of the
+     * file, as the runners of a walk-forward optimization all use the same file.
+     */
+    private static String getFileDigest(String fileName) throws JBookTraderException {
+        String key = SnapshotCache.getKey(fileName, null);
+        synchronized (fileDigests) {
+            String digest = fileDigests.get(key);
+            if (digest == null) {
+                try {
+                    digest = OptimizationResultCache.getDigest(new FileInputStream(fileName));
+                } catch (FileNotFoundException fnfe) {
+                    throw new JBookTraderException(fnfe);
+                }
+                fileDigests.put(key, digest);
             }
+            return digest;
+        }
+    }
+
+    /**
+     * Returns the parameters which affect the indicators of the strategy being optimized.
+     */
+    public IndicatorGrouping getIndicatorGrouping() {
+        return indicatorGrouping;
+    }
+
+    public PruningRules getPruningRules() {
+        return pruningRules;
+    }
+
+    public IndicatorSeriesCache getIndicatorSeriesCache() {
+        return indicatorSeriesCache;
+    }
+
+    /**
+     * Returns the number of strategies to run in a batch: as many as run in TARGET_BATCH_NANOS at
+     * the cost per strategy measured so far, or the preferred number of strategies per processor,
+     * until a batch is completed. The batches are made smaller if needed, so that there are
+     * enough of them for every processor to keep busy until the end of the optimization round.
+     */
+    public int getBatchSize(long taskCount) {
+        long batchSize;
+        long strategies = batchStrategies.get();
+        if (strategies == 0) {
+            batchSize = PreferencesHolder.getInstance().getInt(JBTPreferences.StrategiesPerProcessor);
+        } else {
+            long nanosPerStrategy = Math.max(1, batchNanos.get() / strategies);
+            batchSize = Math.min(MAX_BATCH_SIZE, TARGET_BATCH_NANOS / nanosPerStrategy);
+        }
+        long minBatches = (long) MIN_BATCHES_PER_PROCESSOR * availableProcessors;
+        batchSize = Math.min(batchSize, (taskCount + minBatches - 1) / minBatches);
+        return (int) Math.max(1, batchSize);
+    }
+
+    void batchCompleted(int strategies, long nanos) {
+        batchNanos.addAndGet(nanos);
+        batchStrategies.addAndGet(strategies);
+    }
+
+    void execute(OptimizationTasks tasks) throws JBookTraderException {
+        long taskCount = tasks.getTaskCount();
+        if (coordinator != null) {
+            coordinator.execute(tasks);
+        } else if (taskCount > 0) {
             try {
-                // submit all workers and wait until they are done
-                List<Future<Void>> futureResults = optimizationExecutor.invokeAll(workers);
-                // all workers are done, call the "get()" to check for exceptions
-                for (Future<Void> futureResult : futureResults) {
-                    futureResult.get();
+                optimizationPool.invoke(new OptimizerWorker(this, tasks, 0, taskCount));
+            } catch (RuntimeException re) {
+                // the fork-join pool may wrap the exception thrown by a worker
+                Throwable cause = re;
+                while (cause.getCause() != null && !(cause instanceof JBookTraderException)) {
+                    cause = cause.getCause();
                 }
-            } catch (Exception e) {
-                throw new JBookTraderException(e.getMessage(), e);
+                throw new JBookTraderException(cause.getMessage(), cause);
             }
         }
     }
 
+    /**
+     * Loads the historical data, and prepares what the workers share to run the strategies on it.
+     */
+    void prepare() throws JBookTraderException {
+        pruningRules = new PruningRules(minTrades);
+        long seriesCacheBytes;
+        if (sharedSnapshots != null) {
+            snapshots = sharedSnapshots;
+            seriesCacheBytes = sharedSeriesCacheBytes;
+        } else {
+            BackTestFileReader backTestFileReader = new BackTestFileReader(optimizerContext.getFileName(), optimizerContext.getDateFilter());
+            optimizerContext.setProgress("Loading historical data file...");
+            snapshots = backTestFileReader.loadSource(optimizerContext);
+            // the indicator series may take up to half of the memory left after loading the data
+            Runtime runtime = Runtime.getRuntime();
+            long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            seriesCacheBytes = freeMemory / 2;
+        }
+        snapshotCount = snapshots.size();
+        indicatorGrouping = new IndicatorGrouping(this, strategyParams);
+        indicatorSeriesCache = new IndicatorSeriesCache(snapshots, seriesCacheBytes);
+    }
+
+    /**
+     * Prepares what the coordinator needs to send the tasks to the worker processes. The worker
+     * processes load the historical data themselves, so only the snapshots are counted here.
+     */
+    private void prepareCoordinator() throws JBookTraderException {
+        pruningRules = new PruningRules(minTrades);
+        BackTestFileReader backTestFileReader = new BackTestFileReader(optimizerContext.getFileName(), optimizerContext.getDateFilter());
+        optimizerContext.setProgress("Counting historical data snapshots...");
+        snapshotCount = backTestFileReader.count(optimizerContext);
+        indicatorGrouping = new IndicatorGrouping(this, strategyParams);
+    }
+
     public void cancel() {
-        optimizerDialog.setProgress("Stopping optimization...");
+        optimizerContext.setProgress("Stopping optimization...");
         cancelled = true;
     }
 
@@ -159,6 +395,7 @@ public abstract class OptimizerRunner implements Runnable {
     }
 
     private void saveToFile() throws IOException {
+        List<OptimizationResult> optimizationResults = this.optimizationResults.get();
         if (optimizationResults.isEmpty()) {
             return;
         }
@@ -170,8 +407,8 @@ public abstract class OptimizerRunner implements Runnable {
         for (StrategyParam param : strategyParams.getAll()) {
             optimizationReport.reportDescription(param.toString());
         }
-        optimizationReport.reportDescription("Minimum trades for strategy inclusion: " + optimizerDialog.getMinTrades());
-        optimizationReport.reportDescription("Back data file: " + optimizerDialog.getFileName());
+        optimizationReport.reportDescription("Minimum trades for strategy inclusion: " + optimizerContext.getMinTrades());
+        optimizationReport.reportDescription("Back data file: " + optimizerContext.getFileName());
 
         List<String> otpimizerReportHeaders = new ArrayList<String>();
         StrategyParams params = optimizationResults.iterator().next().getParams();
@@ -209,83 +446,115 @@ public abstract class OptimizerRunner implements Runnable {
     }
 
     private void showProgress(long counter, String text) {
-        optimizerDialog.setProgress(counter, totalSteps, text);
+        optimizerContext.setProgress(counter, totalSteps, text);
         String remainingTime = (counter >= totalSteps) ? "00:00:00" : timeEstimator.getTimeLeft(counter);
-        optimizerDialog.setRemainingTime(remainingTime);
+        optimizerContext.setRemainingTime(remainingTime);
     }
 
     public void iterationsCompleted(long iterationsCompleted) {
         completedSteps.getAndAdd(iterationsCompleted);
     }
 
-    protected Queue<StrategyParams> getTasks(StrategyParams params) {
+    /**
+     * Returns all the combinations of the parameter values, which are generated
+     * lazily, as the workers request them, grouped by their indicators.
+     */
+    protected StrategyParamsGrid getTasks(StrategyParams params) {
         for (StrategyParam param : params.getAll()) {
             param.setValue(param.getMin());
         }
-
-        Queue<StrategyParams> tasks = new LinkedBlockingQueue<StrategyParams>();
-
-        boolean allTasksAssigned = false;
-        while (!allTasksAssigned && !cancelled) {
-            StrategyParams strategyParamsCopy = new StrategyParams(params);
-            tasks.add(strategyParamsCopy);
-
-            StrategyParam lastParam = params.get(params.size() - 1);
-            lastParam.setValue(lastParam.getValue() + lastParam.getStep());
-
-            for (int paramNumber = params.size() - 1; paramNumber >= 0; paramNumber--) {
-                StrategyParam param = params.get(paramNumber);
-                if (param.getValue() > param.getMax()) {
-                    param.setValue(param.getMin());
-                    if (paramNumber == 0) {
-                        allTasksAssigned = true;
-                        break;
-                    }
-                    int prevParamNumber = paramNumber - 1;
-                    StrategyParam prevParam = params.get(prevParamNumber);
-                    prevParam.setValue(prevParam.getValue() + prevParam.getStep());
-                }
-            }
-        }
-
-        return tasks;
+        return new StrategyParamsGrid(params, indicatorGrouping);
     }
 
     public void run() {
         try {
-            optimizationResults.clear();
-            optimizerDialog.setResults(optimizationResults);
-            optimizerDialog.enableProgress();
-            BackTestFileReader backTestFileReader = new BackTestFileReader(optimizerDialog.getFileName(), optimizerDialog.getDateFilter());
-            optimizerDialog.setProgress("Loading historical data file...");
-            snapshots = backTestFileReader.load(optimizerDialog);
-            snapshotCount = snapshots.size();
-
-            optimizerDialog.setProgress("Starting optimization ...");
+            PreferencesHolder prefs = PreferencesHolder.getInstance();
+            int resultsKept = Math.max(prefs.getInt(JBTPreferences.ResultsKept), getMinResultsKept());
+            optimizationResults = new TopResults(resultsKept, resultComparator);
+            optimizerContext.setResults(optimizationResults.get());
+            String fileSeparator = System.getProperty("file.separator");
+            File reportDir = new File(AtomicTrader.getAppPath() + fileSeparator + "reports");
+            if (prefs.get(JBTPreferences.SaveAllResults).equals("true") && sharedSnapshots == null) {
+                reportDir.mkdirs();
+                String fileName = new File(reportDir, strategyName + "Optimizer" + OptimizationResultsFile.EXTENSION).getPath();
+                allResultsFile = new OptimizationResultsFile(fileName, strategyParams);
+            }
+            optimizerContext.enableProgress();
+            int workerProcesses = (sharedSnapshots == null) ? prefs.getInt(JBTPreferences.OptimizerProcesses) : 0;
+            if (workerProcesses > 0) {
+                prepareCoordinator();
+            } else {
+                prepare();
+            }
+
+            boolean isCacheKept = prefs.get(JBTPreferences.CacheOptimizationResults).equals("true");
+            boolean isCacheUsed = isCacheKept || prefs.get(JBTPreferences.CheckpointOptimization).equals("true");
+            if (isCacheUsed && strategyParams.getSchema().isPackable()) {
+                optimizerContext.setProgress("Loading optimization results cache...");
+                String signature = getResultCacheSignature();
+                File cacheDir = new File(AtomicTrader.getAppPath() + fileSeparator + "cache");
+                cacheDir.mkdirs();
+                // a file for each signature, so that the results of the different settings are all kept
+                String fileName = strategyName + "-" + OptimizationResultCache.getDigest(signature) + OptimizationResultCache.EXTENSION;
+                resultCache = new OptimizationResultCache(new File(cacheDir, fileName), signature, strategyParams);
+            }
+
+            if (workerProcesses > 0) {
+                optimizerContext.setProgress("Starting optimizer processes...");
+                coordinator = new OptimizerCoordinator(this, workerProcesses);
+            }
+
+            optimizerContext.setProgress("Starting optimization ...");
             progressExecutor.scheduleWithFixedDelay(new ProgressRunner(), 0, 1, TimeUnit.SECONDS);
             resultsTableExecutor.scheduleWithFixedDelay(new ResultsTableRunner(), 0, 30, TimeUnit.SECONDS);
+            if (resultCache != null) {
+                resultsTableExecutor.scheduleWithFixedDelay(new ResultCacheRunner(), 30, 30, TimeUnit.SECONDS);
+            }
             long start = System.currentTimeMillis();
             optimize();
             long end = System.currentTimeMillis();
             progressExecutor.shutdownNow();
             resultsTableExecutor.shutdownNow();
 
-            optimizerDialog.setResults(optimizationResults);
+            optimizerContext.setResults(optimizationResults.get());
 
             if (!cancelled) {
-                optimizerDialog.setProgress("Saving optimization results ...");
-                saveToFile();
+                if (resultCache != null && !isCacheKept) {
+                    resultCache.delete();
+                    resultCache = null;
+                }
+                if (sharedSnapshots == null) {
+                    optimizerContext.setProgress("Saving optimization results ...");
+                    saveToFile();
+                }
                 long totalTimeInSecs = (end - start) / 1000;
                 showProgress(totalSteps, "Optimization");
-                MessageDialog.showMessage("Optimization completed successfully in " + totalTimeInSecs + " seconds.");
+                optimizerContext.showMessage("Optimization completed successfully in " + totalTimeInSecs + " seconds.");
             }
         } catch (Throwable t) {
-            MessageDialog.showException(t);
+            optimizerContext.showException(t);
         } finally {
             progressExecutor.shutdownNow();
             resultsTableExecutor.shutdownNow();
-            optimizationExecutor.shutdownNow();
-            optimizerDialog.signalCompleted();
+            optimizationPool.shutdownNow();
+            if (coordinator != null) {
+                coordinator.close();
+            }
+            if (allResultsFile != null) {
+                try {
+                    allResultsFile.close();
+                } catch (JBookTraderException e) {
+                    optimizerContext.showException(e);
+                }
+            }
+            if (resultCache != null) {
+                try {
+                    resultCache.close();
+                } catch (JBookTraderException e) {
+                    optimizerContext.showException(e);
+                }
+            }
+            optimizerContext.signalCompleted();
         }
     }
 }
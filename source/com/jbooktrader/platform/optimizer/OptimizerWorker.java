@@ -12,84 +12,161 @@ import java.util.*;
 import java.util.concurrent.*;
 
 /**
+ * Runs the strategies for a range of the optimization tasks, as a fork-join task. A range
+ * larger than the current batch size is split in two, preferably where a group of the tasks
+ * with the same indicators ends, so that the idle processors can steal the other half. The
+ * strategies of a batch share one IndicatorManager, so that each indicator is updated once
+ * per snapshot for all of them, from the series cached across the batches when it fits.
+ * The strategies whose results are in the optimization results cache are not run again.
  */
-public class OptimizerWorker implements Callable<Void> {
+public class OptimizerWorker extends RecursiveAction {
+    private static final int PRUNING_INTERVAL = 1000;// snapshots between the checks of the pruning rules
     private final OptimizerRunner optimizerRunner;
-    private final Queue<StrategyParams> tasks;
+    private final OptimizationTasks tasks;
+    private final long start, end;
 
-    public OptimizerWorker(OptimizerRunner optimizerRunner, Queue<StrategyParams> tasks) {
+    public OptimizerWorker(OptimizerRunner optimizerRunner, OptimizationTasks tasks, long start, long end) {
         this.optimizerRunner = optimizerRunner;
         this.tasks = tasks;
+        this.start = start;
+        this.end = end;
     }
 
-    public Void call() throws JBookTraderException {
+    @Override
+    protected void compute() {
+        if (optimizerRunner.isCancelled()) {
+            return;
+        }
+
+        long size = end - start;
+        int batchSize = optimizerRunner.getBatchSize(tasks.getTaskCount());
+        if (size > batchSize) {
+            long middle = start + size / 2;
+            long groupEnd = tasks.getGroupEnd(middle - 1);
+            if (groupEnd < end && groupEnd - middle <= size / 4) {
+                middle = groupEnd;
+            }
+            invokeAll(new OptimizerWorker(optimizerRunner, tasks, start, middle), new OptimizerWorker(optimizerRunner, tasks, middle, end));
+            return;
+        }
+
+        try {
+            long batchStart = start;
+            while (batchStart < end && !optimizerRunner.isCancelled()) {
+                long batchEnd = Math.min(end, tasks.getGroupEnd(batchStart));
+                runBatch(batchStart, batchEnd);
+                batchStart = batchEnd;
+            }
+        } catch (JBookTraderException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private void runBatch(long batchStart, long batchEnd) throws JBookTraderException {
+        long startTime = System.nanoTime();
         List<Strategy> strategies = new ArrayList<Strategy>();
+        List<StrategyParams> batchParams = new ArrayList<StrategyParams>();
+        List<OptimizationResult> cachedResults = new ArrayList<OptimizationResult>();
+        OptimizationResultCache resultCache = optimizerRunner.getResultCache();
         List<OptimizationResult> optimizationResults = new LinkedList<OptimizationResult>();
-        int strategiesPerProcessor = PreferencesHolder.getInstance().getInt(JBTPreferences.StrategiesPerProcessor);
         String inclusionCriteria = PreferencesHolder.getInstance().get(JBTPreferences.InclusionCriteria);
 
-        while (!tasks.isEmpty() && !optimizerRunner.isCancelled()) {
-            MarketBook marketBook = new MarketBook();
-            IndicatorManager indicatorManager = new IndicatorManager();
-            strategies.clear();
-            while (strategies.size() < strategiesPerProcessor && !tasks.isEmpty()) {
-                StrategyParams params = tasks.poll();
-                if (params != null) {
-                    Strategy strategy = optimizerRunner.getStrategyInstance(params);
-                    strategy.setMarketBook(marketBook);
-                    strategy.setIndicatorManager(indicatorManager);
-                    strategy.setIndicators();
-                    strategies.add(strategy);
+        MarketBook marketBook = new MarketBook();
+        IndicatorManager indicatorManager = new IndicatorManager();
+        indicatorManager.setSeriesCache(optimizerRunner.getIndicatorSeriesCache());
+        MarketSnapshotSource snapshots = optimizerRunner.getSnapshots();
+        marketBook.setSnapshots(snapshots);
+        for (long index = batchStart; index < batchEnd; index++) {
+            StrategyParams params = tasks.getTask(index);
+            if (resultCache != null && resultCache.contains(params)) {
+                OptimizationResult cachedResult = resultCache.get(params);
+                if (cachedResult != null) {
+                    cachedResults.add(cachedResult);
                 }
+                optimizerRunner.iterationsCompleted(snapshots.size());
+                continue;
             }
+            batchParams.add(params);
+            Strategy strategy = optimizerRunner.getStrategyInstance(params);
+            strategy.setMarketBook(marketBook);
+            strategy.setIndicatorManager(indicatorManager);
+            strategy.setIndicators();
+            strategies.add(strategy);
+        }
 
-            if (!strategies.isEmpty()) {
-                TradingSchedule tradingSchedule = strategies.get(0).getTradingSchedule();
-                int strategiesCount = strategies.size();
-
-                List<MarketSnapshot> snapshots = optimizerRunner.getSnapshots();
-                long snapshotsCount = snapshots.size();
-                for (int count = 0; count < snapshotsCount; count++) {
-                    MarketSnapshot marketSnapshot = snapshots.get(count);
-                    marketBook.setSnapshot(marketSnapshot);
-                    indicatorManager.updateIndicators();
-                    boolean isInSchedule = tradingSchedule.contains(marketSnapshot.getTime());
-                    if (count < snapshotsCount - 1) {
-                        isInSchedule = isInSchedule && !marketBook.isGapping(snapshots.get(count + 1));
-                    }
+        int cachedCount = (int) (batchEnd - batchStart) - batchParams.size();
+        if (cachedCount > 0) {
+            optimizerRunner.cacheHits(cachedCount);
+            optimizerRunner.addResults(cachedResults);
+        }
 
-                    // For efficiency, avoid the (Strategy strategy : strategies) construct
-                    for (int index = 0; index < strategiesCount; index++) {
-                        strategies.get(index).processInstant(isInSchedule);
-                    }
+        if (!strategies.isEmpty()) {
+            TradingSchedule tradingSchedule = strategies.get(0).getTradingSchedule();
+            PruningRules pruningRules = optimizerRunner.getPruningRules();
+            int batchSize = strategies.size();
+            int strategiesCount = batchSize;
+            boolean isInterrupted = false;
+
+            int snapshotsCount = snapshots.size();
+            for (int count = 0; count < snapshotsCount; count++) {
+                marketBook.setIndex(count);
+                indicatorManager.updateIndicators();
+                boolean isInSchedule = tradingSchedule.contains(snapshots.getTime(count));
+                if (count < snapshotsCount - 1) {
+                    isInSchedule = isInSchedule && !marketBook.isGapping(snapshots.getTime(count + 1));
+                }
 
-                    if (count % 10000 == 0) {
-                        optimizerRunner.iterationsCompleted(strategiesCount * 10000);
-                        if (optimizerRunner.isCancelled()) {
-                            break;
+                // For efficiency, avoid the (Strategy strategy : strategies) construct
+                for (int index = 0; index < strategiesCount; index++) {
+                    strategies.get(index).processInstant(isInSchedule);
+                }
+
+                if (count % PRUNING_INTERVAL == 0 && count > 0) {
+                    int remainingSnapshots = snapshotsCount - count - 1;
+                    int index = 0;
+                    while (index < strategiesCount) {
+                        Strategy strategy = strategies.get(index);
+                        if (pruningRules.isHopeless(strategy.getPerformanceManager(), remainingSnapshots, snapshotsCount)) {
+                            // the order of the strategies does not matter, so the last one takes the place of the retired one
+                            strategiesCount--;
+                            strategies.set(index, strategies.get(strategiesCount));
+                            strategies.remove(strategiesCount);
+                            optimizerRunner.iterationsCompleted(remainingSnapshots);
+                        } else {
+                            index++;
                         }
                     }
+                    if (strategiesCount == 0) {
+                        break;
+                    }
                 }
 
-                optimizationResults.clear();
-                int minTrades = optimizerRunner.getMinTrades();
+                if (count % 10000 == 0) {
+                    optimizerRunner.iterationsCompleted(strategiesCount * 10000);
+                    if (optimizerRunner.isCancelled()) {
+                        isInterrupted = true;
+                        break;
+                    }
+                }
+            }
 
-                for (Strategy strategy : strategies) {
-                    strategy.closePosition();
+            for (Strategy strategy : strategies) {
+                strategy.closePosition();
 
-                    PerformanceManager performanceManager = strategy.getPerformanceManager();
-                    if (performanceManager.getTrades() >= minTrades) {
-                        if (inclusionCriteria.equals("All strategies") || performanceManager.getNetProfit() > 0) {
-                            OptimizationResult optimizationResult = new OptimizationResult(strategy.getParams(), performanceManager);
-                            optimizationResults.add(optimizationResult);
-                        }
+                PerformanceManager performanceManager = strategy.getPerformanceManager();
+                if (!pruningRules.isDisqualified(performanceManager)) {
+                    if (inclusionCriteria.equals("All strategies") || performanceManager.getNetProfit() > 0) {
+                        OptimizationResult optimizationResult = new OptimizationResult(strategy.getParams(), performanceManager);
+                        optimizationResults.add(optimizationResult);
                     }
                 }
+            }
 
-                optimizerRunner.addResults(optimizationResults);
+            optimizerRunner.addResults(optimizationResults);
+            if (!isInterrupted) {
+                optimizerRunner.cacheResults(batchParams, optimizationResults);
             }
+            optimizerRunner.batchCompleted(batchSize, System.nanoTime() - startTime);
         }
-
-        return null;
     }
 }
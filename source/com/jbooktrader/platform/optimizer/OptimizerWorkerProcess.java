@@ -0,0 +1,255 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.preferences.*;
+import com.jbooktrader.platform.strategy.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A worker process of the OptimizerCoordinator, started with the port on which the coordinator
+ * listens. The process loads the data file of the optimization once, and then runs the ranges of
+ * the tasks which the coordinator sends, until the coordinator closes the connection. Its progress
+ * is sent every second, and the results of a range when the range is completed. The preferences
+ * which affect the results are taken from the coordinator, for this process only.
+ */
+public class OptimizerWorkerProcess extends OptimizerRunner {
+    private static final long PROGRESS_INTERVAL = 1000;// milliseconds
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final AtomicLong unreportedSteps;
+    private final List<OptimizationResult> rangeResults;
+
+    /**
+     * The job received from the coordinator, with no user interface to report to.
+     */
+    private static class JobContext implements OptimizerContext {
+        private final String fileName;
+        private final MarketSnapshotFilter filter;
+        private final int minTrades;
+        private final PerformanceMetric sortCriteria;
+
+        private JobContext(String fileName, MarketSnapshotFilter filter, int minTrades, PerformanceMetric sortCriteria) {
+            this.fileName = fileName;
+            this.filter = filter;
+            this.minTrades = minTrades;
+            this.sortCriteria = sortCriteria;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public MarketSnapshotFilter getDateFilter() {
+            return filter;
+        }
+
+        public int getMinTrades() {
+            return minTrades;
+        }
+
+        public PerformanceMetric getSortCriteria() {
+            return sortCriteria;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public void setProgress(String progressText) {
+        }
+
+        public void setProgress(long count, long iterations, String progressText) {
+        }
+
+        public void enableProgress() {
+        }
+
+        public void setRemainingTime(String remainingTime) {
+        }
+
+        public void setResults(List<OptimizationResult> optimizationResults) {
+        }
+
+        public void signalCompleted() {
+        }
+
+        public void showMessage(String message) {
+        }
+
+        public void showException(Throwable t) {
+        }
+    }
+
+    private class ProgressReporter implements Runnable {
+        public void run() {
+            try {
+                while (true) {
+                    Thread.sleep(PROGRESS_INTERVAL);
+                    synchronized (out) {
+                        writeProgress();
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException ie) {
+                // the process is exiting
+            } catch (IOException ioe) {
+                // the coordinator is gone
+                System.exit(1);
+            }
+        }
+    }
+
+    private OptimizerWorkerProcess(JobContext jobContext, Strategy strategy, StrategyParams params, int threads,
+                                   DataInputStream in, DataOutputStream out) throws JBookTraderException {
+        super(jobContext, strategy, params, threads);
+        this.in = in;
+        this.out = out;
+        unreportedSteps = new AtomicLong();
+        rangeResults = new ArrayList<OptimizationResult>();
+    }
+
+    private static OptimizerWorkerProcess readJob(DataInputStream in, DataOutputStream out) throws IOException, JBookTraderException {
+        if (in.readByte() != OptimizerCoordinator.JOB) {
+            throw new JBookTraderException("The optimizer job was expected.");
+        }
+        String strategyClassName = in.readUTF();
+        StrategyParams params = new StrategyParams();
+        int paramCount = in.readInt();
+        for (int index = 0; index < paramCount; index++) {
+            params.add(in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        }
+        String fileName = in.readUTF();
+        MarketSnapshotFilter filter = in.readBoolean() ? new MarketSnapshotFilter(in.readLong(), in.readLong()) : null;
+        int minTrades = in.readInt();
+        PerformanceMetric sortCriteria = PerformanceMetric.valueOf(in.readUTF());
+        int threads = in.readInt();
+        int prefCount = in.readInt();
+        for (int index = 0; index < prefCount; index++) {
+            PreferencesHolder.getInstance().override(JBTPreferences.valueOf(in.readUTF()), in.readUTF());
+        }
+
+        Strategy strategy;
+        try {
+            strategy = (Strategy) Class.forName(strategyClassName).getConstructor(StrategyParams.class).newInstance(new StrategyParams());
+        } catch (Exception e) {
+            throw new JBookTraderException("Could not create strategy " + strategyClassName, e);
+        }
+
+        JobContext jobContext = new JobContext(fileName, filter, minTrades, sortCriteria);
+        return new OptimizerWorkerProcess(jobContext, strategy, params, threads, in, out);
+    }
+
+    @Override
+    public void iterationsCompleted(long iterationsCompleted) {
+        unreportedSteps.addAndGet(iterationsCompleted);
+    }
+
+    @Override
+    public void addResults(List<OptimizationResult> results) {
+        synchronized (rangeResults) {
+            rangeResults.addAll(results);
+        }
+    }
+
+    private void writeProgress() throws IOException {
+        long steps = unreportedSteps.getAndSet(0);
+        if (steps != 0) {
+            out.writeByte(OptimizerCoordinator.PROGRESS);
+            out.writeLong(steps);
+        }
+    }
+
+    /**
+     * Runs the ranges of the tasks sent by the coordinator, until the connection is closed.
+     */
+    @Override
+    protected void optimize() throws JBookTraderException {
+        StrategyParamsSchema schema = strategyParams.getSchema();
+        try {
+            while (true) {
+                byte message;
+                try {
+                    message = in.readByte();
+                } catch (EOFException eofe) {
+                    return;
+                }
+                if (message != OptimizerCoordinator.RANGE) {
+                    throw new JBookTraderException("Unexpected message from the optimizer coordinator: " + message);
+                }
+
+                int taskCount = in.readInt();
+                List<StrategyParams> rangeParams = new ArrayList<StrategyParams>(taskCount);
+                Map<String, Integer> indexes = new HashMap<String, Integer>();
+                for (int task = 0; task < taskCount; task++) {
+                    int[] values = new int[schema.size()];
+                    for (int index = 0; index < values.length; index++) {
+                        values[index] = in.readInt();
+                    }
+                    StrategyParams params = new StrategyParams(schema, values);
+                    rangeParams.add(params);
+                    indexes.put(params.getKey(), task);
+                }
+
+                rangeResults.clear();
+                execute(new StrategyParamsList(rangeParams, getIndicatorGrouping()));
+
+                synchronized (out) {
+                    writeProgress();
+                    out.writeByte(OptimizerCoordinator.RESULTS);
+                    out.writeInt(rangeResults.size());
+                    for (OptimizationResult result : rangeResults) {
+                        out.writeInt(indexes.get(result.getParams().getKey()));
+                        for (PerformanceMetric metric : PerformanceMetric.values()) {
+                            out.writeDouble(result.get(metric));
+                        }
+                    }
+                    out.flush();
+                }
+            }
+        } catch (IOException ioe) {
+            throw new JBookTraderException(ioe);
+        }
+    }
+
+    private static void writeError(DataOutputStream out, Throwable t) {
+        try {
+            synchronized (out) {
+                out.writeByte(OptimizerCoordinator.ERROR);
+                out.writeUTF(String.valueOf(t.getMessage()));
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            // the coordinator is gone
+        }
+    }
+
+    public static void main(String[] args) {
+        int exitCode = 0;
+        try {
+            Socket socket = new Socket(InetAddress.getByName(null), Integer.parseInt(args[0]));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            try {
+                Dispatcher.getInstance().setHeadlessMode(Mode.Optimization);
+                OptimizerWorkerProcess workerProcess = readJob(in, out);
+                workerProcess.prepare();
+                Thread progressReporter = new Thread(workerProcess.new ProgressReporter(), "Optimizer progress");
+                progressReporter.setDaemon(true);
+                progressReporter.start();
+                workerProcess.optimize();
+            } catch (Throwable t) {
+                writeError(out, t);
+                exitCode = 1;
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+}
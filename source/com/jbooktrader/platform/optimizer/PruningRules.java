@@ -0,0 +1,54 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.performance.*;
+import com.jbooktrader.platform.preferences.*;
+
+/**
+ * Rules by which the optimizer retires the hopeless strategies before the end of the replay.
+ * A strategy is retired if it can no longer reach the minimum number of trades, even trading on
+ * every remaining snapshot, or if its drawdown, which never decreases, exceeds the specified
+ * maximum. Optionally, the strategies which are losing after the specified part of the data
+ * are retired too, which is a guess rather than a certainty. At the end of the replay, only the
+ * certain rules are checked once more, and the losers are left to the inclusion criteria.
+ */
+public class PruningRules {
+    private final int minTrades;
+    private final double maxDrawdown, losersAfter;
+
+    public PruningRules(int minTrades) {
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        this.minTrades = minTrades;
+        maxDrawdown = prefs.getInt(JBTPreferences.PruneMaxDrawdown);
+        losersAfter = prefs.getInt(JBTPreferences.PruneLosersAfter) / 100.0;
+    }
+
+    /**
+     * Returns true if the strategy with the specified performance should be retired, when the
+     * specified number of snapshots is left out of the total.
+     */
+    public boolean isHopeless(PerformanceManager performanceManager, int remainingSnapshots, int totalSnapshots) {
+        // the forced exit at the end may complete one more trade
+        if (performanceManager.getTrades() + remainingSnapshots + 1 < minTrades) {
+            return true;
+        }
+        if (isOverMaxDrawdown(performanceManager)) {
+            return true;
+        }
+        if (losersAfter > 0 && totalSnapshots - remainingSnapshots >= losersAfter * totalSnapshots) {
+            return performanceManager.getNetProfit() < 0;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the strategy with the specified performance, whose replay is completed,
+     * made fewer than the minimum number of trades, or exceeded the maximum drawdown.
+     */
+    public boolean isDisqualified(PerformanceManager performanceManager) {
+        return performanceManager.getTrades() < minTrades || isOverMaxDrawdown(performanceManager);
+    }
+
+    private boolean isOverMaxDrawdown(PerformanceManager performanceManager) {
+        return maxDrawdown > 0 && performanceManager.getMaxDrawdown() > maxDrawdown;
+    }
+}
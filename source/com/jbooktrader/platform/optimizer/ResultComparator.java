@@ -12,6 +12,10 @@ public class ResultComparator implements Comparator<OptimizationResult> {
         this.performanceMetric = performanceMetric;
     }
 
+    public PerformanceMetric getPerformanceMetric() {
+        return performanceMetric;
+    }
+
     public int compare(OptimizationResult r1, OptimizationResult r2) {
         return ((Double) r2.get(performanceMetric)).compareTo(r1.get(performanceMetric));
     }
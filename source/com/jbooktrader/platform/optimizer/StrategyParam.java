@@ -1,71 +1,64 @@
 package com.jbooktrader.platform.optimizer;
 
 /**
+ * One parameter of a StrategyParams, through which its name, range, and value
+ * are read and changed.
  */
 public class StrategyParam {
-    private int min, max;
-    private int value, step;
-    private final String name;
+    private final StrategyParams params;
+    private final int index;
 
-    public StrategyParam(String name, int min, int max, int step, int value) {
-        this.name = name;
-        this.min = min;
-        this.max = max;
-        this.step = step;
-        this.value = value;
-    }
-
-    // copy constructor
-    public StrategyParam(StrategyParam param) {
-        this(param.name, param.min, param.max, param.step, param.value);
+    StrategyParam(StrategyParams params, int index) {
+        this.params = params;
+        this.index = index;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
 
-        sb.append("{").append(name).append(":");
-        sb.append(min).append("-");
-        sb.append(max).append("-");
-        sb.append(step).append("-");
-        sb.append(value).append("}");
+        sb.append("{").append(getName()).append(":");
+        sb.append(getMin()).append("-");
+        sb.append(getMax()).append("-");
+        sb.append(getStep()).append("-");
+        sb.append(getValue()).append("}");
 
         return sb.toString();
     }
 
     public String getName() {
-        return name;
+        return params.getSchema().getName(index);
     }
 
     public int getMin() {
-        return min;
+        return params.getSchema().getMin(index);
     }
 
     public int getMax() {
-        return max;
+        return params.getSchema().getMax(index);
     }
 
     public int getStep() {
-        return step;
+        return params.getSchema().getStep(index);
     }
 
     public int getValue() {
-        return value;
+        return params.getValue(index);
     }
 
     public void setValue(int value) {
-        this.value = value;
+        params.setValue(index, value);
     }
 
     public void setStep(int step) {
-        this.step = step;
+        params.setRange(index, getMin(), getMax(), step);
     }
 
     public void setMin(int min) {
-        this.min = min;
+        params.setRange(index, min, getMax(), getStep());
     }
 
     public void setMax(int max) {
-        this.max = max;
+        params.setRange(index, getMin(), max, getStep());
     }
 }
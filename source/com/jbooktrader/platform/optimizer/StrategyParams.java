@@ -3,62 +3,97 @@ package com.jbooktrader.platform.optimizer;
 import java.util.*;
 
 /**
+ * Values of the strategy parameters. The names and ranges of the parameters are kept
+ * in a schema, which is shared by the copies, so that a set of parameter values takes
+ * little more memory than its int array. The schema is replaced, rather than changed,
+ * when a parameter range is changed.
  */
 public class StrategyParams {
-    private final List<StrategyParam> params;
+    private StrategyParamsSchema schema;
+    private int[] values;
 
     public StrategyParams() {
-        params = new LinkedList<StrategyParam>();
+        schema = StrategyParamsSchema.EMPTY;
+        values = new int[0];
+    }
+
+    // copy constructor
+    public StrategyParams(StrategyParams params) {
+        schema = params.schema;
+        values = params.values.clone();
+    }
+
+    StrategyParams(StrategyParamsSchema schema, int[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public StrategyParamsSchema getSchema() {
+        return schema;
     }
 
     public String getKey() {
         StringBuilder key = new StringBuilder();
-        for (StrategyParam param : params) {
+        for (int value : values) {
             if (key.length() > 0) {
                 key.append("/");
             }
-            key.append(param.getValue());
+            key.append(value);
         }
 
         return key.toString();
     }
 
-    // copy constructor
-    public StrategyParams(StrategyParams params) {
-        this.params = new LinkedList<StrategyParam>();
-        for (StrategyParam param : params.getAll()) {
-            StrategyParam paramCopy = new StrategyParam(param);
-            this.params.add(paramCopy);
-        }
+    /**
+     * Returns the values packed into a long (see StrategyParamsSchema.pack()).
+     */
+    public long getPackedKey(StrategyParamsSchema bounds) {
+        return bounds.pack(values);
     }
 
     public void add(String name, int min, int max, int step, int value) {
-        StrategyParam param = new StrategyParam(name, min, max, step, value);
-        params.add(param);
+        schema = schema.withParam(name, min, max, step);
+        values = Arrays.copyOf(values, values.length + 1);
+        values[values.length - 1] = value;
     }
 
-    public List<StrategyParam> getAll() {
-        return params;
+    public void add(StrategyParam strategyParam) {
+        add(strategyParam.getName(), strategyParam.getMin(), strategyParam.getMax(), strategyParam.getStep(), strategyParam.getValue());
     }
 
-    public void add(StrategyParam strategyParam) {
-        params.add(strategyParam);
+    public List<StrategyParam> getAll() {
+        List<StrategyParam> params = new ArrayList<StrategyParam>(values.length);
+        for (int index = 0; index < values.length; index++) {
+            params.add(new StrategyParam(this, index));
+        }
+        return params;
     }
 
     public int size() {
-        return params.size();
+        return values.length;
     }
 
     public StrategyParam get(int index) {
-        return params.get(index);
+        return new StrategyParam(this, index);
     }
 
     public StrategyParam get(String name) {
-        for (StrategyParam param : params) {
-            if (param.getName().equals(name)) {
-                return param;
-            }
-        }
-        throw new RuntimeException("Parameter " + name + " is not defined.");
+        return new StrategyParam(this, schema.indexOf(name));
+    }
+
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    public int getValue(String name) {
+        return values[schema.indexOf(name)];
+    }
+
+    public void setValue(int index, int value) {
+        values[index] = value;
+    }
+
+    void setRange(int index, int min, int max, int step) {
+        schema = schema.withRange(index, min, max, step);
     }
 }
@@ -0,0 +1,99 @@
+package com.jbooktrader.platform.optimizer;
+
+import java.util.*;
+
+/**
+ * All the combinations of the strategy parameter values, from min to max by step, as the
+ * tasks of the optimizer workers. The combinations are not stored: each one is generated
+ * when it is requested, by decoding its index as a mixed-radix number, where the radix of
+ * each digit is the number of values of the corresponding parameter, so that the memory
+ * taken by the grid is constant, regardless of the number of combinations. The
+ * combinations are ordered as nested loops, with the last parameter changing the
+ * fastest, except that the parameters which affect the indicators, if known, are moved
+ * to the outer loops. The combinations which share their indicators are then contiguous,
+ * which lets the workers keep such groups together.
+ */
+public class StrategyParamsGrid implements OptimizationTasks, Iterable<StrategyParams> {
+    private final StrategyParamsSchema schema;
+    private final int[] valueCounts;
+    private final int[] digits;// parameter numbers, from the most significant digit to the least significant
+    private final long size, groupSize;
+
+    public StrategyParamsGrid(StrategyParams params) {
+        this(params, null);
+    }
+
+    public StrategyParamsGrid(StrategyParams params, IndicatorGrouping indicatorGrouping) {
+        schema = params.getSchema();
+        valueCounts = new int[schema.size()];
+        digits = new int[schema.size()];
+        long combinations = 1, groupCombinations = 1;
+        int digit = 0;
+        if (indicatorGrouping != null) {
+            for (int paramNumber : indicatorGrouping.getIndicatorParams()) {
+                digits[digit++] = paramNumber;
+            }
+        }
+        for (int paramNumber = 0; paramNumber < valueCounts.length; paramNumber++) {
+            valueCounts[paramNumber] = schema.getValueCount(paramNumber);
+            combinations *= valueCounts[paramNumber];
+            if (indicatorGrouping == null || !indicatorGrouping.isIndicatorParam(paramNumber)) {
+                digits[digit++] = paramNumber;
+                groupCombinations *= valueCounts[paramNumber];
+            }
+        }
+        size = combinations;
+        groupSize = (indicatorGrouping == null) ? combinations : groupCombinations;
+    }
+
+    /**
+     * Returns the combination with the specified index.
+     */
+    public StrategyParams get(long index) {
+        int[] values = new int[valueCounts.length];
+        for (int digit = digits.length - 1; digit >= 0; digit--) {
+            int paramNumber = digits[digit];
+            int valueIndex = (int) (index % valueCounts[paramNumber]);
+            index /= valueCounts[paramNumber];
+            values[paramNumber] = schema.getValue(paramNumber, valueIndex);
+        }
+        // the combinations share the schema of the grid
+        return new StrategyParams(schema, values);
+    }
+
+    public long getTaskCount() {
+        return size;
+    }
+
+    public StrategyParams getTask(long index) {
+        return get(index);
+    }
+
+    public long getGroupEnd(long index) {
+        return Math.min(size, (index / groupSize + 1) * groupSize);
+    }
+
+    /**
+     * Returns the combinations in the order of their indexes.
+     */
+    public Iterator<StrategyParams> iterator() {
+        return new Iterator<StrategyParams>() {
+            private long index;
+
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            public StrategyParams next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,47 @@
+package com.jbooktrader.platform.optimizer;
+
+import java.util.*;
+
+/**
+ * A list of strategy parameters as tasks for the optimizer workers. The parameters which
+ * share their indicators are gathered together, keeping the order in which the groups first
+ * appear, so that the workers can keep such groups together.
+ */
+public class StrategyParamsList implements OptimizationTasks {
+    private final List<StrategyParams> tasks;
+    private final int[] groupEnds;
+
+    public StrategyParamsList(Collection<StrategyParams> params, IndicatorGrouping indicatorGrouping) {
+        Map<String, List<StrategyParams>> groups = new LinkedHashMap<String, List<StrategyParams>>();
+        for (StrategyParams strategyParams : params) {
+            String key = (indicatorGrouping == null) ? "" : indicatorGrouping.getKey(strategyParams);
+            List<StrategyParams> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<StrategyParams>();
+                groups.put(key, group);
+            }
+            group.add(strategyParams);
+        }
+
+        tasks = new ArrayList<StrategyParams>(params.size());
+        groupEnds = new int[groups.size()];
+        int groupNumber = 0;
+        for (List<StrategyParams> group : groups.values()) {
+            tasks.addAll(group);
+            groupEnds[groupNumber++] = tasks.size();
+        }
+    }
+
+    public long getTaskCount() {
+        return tasks.size();
+    }
+
+    public StrategyParams getTask(long index) {
+        return tasks.get((int) index);
+    }
+
+    public long getGroupEnd(long index) {
+        int group = Arrays.binarySearch(groupEnds, (int) index + 1);
+        return groupEnds[(group >= 0) ? group : -group - 1];
+    }
+}
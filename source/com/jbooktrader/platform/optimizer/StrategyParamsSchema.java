@@ -0,0 +1,141 @@
+package com.jbooktrader.platform.optimizer;
+
+import java.util.*;
+
+/**
+ * Immutable names and ranges of the strategy parameters, shared by all the
+ * StrategyParams with the same parameters, so that each of them only holds
+ * its parameter values. Parameters are looked up by name through a precomputed index.
+ */
+public final class StrategyParamsSchema {
+    public static final StrategyParamsSchema EMPTY = new StrategyParamsSchema(new String[0], new int[0], new int[0], new int[0]);
+    private static final int NOT_PACKABLE = -1;
+    private final String[] names;
+    private final int[] mins, maxes, steps;
+    private final Map<String, Integer> indexes;
+    private final int[] packedBits;
+
+    private StrategyParamsSchema(String[] names, int[] mins, int[] maxes, int[] steps) {
+        this.names = names;
+        this.mins = mins;
+        this.maxes = maxes;
+        this.steps = steps;
+        indexes = new HashMap<String, Integer>();
+        for (int index = 0; index < names.length; index++) {
+            indexes.put(names[index], index);
+        }
+
+        packedBits = new int[names.length];
+        int totalBits = 0;
+        for (int index = 0; index < names.length; index++) {
+            long range = (long) maxes[index] - mins[index];
+            packedBits[index] = (range < 0) ? 0 : 64 - Long.numberOfLeadingZeros(range);
+            totalBits += packedBits[index];
+        }
+        if (totalBits > 64) {
+            Arrays.fill(packedBits, NOT_PACKABLE);
+        }
+    }
+
+    /**
+     * Returns a schema with the specified parameter added.
+     */
+    public StrategyParamsSchema withParam(String name, int min, int max, int step) {
+        int size = names.length;
+        String[] newNames = Arrays.copyOf(names, size + 1);
+        int[] newMins = Arrays.copyOf(mins, size + 1);
+        int[] newMaxes = Arrays.copyOf(maxes, size + 1);
+        int[] newSteps = Arrays.copyOf(steps, size + 1);
+        newNames[size] = name;
+        newMins[size] = min;
+        newMaxes[size] = max;
+        newSteps[size] = step;
+        return new StrategyParamsSchema(newNames, newMins, newMaxes, newSteps);
+    }
+
+    /**
+     * Returns a schema with the range of the specified parameter changed.
+     */
+    public StrategyParamsSchema withRange(int index, int min, int max, int step) {
+        if (mins[index] == min && maxes[index] == max && steps[index] == step) {
+            return this;
+        }
+        int[] newMins = mins.clone();
+        int[] newMaxes = maxes.clone();
+        int[] newSteps = steps.clone();
+        newMins[index] = min;
+        newMaxes[index] = max;
+        newSteps[index] = step;
+        return new StrategyParamsSchema(names, newMins, newMaxes, newSteps);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            throw new RuntimeException("Parameter " + name + " is not defined.");
+        }
+        return index;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public int getMin(int index) {
+        return mins[index];
+    }
+
+    public int getMax(int index) {
+        return maxes[index];
+    }
+
+    public int getStep(int index) {
+        return steps[index];
+    }
+
+    /**
+     * Returns the number of values of the parameter, from min to max by step.
+     */
+    public int getValueCount(int index) {
+        return (steps[index] > 0 && maxes[index] >= mins[index]) ? (maxes[index] - mins[index]) / steps[index] + 1 : 1;
+    }
+
+    /**
+     * Returns the value of the parameter with the specified number, from min by step.
+     */
+    public int getValue(int index, int valueNumber) {
+        return mins[index] + valueNumber * steps[index];
+    }
+
+    /**
+     * Returns the number of the parameter value nearest to the specified value.
+     */
+    public int getValueNumber(int index, int value) {
+        int valueNumber = (int) Math.round((value - mins[index]) / (double) Math.max(1, steps[index]));
+        return Math.max(0, Math.min(getValueCount(index) - 1, valueNumber));
+    }
+
+    /**
+     * Returns true if any parameter values within the ranges of this schema
+     * can be packed into a single long.
+     */
+    public boolean isPackable() {
+        return packedBits.length == 0 || packedBits[0] != NOT_PACKABLE;
+    }
+
+    /**
+     * Packs the parameter values, which must be within the ranges of this schema,
+     * into a long, which is unique for each combination of the values.
+     */
+    public long pack(int[] values) {
+        long key = 0;
+        for (int index = 0; index < values.length; index++) {
+            key = (key << packedBits[index]) | ((long) values[index] - mins[index]);
+        }
+        return key;
+    }
+}
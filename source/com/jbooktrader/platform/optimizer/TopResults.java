@@ -0,0 +1,86 @@
+package com.jbooktrader.platform.optimizer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The best optimization results, up to the specified capacity. Each worker thread keeps its own
+ * heap, rooted at its worst result, so that adding results is cheap and never contends with the
+ * other workers. The heaps are merged and sorted only when the results are read.
+ */
+public class TopResults {
+    private final int capacity;
+    private final Comparator<OptimizationResult> comparator, worstFirst;
+    private final Queue<PriorityQueue<OptimizationResult>> heaps;
+    private final ThreadLocal<PriorityQueue<OptimizationResult>> threadHeap;
+    private final AtomicLong count;
+
+    public TopResults(int capacity, Comparator<OptimizationResult> comparator) {
+        this.capacity = capacity;
+        this.comparator = comparator;
+        worstFirst = Collections.reverseOrder(comparator);
+        heaps = new ConcurrentLinkedQueue<PriorityQueue<OptimizationResult>>();
+        count = new AtomicLong();
+        threadHeap = new ThreadLocal<PriorityQueue<OptimizationResult>>() {
+            @Override
+            protected PriorityQueue<OptimizationResult> initialValue() {
+                PriorityQueue<OptimizationResult> heap = new PriorityQueue<OptimizationResult>(11, worstFirst);
+                heaps.add(heap);
+                return heap;
+            }
+        };
+    }
+
+    public void addAll(List<OptimizationResult> results) {
+        PriorityQueue<OptimizationResult> heap = threadHeap.get();
+        synchronized (heap) {
+            for (OptimizationResult result : results) {
+                if (heap.size() < capacity) {
+                    heap.add(result);
+                } else if (comparator.compare(result, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(result);
+                }
+            }
+        }
+        count.addAndGet(results.size());
+    }
+
+    /**
+     * Returns the best results, sorted from the best.
+     */
+    public List<OptimizationResult> get() {
+        List<OptimizationResult> results = new ArrayList<OptimizationResult>();
+        for (PriorityQueue<OptimizationResult> heap : heaps) {
+            synchronized (heap) {
+                results.addAll(heap);
+            }
+        }
+        Collections.sort(results, comparator);
+        if (results.size() > capacity) {
+            results = new ArrayList<OptimizationResult>(results.subList(0, capacity));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of results added, including those which did not make it to the top.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    public boolean isEmpty() {
+        return count.get() == 0;
+    }
+
+    public void clear() {
+        for (PriorityQueue<OptimizationResult> heap : heaps) {
+            synchronized (heap) {
+                heap.clear();
+            }
+        }
+        count.set(0);
+    }
+}
@@ -0,0 +1,352 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.indicator.*;
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.performance.*;
+import com.jbooktrader.platform.schedule.*;
+import com.jbooktrader.platform.strategy.*;
+import com.jbooktrader.platform.util.*;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a walk-forward optimization. The snapshots of the data file are loaded once, and sliced into
+ * rolling windows of whole days: the strategy is optimized on the in-sample days of each window, and
+ * the best parameters are then tested on the out-of-sample days which follow them. The next window
+ * starts as many days later as there are out-of-sample days, so that the out-of-sample days of the
+ * windows follow one another, and their equity curves are stitched into one. The windows are
+ * optimized concurrently, each by an optimizer runner of the selected method, with its share of the
+ * processors and of the memory for the indicator series.
+ */
+public class WalkForwardRunner implements Runnable {
+    private static final long MILLIS_IN_DAY = 1000 * 60 * 60 * 24;
+    private final OptimizerContext optimizerContext;
+    private final Strategy strategy;
+    private final StrategyParams strategyParams;
+    private final OptimizationMethod optimizationMethod;
+    private final int inSampleDays, outOfSampleDays;
+    private final int availableProcessors;
+    private final List<WalkForwardWindow> windows;
+    private final List<OptimizerRunner> activeRunners;
+    private final EquityCurve equityCurve;
+    private final NumberFormat nf0;
+    private double[] windowProgress;
+    private volatile boolean cancelled;
+
+    /**
+     * Where the optimizer runner of a window reports, so that its progress adds up to that of the
+     * walk-forward optimization, and its failure is kept.
+     */
+    private class WindowContext implements OptimizerContext {
+        private final int window;
+        private volatile Throwable failure;
+
+        private WindowContext(int window) {
+            this.window = window;
+        }
+
+        public String getFileName() {
+            return optimizerContext.getFileName();
+        }
+
+        public MarketSnapshotFilter getDateFilter() {
+            return optimizerContext.getDateFilter();
+        }
+
+        public int getMinTrades() {
+            return optimizerContext.getMinTrades();
+        }
+
+        public PerformanceMetric getSortCriteria() {
+            return optimizerContext.getSortCriteria();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void setProgress(String progressText) {
+        }
+
+        public void setProgress(long count, long iterations, String progressText) {
+            if (iterations > 0) {
+                setWindowProgress(window, Math.min(1, count / (double) iterations));
+            }
+        }
+
+        public void enableProgress() {
+        }
+
+        public void setRemainingTime(String remainingTime) {
+        }
+
+        public void setResults(List<OptimizationResult> optimizationResults) {
+        }
+
+        public void signalCompleted() {
+        }
+
+        public void showMessage(String message) {
+        }
+
+        public synchronized void showException(Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+        }
+    }
+
+    public WalkForwardRunner(OptimizerContext optimizerContext, Strategy strategy, StrategyParams params, OptimizationMethod optimizationMethod,
+                             int inSampleDays, int outOfSampleDays) throws JBookTraderException {
+        if (inSampleDays < 1 || outOfSampleDays < 1) {
+            throw new JBookTraderException("The in-sample and out-of-sample periods must be at least one day.");
+        }
+        this.optimizerContext = optimizerContext;
+        this.strategy = strategy;
+        strategyParams = params;
+        this.optimizationMethod = optimizationMethod;
+        this.inSampleDays = inSampleDays;
+        this.outOfSampleDays = outOfSampleDays;
+        availableProcessors = Runtime.getRuntime().availableProcessors();
+        windows = new ArrayList<WalkForwardWindow>();
+        activeRunners = new ArrayList<OptimizerRunner>();
+        equityCurve = new EquityCurve();
+        nf0 = NumberFormatterFactory.getNumberFormatter(0);
+    }
+
+    /**
+     * Returns the windows, in the order of time.
+     */
+    public List<WalkForwardWindow> getWindows() {
+        return windows;
+    }
+
+    /**
+     * Returns the out-of-sample equity curves of the windows, stitched into one.
+     */
+    public EquityCurve getEquityCurve() {
+        return equityCurve;
+    }
+
+    public void cancel() {
+        optimizerContext.setProgress("Stopping walk-forward optimization...");
+        cancelled = true;
+        synchronized (activeRunners) {
+            for (OptimizerRunner optimizerRunner : activeRunners) {
+                optimizerRunner.cancel();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private synchronized void setWindowProgress(int window, double progress) {
+        windowProgress[window] = progress;
+        double totalProgress = 0;
+        for (double value : windowProgress) {
+            totalProgress += value;
+        }
+        optimizerContext.setProgress(Math.round(1000 * totalProgress), 1000L * windowProgress.length, "Walk-forward optimization of " + windowProgress.length + " windows");
+    }
+
+    /**
+     * Slices the snapshots into the windows, on the day boundaries in the time zone of the strategy.
+     */
+    private void createWindows(MarketSnapshotSource snapshots) throws JBookTraderException {
+        TimeZone timeZone = strategy.getTradingSchedule().getTimeZone();
+        List<Integer> dayStarts = new ArrayList<Integer>();
+        long previousDay = Long.MIN_VALUE;
+        int snapshotCount = snapshots.size();
+        for (int index = 0; index < snapshotCount; index++) {
+            long time = snapshots.getTime(index);
+            long day = (time + timeZone.getOffset(time)) / MILLIS_IN_DAY;
+            if (day != previousDay) {
+                dayStarts.add(index);
+                previousDay = day;
+            }
+        }
+
+        int days = dayStarts.size();
+        for (int firstDay = 0; firstDay + inSampleDays < days; firstDay += outOfSampleDays) {
+            int outOfSampleDay = firstDay + inSampleDays;
+            int endDay = outOfSampleDay + outOfSampleDays;
+            int end = (endDay < days) ? dayStarts.get(endDay) : snapshotCount;
+            windows.add(new WalkForwardWindow(snapshots, dayStarts.get(firstDay), dayStarts.get(outOfSampleDay), end));
+        }
+
+        if (windows.isEmpty()) {
+            String msg = "The historical data covers " + days + " days, which is not more than the " + inSampleDays + " in-sample days.";
+            throw new JBookTraderException(msg);
+        }
+    }
+
+    /**
+     * Optimizes the strategy on the in-sample snapshots of the window, and tests the best parameters
+     * on its out-of-sample snapshots.
+     */
+    private void runWindow(int window, int processors, long seriesCacheBytes) throws JBookTraderException {
+        if (cancelled) {
+            return;
+        }
+
+        WalkForwardWindow walkForwardWindow = windows.get(window);
+        WindowContext windowContext = new WindowContext(window);
+        OptimizerRunner optimizerRunner = optimizationMethod.createRunner(windowContext, strategy, new StrategyParams(strategyParams), processors);
+        optimizerRunner.setSharedSnapshots(walkForwardWindow.getInSampleSnapshots(), seriesCacheBytes);
+        synchronized (activeRunners) {
+            activeRunners.add(optimizerRunner);
+        }
+        try {
+            optimizerRunner.run();
+        } finally {
+            synchronized (activeRunners) {
+                activeRunners.remove(optimizerRunner);
+            }
+        }
+
+        if (windowContext.failure != null) {
+            throw new JBookTraderException(windowContext.failure.getMessage(), windowContext.failure);
+        }
+        if (cancelled) {
+            return;
+        }
+
+        List<OptimizationResult> results = optimizerRunner.getResults();
+        if (!results.isEmpty()) {
+            OptimizationResult inSampleResult = results.get(0);
+            walkForwardWindow.setInSampleResult(inSampleResult);
+            Strategy testStrategy = optimizerRunner.getStrategyInstance(new StrategyParams(inSampleResult.getParams()));
+            test(walkForwardWindow, testStrategy);
+        } else {
+            EquityCurve windowCurve = walkForwardWindow.getEquityCurve();
+            windowCurve.add(walkForwardWindow.getOutOfSampleStartTime(), 0);
+            windowCurve.add(walkForwardWindow.getOutOfSampleEndTime(), 0);
+        }
+        setWindowProgress(window, 1);
+    }
+
+    /**
+     * Runs the strategy on the test snapshots of the window. The in-sample snapshots only warm up
+     * the indicators, as the strategy is kept flat until the out-of-sample snapshots start.
+     */
+    private void test(WalkForwardWindow walkForwardWindow, Strategy testStrategy) {
+        MarketSnapshotSource snapshots = walkForwardWindow.getTestSnapshots();
+        MarketBook marketBook = new MarketBook();
+        marketBook.setSnapshots(snapshots);
+        IndicatorManager indicatorManager = new IndicatorManager();
+        testStrategy.setMarketBook(marketBook);
+        testStrategy.setIndicatorManager(indicatorManager);
+        testStrategy.setIndicators();
+        TradingSchedule tradingSchedule = testStrategy.getTradingSchedule();
+        PerformanceManager performanceManager = testStrategy.getPerformanceManager();
+        EquityCurve windowCurve = walkForwardWindow.getEquityCurve();
+
+        int testStart = walkForwardWindow.getTestStart();
+        int snapshotsCount = snapshots.size();
+        int trades = 0;
+        for (int count = 0; count < snapshotsCount; count++) {
+            marketBook.setIndex(count);
+            indicatorManager.updateIndicators();
+            long time = snapshots.getTime(count);
+            boolean isInSchedule = count >= testStart && tradingSchedule.contains(time);
+            if (count < snapshotsCount - 1) {
+                isInSchedule = isInSchedule && !marketBook.isGapping(snapshots.getTime(count + 1));
+            }
+
+            testStrategy.processInstant(isInSchedule);
+            if (count == testStart || performanceManager.getTrades() != trades) {
+                trades = performanceManager.getTrades();
+                windowCurve.add(time, performanceManager.getNetProfit());
+            }
+
+            if (count % 100000 == 0 && cancelled) {
+                return;
+            }
+        }
+
+        testStrategy.closePosition();
+        windowCurve.add(snapshots.getTime(snapshotsCount - 1), performanceManager.getNetProfit());
+        walkForwardWindow.setOutOfSampleResult(new OptimizationResult(testStrategy.getParams(), performanceManager));
+    }
+
+    public void run() {
+        ExecutorService windowExecutor = null;
+        try {
+            optimizerContext.enableProgress();
+            BackTestFileReader backTestFileReader = new BackTestFileReader(optimizerContext.getFileName(), optimizerContext.getDateFilter());
+            optimizerContext.setProgress("Loading historical data file...");
+            MarketSnapshotSource snapshots = backTestFileReader.loadSource(optimizerContext);
+            if (cancelled) {
+                return;
+            }
+            createWindows(snapshots);
+            windowProgress = new double[windows.size()];
+
+            // the windows which run at the same time share the processors, and the memory left for the indicator series
+            int concurrentWindows = Math.min(windows.size(), availableProcessors);
+            final int processors = Math.max(1, availableProcessors / concurrentWindows);
+            Runtime runtime = Runtime.getRuntime();
+            long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            final long seriesCacheBytes = freeMemory / 2 / concurrentWindows;
+
+            optimizerContext.setProgress("Starting walk-forward optimization ...");
+            long start = System.currentTimeMillis();
+            windowExecutor = Executors.newFixedThreadPool(concurrentWindows);
+            List<Future<?>> windowFutures = new ArrayList<Future<?>>();
+            for (int window = 0; window < windows.size(); window++) {
+                final int windowIndex = window;
+                windowFutures.add(windowExecutor.submit(new Callable<Void>() {
+                    public Void call() throws JBookTraderException {
+                        runWindow(windowIndex, processors, seriesCacheBytes);
+                        return null;
+                    }
+                }));
+            }
+
+            Throwable failure = null;
+            for (Future<?> windowFuture : windowFutures) {
+                try {
+                    windowFuture.get();
+                } catch (ExecutionException ee) {
+                    // stop the other windows, and report the first failure once they are done
+                    if (failure == null) {
+                        failure = ee.getCause();
+                        cancel();
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            long end = System.currentTimeMillis();
+
+            if (!cancelled) {
+                List<OptimizationResult> outOfSampleResults = new ArrayList<OptimizationResult>();
+                for (WalkForwardWindow walkForwardWindow : windows) {
+                    equityCurve.append(walkForwardWindow.getEquityCurve());
+                    if (walkForwardWindow.getOutOfSampleResult() != null) {
+                        outOfSampleResults.add(walkForwardWindow.getOutOfSampleResult());
+                    }
+                }
+                optimizerContext.setResults(outOfSampleResults);
+                long totalTimeInSecs = (end - start) / 1000;
+                String msg = "Walk-forward optimization of " + windows.size() + " windows completed successfully in " + totalTimeInSecs + " seconds.";
+                msg += " Out-of-sample net profit: " + nf0.format(equityCurve.getNetProfit());
+                optimizerContext.showMessage(msg);
+            }
+        } catch (Throwable t) {
+            optimizerContext.showException(t);
+        } finally {
+            if (windowExecutor != null) {
+                windowExecutor.shutdownNow();
+            }
+            optimizerContext.signalCompleted();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.jbooktrader.platform.optimizer;
+
+import com.jbooktrader.platform.marketbook.*;
+
+/**
+ * One step of a walk-forward optimization: the in-sample snapshots on which the strategy is
+ * optimized, and the out-of-sample snapshots which follow them, on which the best parameters
+ * are tested. The windows are ranges of the snapshots shared by all of them.
+ */
+public class WalkForwardWindow {
+    private final MarketSnapshotSource snapshots;
+    private final int inSampleStart, outOfSampleStart, outOfSampleEnd;
+    private final EquityCurve equityCurve;
+    private OptimizationResult inSampleResult, outOfSampleResult;
+
+    WalkForwardWindow(MarketSnapshotSource snapshots, int inSampleStart, int outOfSampleStart, int outOfSampleEnd) {
+        this.snapshots = snapshots;
+        this.inSampleStart = inSampleStart;
+        this.outOfSampleStart = outOfSampleStart;
+        this.outOfSampleEnd = outOfSampleEnd;
+        equityCurve = new EquityCurve();
+    }
+
+    MarketSnapshotSource getInSampleSnapshots() {
+        return new SnapshotWindow(snapshots, inSampleStart, outOfSampleStart);
+    }
+
+    /**
+     * Returns the in-sample and the out-of-sample snapshots, so that the indicators are warmed up
+     * by the time the out-of-sample snapshots start.
+     */
+    MarketSnapshotSource getTestSnapshots() {
+        return new SnapshotWindow(snapshots, inSampleStart, outOfSampleEnd);
+    }
+
+    /**
+     * Returns the index of the first out-of-sample snapshot among the test snapshots.
+     */
+    int getTestStart() {
+        return outOfSampleStart - inSampleStart;
+    }
+
+    public long getInSampleStartTime() {
+        return snapshots.getTime(inSampleStart);
+    }
+
+    public long getOutOfSampleStartTime() {
+        return snapshots.getTime(outOfSampleStart);
+    }
+
+    public long getOutOfSampleEndTime() {
+        return snapshots.getTime(outOfSampleEnd - 1);
+    }
+
+    /**
+     * Returns the best result of the in-sample optimization, or null if no strategy qualified.
+     */
+    public OptimizationResult getInSampleResult() {
+        return inSampleResult;
+    }
+
+    void setInSampleResult(OptimizationResult inSampleResult) {
+        this.inSampleResult = inSampleResult;
+    }
+
+    /**
+     * Returns the result of the best in-sample parameters on the out-of-sample snapshots,
+     * or null if no strategy qualified in-sample.
+     */
+    public OptimizationResult getOutOfSampleResult() {
+        return outOfSampleResult;
+    }
+
+    void setOutOfSampleResult(OptimizationResult outOfSampleResult) {
+        this.outOfSampleResult = outOfSampleResult;
+    }
+
+    /**
+     * Returns the out-of-sample net profit over time, starting from zero.
+     */
+    public EquityCurve getEquityCurve() {
+        return equityCurve;
+    }
+}
@@ -84,7 +84,7 @@ public class PositionManager {
 
         Mode mode = Dispatcher.getInstance().getMode();
         if (mode == Mode.BackTest) {
-            positionsHistory.add(new Position(strategy.getMarketBook().getSnapshot().getTime(), currentPosition, avgFillPrice));
+            positionsHistory.add(new Position(strategy.getMarketBook().getTime(), currentPosition, avgFillPrice));
         }
 
         if (mode != Mode.Optimization) {
@@ -12,6 +12,10 @@ public enum JBTPreferences {
     WebAccessUser("Web Access User", "admin"),
     WebAccessPassword("Web Access Password", "admin"),
 
+    // Market data recording
+    RecordingFormat("Recording format", "text"),
+    RecordingFlushInterval("Flush interval, seconds", "5"),
+
     // Data file for backtester and optimizer
     DataFileName("dataFileName"),
 
@@ -40,6 +44,19 @@ public enum JBTPreferences {
     DivideAndConquerCoverage("Divide & Conquer coverage", "200"),
     StrategiesPerProcessor("Strategies per processor", "50"),
     InclusionCriteria("Results inclusion criteria", "Profitable strategies"),
+    ResultsKept("Results kept in memory", "10000"),
+    SaveAllResults("Save all results to file", "false"),
+    GeneticPopulationSize("Genetic population size", "200"),
+    GeneticMutationRate("Genetic mutation rate, %", "5"),
+    GeneticElitism("Genetic elite size", "10"),
+    GeneticGenerations("Genetic generations", "50"),
+    BayesianEvaluations("Bayesian evaluations", "200"),
+    PruneMaxDrawdown("Prune at max drawdown (0 for none)", "0"),
+    PruneLosersAfter("Prune losers after, % of data (0 for none)", "0"),
+    CheckpointOptimization("Checkpoint to resume optimization", "true"),
+    CacheOptimizationResults("Cache results across sessions", "false"),
+    OptimizerProcesses("Optimizer worker processes (0 for none)", "0"),
+    OptimizerProcessMemory("Optimizer process max memory, MB (0 for a share)", "0"),
 
     // Optimization Map
     OptimizationMapWidth("optimization.map.width", "720"),
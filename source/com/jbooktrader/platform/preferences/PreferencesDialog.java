@@ -13,9 +13,9 @@ public class PreferencesDialog extends JBTDialog {
     private static final Dimension FIELD_DIMENSION = new Dimension(Integer.MAX_VALUE, 25);
     private final PreferencesHolder prefs;
     private JTextField hostText, portText, webAccessUser, ntpTimeServer;
-    private JSpinner clientIDSpin, webAccessPortSpin;
+    private JSpinner clientIDSpin, webAccessPortSpin, flushIntervalSpin;
     private JPasswordField webAccessPasswordField;
-    private JComboBox webAccessCombo;
+    private JComboBox webAccessCombo, recordingFormatCombo;
 
     public PreferencesDialog(JFrame parent) {
         super(parent);
@@ -92,6 +92,14 @@ public class PreferencesDialog extends JBTDialog {
         SpringUtilities.makeCompactGrid(webAcessTab, 4, 2, 12, 12, 8, 8);
 
 
+        JPanel marketDataTab = new JPanel(new SpringLayout());
+        tabbedPane.addTab("Market Data", marketDataTab);
+        recordingFormatCombo = new JComboBox(new String[] {"text", "compressed"});
+        flushIntervalSpin = new JSpinner(new SpinnerNumberModel(5, 1, 3600, 1));
+        add(marketDataTab, RecordingFormat, recordingFormatCombo);
+        add(marketDataTab, RecordingFlushInterval, flushIntervalSpin);
+        SpringUtilities.makeCompactGrid(marketDataTab, 2, 2, 12, 12, 8, 8);
+
         JPanel timeServerTab = new JPanel(new SpringLayout());
         tabbedPane.addTab("Time Server", timeServerTab);
         ntpTimeServer = new JTextField();
@@ -110,6 +118,9 @@ public class PreferencesDialog extends JBTDialog {
                     prefs.set(WebAccessUser, webAccessUser.getText());
                     prefs.set(WebAccessPassword, new String(webAccessPasswordField.getPassword()));
 
+                    prefs.set(RecordingFormat, (String) recordingFormatCombo.getSelectedItem());
+                    prefs.set(RecordingFlushInterval, flushIntervalSpin.getValue().toString());
+
                     prefs.set(NTPTimeServer, ntpTimeServer.getText());
 
                     String msg = "Some of the preferences will not take effect until " + AtomicTrader.APP_NAME + " is restarted.";
@@ -1,10 +1,12 @@
 package com.jbooktrader.platform.preferences;
 
+import java.util.*;
 import java.util.prefs.*;
 
 public class PreferencesHolder {
     private static PreferencesHolder instance;
     private final Preferences prefs;
+    private final Map<JBTPreferences, String> overrides;
 
     public static synchronized PreferencesHolder getInstance() {
         if (instance == null) {
@@ -16,6 +18,7 @@ public class PreferencesHolder {
     // private constructor for non-instantiability
     private PreferencesHolder() {
         prefs = Preferences.userNodeForPackage(getClass());
+        overrides = Collections.synchronizedMap(new EnumMap<JBTPreferences, String>(JBTPreferences.class));
     }
 
     public int getInt(JBTPreferences pref) {
@@ -24,7 +27,22 @@ public class PreferencesHolder {
     }
 
     public String get(JBTPreferences pref) {
-        return prefs.get(pref.getName(), pref.getDefault());
+        String value = overrides.get(pref);
+        return (value != null) ? value : prefs.get(pref.getName(), pref.getDefault());
+    }
+
+    /**
+     * Sets the value of the preference for this process only, without storing it.
+     */
+    public void override(JBTPreferences pref, String propertyValue) {
+        overrides.put(pref, propertyValue);
+    }
+
+    /**
+     * Removes the override of the preference, so that its stored value applies again.
+     */
+    public void clearOverride(JBTPreferences pref) {
+        overrides.remove(pref);
     }
 
     public void set(JBTPreferences pref, String propertyValue) {
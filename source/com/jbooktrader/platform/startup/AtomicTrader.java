@@ -72,4 +72,11 @@ public class AtomicTrader {
         return appPath;
     }
 
+    /**
+     * Sets the application directory, when the application is started without the user interface.
+     */
+    static void setAppPath(String path) {
+        appPath = path;
+    }
+
 }
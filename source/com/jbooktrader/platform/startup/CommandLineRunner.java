@@ -0,0 +1,553 @@
+package com.jbooktrader.platform.startup;
+
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.chart.*;
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.optimizer.*;
+import com.jbooktrader.platform.preferences.*;
+import com.jbooktrader.platform.strategy.*;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Runs a back test or an optimization from the command line, without the user interface, and
+ * writes the results as comma-separated values: a header row with the names of the parameters
+ * and of the performance metrics, followed by a row for each result. The progress is written
+ * to the standard error. For example:
+ * <pre>
+ * CommandLineRunner &lt;AtomicTraderDirectory&gt; optimize --strategy KaiAAPL --data marketData/AAPL.txt
+ *     --from 2013-01-02 --to 2013-03-28 --method divideandconquer --param Period=2200:3600:5
+ *     --min-trades 20 --sort "Net Profit" --set InclusionCriteria="All strategies" --output results.csv
+ * </pre>
+ * For a back test, --param Name=value sets the value of a parameter. A walk-forward optimization,
+ * with --in-sample-days and --out-of-sample-days, writes a row for each window, with the best
+ * in-sample parameters and their out-of-sample performance, and with --equity, the stitched
+ * out-of-sample net profit over time. The strategy is a class in
+ * the strategy package, or a fully qualified class name. The preferences set with --set apply to
+ * this run only, and are not stored. Anything else written to the standard output, such as the
+ * messages of the strategies, is sent to the standard error, so that the results can be piped.
+ */
+public class CommandLineRunner {
+    private static final String USAGE = "Usage: CommandLineRunner <AtomicTraderDirectory> backtest|optimize|walkforward --strategy <name> --data <file>"
+            + " [--from yyyy-MM-dd --to yyyy-MM-dd] [--param Name=value|Name=min:max:step]..."
+            + " [--method bruteforce|divideandconquer|genetic|bayesian] [--min-trades n] [--sort <metric>]"
+            + " [--in-sample-days n --out-of-sample-days n] [--equity <file>]"
+            + " [--bar-size <bar size>] [--set Preference=value]... [--output <file>]";
+    private final Map<String, List<String>> options;
+    private final PrintStream log, output;
+
+    /**
+     * Reports the progress to the standard error, once for every percent completed.
+     */
+    private static class ProgressPrinter implements ProgressListener {
+        private final PrintStream log;
+        private String previousProgress;
+        private volatile boolean isCancelled;
+
+        private ProgressPrinter(PrintStream log) {
+            this.log = log;
+        }
+
+        public synchronized void setProgress(String progressText) {
+            print(progressText);
+        }
+
+        public synchronized void setProgress(long count, long iterations, String progressText) {
+            int percent = (int) (100 * (count / (double) iterations));
+            print(progressText + ": " + percent + "% completed");
+        }
+
+        private void print(String progress) {
+            if (!progress.equals(previousProgress)) {
+                log.println(progress);
+                previousProgress = progress;
+            }
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        public void cancel() {
+            isCancelled = true;
+        }
+    }
+
+    private static class BackTestProgress extends ProgressPrinter implements BackTestContext {
+        private final BarSize barSize;
+
+        private BackTestProgress(PrintStream log, BarSize barSize) {
+            super(log);
+            this.barSize = barSize;
+        }
+
+        public BarSize getBarSize() {
+            return barSize;
+        }
+    }
+
+    private static class OptimizerProgress extends ProgressPrinter implements OptimizerContext {
+        private final String fileName;
+        private final MarketSnapshotFilter filter;
+        private final int minTrades;
+        private final PerformanceMetric sortCriteria;
+        private List<OptimizationResult> results;
+        private Throwable failure;
+
+        private OptimizerProgress(PrintStream log, String fileName, MarketSnapshotFilter filter, int minTrades, PerformanceMetric sortCriteria) {
+            super(log);
+            this.fileName = fileName;
+            this.filter = filter;
+            this.minTrades = minTrades;
+            this.sortCriteria = sortCriteria;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public MarketSnapshotFilter getDateFilter() {
+            return filter;
+        }
+
+        public int getMinTrades() {
+            return minTrades;
+        }
+
+        public PerformanceMetric getSortCriteria() {
+            return sortCriteria;
+        }
+
+        public void enableProgress() {
+        }
+
+        public void setRemainingTime(String remainingTime) {
+        }
+
+        public synchronized void setResults(List<OptimizationResult> optimizationResults) {
+            results = optimizationResults;
+        }
+
+        public synchronized List<OptimizationResult> getResults() {
+            return results;
+        }
+
+        public void signalCompleted() {
+        }
+
+        public void showMessage(String message) {
+            setProgress(message);
+        }
+
+        public synchronized void showException(Throwable t) {
+            if (failure == null) {
+                failure = t;
+            }
+        }
+
+        public synchronized Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    private CommandLineRunner(Map<String, List<String>> options, PrintStream log, PrintStream output) {
+        this.options = options;
+        this.log = log;
+        this.output = output;
+    }
+
+    private static Map<String, List<String>> parseOptions(String[] args, int start) throws JBookTraderException {
+        Map<String, List<String>> options = new HashMap<String, List<String>>();
+        for (int index = start; index < args.length; index += 2) {
+            String name = args[index];
+            if (!name.startsWith("--") || index + 1 >= args.length) {
+                throw new JBookTraderException("Invalid option: " + name);
+            }
+            List<String> values = options.get(name);
+            if (values == null) {
+                values = new ArrayList<String>();
+                options.put(name, values);
+            }
+            values.add(args[index + 1]);
+        }
+        return options;
+    }
+
+    private String getOption(String name, String defaultValue) {
+        List<String> values = options.get(name);
+        return (values == null) ? defaultValue : values.get(values.size() - 1);
+    }
+
+    private String getRequiredOption(String name) throws JBookTraderException {
+        String value = getOption(name, null);
+        if (value == null) {
+            throw new JBookTraderException("Option " + name + " is required.");
+        }
+        return value;
+    }
+
+    private List<String> getOptions(String name) {
+        List<String> values = options.get(name);
+        return (values == null) ? new ArrayList<String>() : values;
+    }
+
+    private void setPreferences() throws JBookTraderException {
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        for (String setting : getOptions("--set")) {
+            int separator = setting.indexOf('=');
+            if (separator < 0) {
+                throw new JBookTraderException("Invalid preference setting: " + setting);
+            }
+            try {
+                prefs.override(JBTPreferences.valueOf(setting.substring(0, separator)), setting.substring(separator + 1));
+            } catch (IllegalArgumentException iae) {
+                throw new JBookTraderException("Unknown preference: " + setting.substring(0, separator));
+            }
+        }
+    }
+
+    private static Strategy getStrategy(String name, StrategyParams params) throws JBookTraderException {
+        String className = (name.indexOf('.') < 0) ? "com.jbooktrader.strategy." + name : name;
+        try {
+            return (Strategy) Class.forName(className).getConstructor(StrategyParams.class).newInstance(params);
+        } catch (Exception e) {
+            throw new JBookTraderException("Could not create strategy " + className, e);
+        }
+    }
+
+    /**
+     * Returns the parameters of the strategy, with the values or the ranges set by the options.
+     */
+    private StrategyParams getParams(Strategy strategy) throws JBookTraderException {
+        StrategyParams params = new StrategyParams(strategy.getParams());
+        for (String setting : getOptions("--param")) {
+            int separator = setting.indexOf('=');
+            if (separator < 0) {
+                throw new JBookTraderException("Invalid parameter setting: " + setting);
+            }
+            String name = setting.substring(0, separator);
+            StrategyParam param = null;
+            for (StrategyParam strategyParam : params.getAll()) {
+                if (strategyParam.getName().equals(name)) {
+                    param = strategyParam;
+                }
+            }
+            if (param == null) {
+                throw new JBookTraderException("Strategy " + strategy.getName() + " has no parameter " + name);
+            }
+            String[] values = setting.substring(separator + 1).split(":");
+            try {
+                if (values.length == 1) {
+                    param.setValue(Integer.parseInt(values[0]));
+                } else if (values.length == 3) {
+                    param.setMin(Integer.parseInt(values[0]));
+                    param.setMax(Integer.parseInt(values[1]));
+                    param.setStep(Integer.parseInt(values[2]));
+                    param.setValue(Math.max(param.getMin(), Math.min(param.getMax(), param.getValue())));
+                } else {
+                    throw new JBookTraderException("Invalid parameter setting: " + setting);
+                }
+            } catch (NumberFormatException nfe) {
+                throw new JBookTraderException("Invalid parameter setting: " + setting);
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Returns the filter for the date range, with the same hours as the one of the dialogs.
+     */
+    private MarketSnapshotFilter getDateFilter() throws JBookTraderException {
+        String from = getOption("--from", null);
+        String to = getOption("--to", null);
+        if (from == null && to == null) {
+            return null;
+        }
+        if (from == null || to == null) {
+            throw new JBookTraderException("Both --from and --to must be specified.");
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setLenient(false);
+        Calendar calendar = Calendar.getInstance();
+        try {
+            calendar.setTime(dateFormat.parse(from));
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            long fromDate = calendar.getTimeInMillis();
+            calendar.setTime(dateFormat.parse(to));
+            calendar.set(Calendar.HOUR_OF_DAY, 23);
+            long toDate = calendar.getTimeInMillis();
+            if (fromDate > toDate) {
+                throw new JBookTraderException("The \"from\" date must be before or the same as the \"to\" date.");
+            }
+            return new MarketSnapshotFilter(fromDate, toDate);
+        } catch (ParseException pe) {
+            throw new JBookTraderException("Invalid date: " + pe.getMessage());
+        }
+    }
+
+    private String getDataFileName() throws JBookTraderException {
+        String fileName = getRequiredOption("--data");
+        if (!new File(fileName).exists()) {
+            throw new JBookTraderException("Historical file \"" + fileName + "\" does not exist.");
+        }
+        return fileName;
+    }
+
+    private void backTest() throws JBookTraderException, IOException {
+        Dispatcher.getInstance().setHeadlessMode(Mode.BackTest);
+        String strategyName = getRequiredOption("--strategy");
+        Strategy strategy = getStrategy(strategyName, getParams(getStrategy(strategyName, new StrategyParams())));
+        String barSizeName = getOption("--bar-size", PreferencesHolder.getInstance().get(JBTPreferences.PerformanceChartBarSize));
+        BarSize barSize = BarSize.getBarSize(barSizeName);
+        if (barSize == null) {
+            throw new JBookTraderException("Unknown bar size: " + barSizeName);
+        }
+
+        Dispatcher.getInstance().getTrader().getAssistant().addStrategy(strategy);
+        BackTestFileReader backTestFileReader = new BackTestFileReader(getDataFileName(), getDateFilter());
+        new BackTester(strategy, backTestFileReader, new BackTestProgress(log, barSize)).execute();
+
+        OptimizationResult result = new OptimizationResult(strategy.getParams(), strategy.getPerformanceManager());
+        writeResults(strategy.getParams(), Collections.singletonList(result));
+    }
+
+    private OptimizerProgress getOptimizerProgress() throws JBookTraderException {
+        int minTrades;
+        try {
+            minTrades = Integer.parseInt(getOption("--min-trades", PreferencesHolder.getInstance().get(JBTPreferences.OptimizerMinTrades)));
+        } catch (NumberFormatException nfe) {
+            throw new JBookTraderException("Invalid minimum number of trades.");
+        }
+        String sortName = getOption("--sort", PreferencesHolder.getInstance().get(JBTPreferences.OptimizerSelectBy));
+        PerformanceMetric sortCriteria = PerformanceMetric.getColumn(sortName);
+        if (sortCriteria == null) {
+            throw new JBookTraderException("Unknown performance metric: " + sortName);
+        }
+        return new OptimizerProgress(log, getDataFileName(), getDateFilter(), minTrades, sortCriteria);
+    }
+
+    private OptimizationMethod getOptimizationMethod() throws JBookTraderException {
+        String method = getOption("--method", "bruteforce");
+        if (method.equals("bruteforce")) {
+            return OptimizationMethod.BruteForce;
+        } else if (method.equals("divideandconquer")) {
+            return OptimizationMethod.DivideAndConquer;
+        } else if (method.equals("genetic")) {
+            return OptimizationMethod.Genetic;
+        } else if (method.equals("bayesian")) {
+            return OptimizationMethod.Bayesian;
+        }
+        throw new JBookTraderException("Unknown optimization method: " + method);
+    }
+
+    private int getDays(String name) throws JBookTraderException {
+        try {
+            return Integer.parseInt(getRequiredOption(name));
+        } catch (NumberFormatException nfe) {
+            throw new JBookTraderException("Invalid number of days: " + getOption(name, null));
+        }
+    }
+
+    /**
+     * Runs the task in a thread of its own. On an interrupt, the task is cancelled, and the
+     * process exits once the task has stopped, so that its results cache is left complete.
+     */
+    private static void runCancellable(Runnable task, final Runnable canceller) throws InterruptedException {
+        final Thread taskThread = new Thread(task, "Optimizer");
+        Thread stopper = new Thread() {
+            @Override
+            public void run() {
+                canceller.run();
+                try {
+                    taskThread.join();
+                } catch (InterruptedException ie) {
+                    // exiting anyway
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(stopper);
+        taskThread.start();
+        taskThread.join();
+        Runtime.getRuntime().removeShutdownHook(stopper);
+    }
+
+    private static void checkFailure(OptimizerProgress optimizerProgress) throws JBookTraderException {
+        Throwable failure = optimizerProgress.getFailure();
+        if (failure != null) {
+            throw (failure instanceof JBookTraderException) ? (JBookTraderException) failure : new JBookTraderException(failure);
+        }
+    }
+
+    private void optimize() throws JBookTraderException, IOException, InterruptedException {
+        Dispatcher.getInstance().setHeadlessMode(Mode.Optimization);
+        Strategy strategy = getStrategy(getRequiredOption("--strategy"), new StrategyParams());
+        StrategyParams params = getParams(strategy);
+        OptimizerProgress optimizerProgress = getOptimizerProgress();
+        final OptimizerRunner optimizerRunner = getOptimizationMethod().createRunner(optimizerProgress, strategy, params,
+                Runtime.getRuntime().availableProcessors());
+
+        runCancellable(optimizerRunner, new Runnable() {
+            public void run() {
+                optimizerRunner.cancel();
+            }
+        });
+        checkFailure(optimizerProgress);
+        writeResults(params, optimizerProgress.getResults());
+    }
+
+    private void walkForward() throws JBookTraderException, IOException, InterruptedException {
+        Dispatcher.getInstance().setHeadlessMode(Mode.Optimization);
+        Strategy strategy = getStrategy(getRequiredOption("--strategy"), new StrategyParams());
+        StrategyParams params = getParams(strategy);
+        OptimizerProgress optimizerProgress = getOptimizerProgress();
+        final WalkForwardRunner walkForwardRunner = new WalkForwardRunner(optimizerProgress, strategy, params, getOptimizationMethod(),
+                getDays("--in-sample-days"), getDays("--out-of-sample-days"));
+
+        runCancellable(walkForwardRunner, new Runnable() {
+            public void run() {
+                walkForwardRunner.cancel();
+            }
+        });
+        checkFailure(optimizerProgress);
+        if (walkForwardRunner.isCancelled()) {
+            return;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        dateFormat.setTimeZone(strategy.getTradingSchedule().getTimeZone());
+        PerformanceMetric sortCriteria = optimizerProgress.getSortCriteria();
+        List<String> headers = new ArrayList<String>();
+        headers.add("In-sample start");
+        headers.add("Out-of-sample start");
+        headers.add("Out-of-sample end");
+        for (StrategyParam param : params.getAll()) {
+            headers.add(param.getName());
+        }
+        headers.add("In-sample " + sortCriteria.getName());
+        for (PerformanceMetric performanceMetric : PerformanceMetric.values()) {
+            headers.add(performanceMetric.getName());
+        }
+
+        List<List<String>> rows = new ArrayList<List<String>>();
+        for (WalkForwardWindow window : walkForwardRunner.getWindows()) {
+            List<String> columns = new ArrayList<String>();
+            columns.add(dateFormat.format(new Date(window.getInSampleStartTime())));
+            columns.add(dateFormat.format(new Date(window.getOutOfSampleStartTime())));
+            columns.add(dateFormat.format(new Date(window.getOutOfSampleEndTime())));
+            OptimizationResult inSampleResult = window.getInSampleResult();
+            OptimizationResult outOfSampleResult = window.getOutOfSampleResult();
+            for (int index = 0; index < params.size(); index++) {
+                columns.add((inSampleResult == null) ? "" : String.valueOf(inSampleResult.getParams().getValue(index)));
+            }
+            columns.add((inSampleResult == null) ? "" : String.valueOf(inSampleResult.get(sortCriteria)));
+            for (PerformanceMetric performanceMetric : PerformanceMetric.values()) {
+                columns.add((outOfSampleResult == null) ? "" : String.valueOf(outOfSampleResult.get(performanceMetric)));
+            }
+            rows.add(columns);
+        }
+        writeCsv(getOption("--output", null), headers, rows);
+
+        String equityFileName = getOption("--equity", null);
+        if (equityFileName != null) {
+            EquityCurve equityCurve = walkForwardRunner.getEquityCurve();
+            rows.clear();
+            for (int index = 0; index < equityCurve.size(); index++) {
+                rows.add(Arrays.asList(dateFormat.format(new Date(equityCurve.getTime(index))), String.valueOf(equityCurve.getNetProfit(index))));
+            }
+            writeCsv(equityFileName, Arrays.asList("Time", "Net Profit"), rows);
+        }
+    }
+
+    private void writeResults(StrategyParams params, List<OptimizationResult> results) throws IOException {
+        List<String> headers = new ArrayList<String>();
+        for (StrategyParam param : params.getAll()) {
+            headers.add(param.getName());
+        }
+        for (PerformanceMetric performanceMetric : PerformanceMetric.values()) {
+            headers.add(performanceMetric.getName());
+        }
+
+        List<List<String>> rows = new ArrayList<List<String>>();
+        for (OptimizationResult result : results) {
+            List<String> columns = new ArrayList<String>();
+            StrategyParams resultParams = result.getParams();
+            for (int index = 0; index < resultParams.size(); index++) {
+                columns.add(String.valueOf(resultParams.getValue(index)));
+            }
+            for (PerformanceMetric performanceMetric : PerformanceMetric.values()) {
+                columns.add(String.valueOf(result.get(performanceMetric)));
+            }
+            rows.add(columns);
+        }
+        writeCsv(getOption("--output", null), headers, rows);
+    }
+
+    /**
+     * Writes the rows to the file, or to the standard output if the file name is null.
+     */
+    private void writeCsv(String fileName, List<String> headers, List<List<String>> rows) throws IOException {
+        PrintWriter writer = (fileName == null) ? new PrintWriter(output) : new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+        try {
+            writer.println(toCsv(headers));
+            for (List<String> columns : rows) {
+                writer.println(toCsv(columns));
+            }
+        } finally {
+            writer.flush();
+            if (fileName != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private static String toCsv(List<String> values) {
+        StringBuilder csv = new StringBuilder();
+        for (String value : values) {
+            if (csv.length() > 0) {
+                csv.append(",");
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+                csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                csv.append(value);
+            }
+        }
+        return csv.toString();
+    }
+
+    public static void main(String[] args) {
+        PrintStream log = System.err;
+        PrintStream output = System.out;
+        if (args.length < 2) {
+            log.println(USAGE);
+            System.exit(2);
+        }
+
+        int exitCode = 0;
+        try {
+            CommandLineRunner commandLineRunner = new CommandLineRunner(parseOptions(args, 2), log, output);
+            System.setOut(log);
+            AtomicTrader.setAppPath(args[0]);
+            Dispatcher.getInstance().setReporter();
+            commandLineRunner.setPreferences();
+            if (args[1].equals("backtest")) {
+                commandLineRunner.backTest();
+            } else if (args[1].equals("optimize")) {
+                commandLineRunner.optimize();
+            } else if (args[1].equals("walkforward")) {
+                commandLineRunner.walkForward();
+            } else {
+                log.println(USAGE);
+                exitCode = 2;
+            }
+        } catch (Throwable t) {
+            log.println("Error: " + t.getMessage());
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+}
@@ -92,7 +92,7 @@ public abstract class Strategy implements Comparable<Strategy> {
     }
 
     protected int getParam(String name) {
-        return params.get(name).getValue();
+        return params.getValue(name);
     }
 
     protected void addParam(String name, int min, int max, int step, int value) {
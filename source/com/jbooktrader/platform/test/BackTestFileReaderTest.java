@@ -0,0 +1,70 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.marketbook.*;
+import org.junit.*;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.backtest.BackTestFileReader
+ */
+public class BackTestFileReaderTest {
+    private static final File MARKET_DATA_DIR = new File("marketData");
+
+    /**
+     * Tests that the byte-level parser produces exactly the same snapshots as
+     * the line-by-line parser based on SimpleDateFormat, for the bundled data files.
+     */
+    @Test
+    public void testSameAsLineParser() throws Exception {
+        File[] files = MARKET_DATA_DIR.listFiles();
+        Assume.assumeNotNull((Object) files);
+
+        for (File file : files) {
+            if (!file.getName().endsWith(".txt")) {
+                continue;
+            }
+            List<MarketSnapshot> expected = parseLines(file);
+            SnapshotSeries actual = new BackTestFileReader(file.getPath(), null).load(SnapshotFixtures.NO_PROGRESS);
+
+            Assert.assertEquals(file.getName(), expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                MarketSnapshot marketSnapshot = expected.get(i);
+                Assert.assertEquals(marketSnapshot.getTime(), actual.getTime(i));
+                Assert.assertEquals(marketSnapshot.getBalance(), actual.getBalance(i), 0);
+                Assert.assertEquals(marketSnapshot.getPrice(), actual.getPrice(i), 0);
+                Assert.assertEquals(marketSnapshot.getVolume(), actual.getVolume(i));
+            }
+        }
+    }
+
+    private List<MarketSnapshot> parseLines(File file) throws IOException, ParseException {
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        SimpleDateFormat sdf = new SimpleDateFormat("MMddyyHHmmss");
+        sdf.setLenient(false);
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("timeZone")) {
+                    sdf.setTimeZone(TimeZone.getTimeZone(line.substring(line.indexOf('=') + 1)));
+                } else if (!line.startsWith("#") && !line.contains("=") && line.trim().length() != 0) {
+                    String[] tokens = line.split(",");
+                    long time = sdf.parse(tokens[0] + tokens[1]).getTime();
+                    double balance = Double.parseDouble(tokens[2]);
+                    double price = Double.parseDouble(tokens[3]);
+                    int volume = Integer.parseInt(tokens[4]);
+                    snapshots.add(new MarketSnapshot(time, balance, price, volume));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return snapshots;
+    }
+}
@@ -0,0 +1,60 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.backtest.BinarySnapshotFileWriter
+ * and com.jbooktrader.platform.backtest.BinarySnapshotFileReader
+ */
+public class BinarySnapshotFileTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = File.createTempFile("snapshots", BinarySnapshotFile.EXTENSION);
+        file.deleteOnExit();
+        new File(file.getPath() + DayIndex.EXTENSION).deleteOnExit();
+
+        List<MarketSnapshot> written = SnapshotFixtures.getSnapshots(1367596441000L, 1000);
+
+        BinarySnapshotFileWriter writer = new BinarySnapshotFileWriter(file.getPath(), TimeZone.getTimeZone("America/New_York"));
+        for (MarketSnapshot marketSnapshot : written) {
+            writer.write(marketSnapshot);
+        }
+        writer.close();
+
+        Assert.assertTrue(BinarySnapshotFile.isBinary(file));
+
+        BackTestFileReader reader = new BackTestFileReader(file.getPath(), null);
+        SnapshotSeries read = reader.load(SnapshotFixtures.NO_PROGRESS);
+        Assert.assertEquals("America/New_York", reader.getTimeZone().getID());
+        Assert.assertEquals(written.size(), read.size());
+        for (int i = 0; i < written.size(); i++) {
+            MarketSnapshot expected = written.get(i);
+            MarketSnapshot actual = read.getSnapshot(i);
+            Assert.assertEquals(expected.getTime(), actual.getTime());
+            Assert.assertEquals(expected.getBalance(), actual.getBalance(), 0);
+            Assert.assertEquals(expected.getPrice(), actual.getPrice(), 0);
+            Assert.assertEquals(expected.getVolume(), actual.getVolume());
+        }
+    }
+
+    @Test(expected = JBookTraderException.class)
+    public void testRejectsNonIncreasingTime() throws Exception {
+        File file = File.createTempFile("snapshots", BinarySnapshotFile.EXTENSION);
+        BinarySnapshotFileWriter writer = new BinarySnapshotFileWriter(file.getPath(), TimeZone.getTimeZone("America/New_York"));
+        try {
+            writer.write(2000, 0, 0, 0);
+            writer.write(1000, 0, 0, 0);
+        } finally {
+            writer.close();
+            file.delete();
+            new File(file.getPath() + DayIndex.EXTENSION).delete();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.backtest.CompressedSnapshotFileWriter
+ * and com.jbooktrader.platform.backtest.CompressedSnapshotFileReader
+ */
+public class CompressedSnapshotFileTest {
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+
+    private static void write(File file, List<MarketSnapshot> snapshots) throws Exception {
+        CompressedSnapshotFileWriter writer = new CompressedSnapshotFileWriter(file.getPath(), TIME_ZONE, 60);
+        for (MarketSnapshot marketSnapshot : snapshots) {
+            writer.write(marketSnapshot);
+        }
+        writer.close();
+    }
+
+    private static void assertSnapshots(List<MarketSnapshot> expected, SnapshotSeries actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getTime(), actual.getTime(i));
+            Assert.assertEquals(expected.get(i).getBalance(), actual.getBalance(i), 0);
+            Assert.assertEquals(expected.get(i).getPrice(), actual.getPrice(i), 0);
+            Assert.assertEquals(expected.get(i).getVolume(), actual.getVolume(i));
+        }
+    }
+
+    @Test
+    public void testRoundTripAcrossSessions() throws Exception {
+        File file = File.createTempFile("snapshots", CompressedSnapshotFile.EXTENSION);
+        file.deleteOnExit();
+
+        List<MarketSnapshot> written = SnapshotFixtures.getSnapshots(1367596441000L, 1000);
+        write(file, written.subList(0, 630));
+        write(file, written.subList(630, written.size()));
+
+        Assert.assertTrue(CompressedSnapshotFile.isCompressed(file));
+
+        BackTestFileReader reader = new BackTestFileReader(file.getPath(), null);
+        Assert.assertEquals(TIME_ZONE.getID(), reader.getTimeZone().getID());
+        assertSnapshots(written, reader.load(SnapshotFixtures.NO_PROGRESS));
+    }
+
+    @Test
+    public void testIgnoresIncompleteBlock() throws Exception {
+        File file = File.createTempFile("snapshots", CompressedSnapshotFile.EXTENSION);
+        file.deleteOnExit();
+
+        List<MarketSnapshot> written = SnapshotFixtures.getSnapshots(1367596441000L, 120);
+        write(file, written);
+        RandomAccessFile truncatedFile = new RandomAccessFile(file, "rw");
+        truncatedFile.setLength(file.length() - 1);
+        truncatedFile.close();
+
+        SnapshotSeries read = new BackTestFileReader(file.getPath(), null).load(SnapshotFixtures.NO_PROGRESS);
+        assertSnapshots(written.subList(0, 60), read);
+    }
+
+    @Test(expected = JBookTraderException.class)
+    public void testRejectsNonIncreasingTime() throws Exception {
+        File file = File.createTempFile("snapshots", CompressedSnapshotFile.EXTENSION);
+        CompressedSnapshotFileWriter writer = new CompressedSnapshotFileWriter(file.getPath(), TIME_ZONE, 60);
+        try {
+            writer.write(2000, 0, 0, 0);
+            writer.write(1000, 0, 0, 0);
+        } finally {
+            writer.close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.indicator.balance.*;
+import com.jbooktrader.indicator.price.*;
+import com.jbooktrader.platform.indicator.*;
+import com.jbooktrader.platform.marketbook.*;
+import org.junit.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.indicator.IndicatorSeriesCache
+ */
+public class IndicatorSeriesCacheTest {
+    private static final int SIZE = 5000;
+
+    private static SnapshotSeries createSnapshots() {
+        SnapshotSeries snapshots = new SnapshotSeries(SIZE);
+        long time = 1000000000000L;
+        for (int index = 0; index < SIZE; index++) {
+            // a two-hour gap in the middle resets the indicators
+            time += (index == SIZE / 2) ? 2 * 60 * 60 * 1000 : 1000;
+            snapshots.add(time, Math.sin(index / 50.0) * 30, 100 + Math.cos(index / 70.0), index % 7);
+        }
+        return snapshots;
+    }
+
+    /**
+     * Tests that the indicators replayed from the cache have the same values
+     * as the indicators calculated along the replay.
+     */
+    @Test
+    public void testSameAsCalculated() {
+        SnapshotSeries snapshots = createSnapshots();
+        IndicatorSeriesCache cache = new IndicatorSeriesCache(snapshots, 10 * 8 * SIZE);
+
+        MarketBook calculatedBook = new MarketBook();
+        calculatedBook.setSnapshots(snapshots);
+        IndicatorManager calculatedManager = new IndicatorManager();
+        calculatedManager.setMarketBook(calculatedBook);
+        Indicator calculatedBalance = calculatedManager.addIndicator(new BalanceVelocity(1, 300));
+        Indicator calculatedPrice = calculatedManager.addIndicator(new PriceVelocity(1, 300));
+
+        MarketBook cachedBook = new MarketBook();
+        cachedBook.setSnapshots(snapshots);
+        IndicatorManager cachedManager = new IndicatorManager();
+        cachedManager.setSeriesCache(cache);
+        cachedManager.setMarketBook(cachedBook);
+        Indicator cachedBalance = cachedManager.addIndicator(new BalanceVelocity(1, 300));
+        Indicator cachedPrice = cachedManager.addIndicator(new PriceVelocity(1, 300));
+        Assert.assertEquals("BalanceVelocity(1,300)", cachedBalance.getKey());
+
+        for (int index = 0; index < SIZE; index++) {
+            calculatedBook.setIndex(index);
+            cachedBook.setIndex(index);
+            calculatedManager.updateIndicators();
+            cachedManager.updateIndicators();
+            Assert.assertEquals(calculatedBalance.getValue(), cachedBalance.getValue(), 0);
+            Assert.assertEquals(calculatedPrice.getValue(), cachedPrice.getValue(), 0);
+            Assert.assertEquals(calculatedManager.hasValidIndicators(), cachedManager.hasValidIndicators());
+        }
+    }
+
+    /**
+     * Tests that the least recently used series is evicted when the cache is full,
+     * and that no series is cached when it does not fit.
+     */
+    @Test
+    public void testEviction() {
+        SnapshotSeries snapshots = createSnapshots();
+        IndicatorSeriesCache cache = new IndicatorSeriesCache(snapshots, 2 * 8 * SIZE);
+
+        double[] first = cache.getSeries(new PriceVelocity(1, 100));
+        double[] second = cache.getSeries(new PriceVelocity(1, 200));
+        Assert.assertSame(first, cache.getSeries(new PriceVelocity(1, 100)));
+        cache.getSeries(new PriceVelocity(1, 300));
+        Assert.assertSame(first, cache.getSeries(new PriceVelocity(1, 100)));
+        Assert.assertNotSame(second, cache.getSeries(new PriceVelocity(1, 200)));
+
+        IndicatorSeriesCache smallCache = new IndicatorSeriesCache(snapshots, 8 * SIZE - 1);
+        Assert.assertNull(smallCache.getSeries(new PriceVelocity(1, 100)));
+    }
+}
@@ -0,0 +1,157 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.platform.optimizer.*;
+import com.jbooktrader.platform.performance.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.optimizer.OptimizationResultCache
+ */
+public class OptimizationResultCacheTest {
+    private static final String SIGNATURE = "Strategy|digest";
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("results", OptimizationResultCache.EXTENSION);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private static StrategyParams getBounds(int max) {
+        StrategyParams params = new StrategyParams();
+        params.add("First", 0, max, 1, 0);
+        params.add("Second", -5, 5, 1, 0);
+        return params;
+    }
+
+    private static StrategyParams getParams(StrategyParams bounds, int first, int second) {
+        StrategyParams params = new StrategyParams(bounds);
+        params.setValue(0, first);
+        params.setValue(1, second);
+        return params;
+    }
+
+    private static OptimizationResult getResult(StrategyParams params, final double netProfit) {
+        return new OptimizationResult(params, new PerformanceManager(null, 1, null) {
+            @Override
+            public double getNetProfit() {
+                return netProfit;
+            }
+        });
+    }
+
+    private void write(StrategyParams bounds, List<StrategyParams> evaluated, List<OptimizationResult> results) throws Exception {
+        OptimizationResultCache cache = new OptimizationResultCache(file, SIGNATURE, bounds);
+        cache.write(evaluated, results);
+        cache.flush();
+        cache.close();
+    }
+
+    /**
+     * Tests that a record which was partially written when the optimization was interrupted is
+     * discarded, and that the records written after resuming follow the last complete one.
+     */
+    @Test
+    public void testResumeAfterPartialRecord() throws Exception {
+        StrategyParams bounds = getBounds(9);
+        StrategyParams qualified = getParams(bounds, 2, -2);
+        write(bounds, Arrays.asList(getParams(bounds, 1, 1), qualified, getParams(bounds, 3, 3)),
+                Arrays.asList(getResult(qualified, 42)));
+        long validLength = file.length();
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+        out.writeInt(4);
+        out.writeShort(0);
+        out.close();
+
+        OptimizationResultCache cache = new OptimizationResultCache(file, SIGNATURE, bounds);
+        Assert.assertEquals(validLength, file.length());
+        Assert.assertEquals(3, cache.size());
+        Assert.assertTrue(cache.contains(getParams(bounds, 1, 1)));
+        Assert.assertNull(cache.get(getParams(bounds, 1, 1)));
+        Assert.assertEquals(42, cache.get(getParams(bounds, 2, -2)).get(PerformanceMetric.NetProfit), 0);
+        Assert.assertFalse(cache.contains(getParams(bounds, 4, 4)));
+
+        StrategyParams resumed = getParams(bounds, 4, 4);
+        cache.write(Arrays.asList(resumed), Arrays.asList(getResult(resumed, -7)));
+        cache.close();
+
+        cache = new OptimizationResultCache(file, SIGNATURE, bounds);
+        Assert.assertEquals(4, cache.size());
+        Assert.assertEquals(42, cache.get(getParams(bounds, 2, -2)).get(PerformanceMetric.NetProfit), 0);
+        Assert.assertEquals(-7, cache.get(getParams(bounds, 4, 4)).get(PerformanceMetric.NetProfit), 0);
+        cache.close();
+    }
+
+    /**
+     * Tests that the records of the combinations out of the current ranges are kept in the file,
+     * without being indexed, so that they are found again once the ranges are widened.
+     */
+    @Test
+    public void testKeepsRecordsOutOfRanges() throws Exception {
+        StrategyParams bounds = getBounds(9);
+        List<StrategyParams> evaluated = new ArrayList<StrategyParams>();
+        List<OptimizationResult> results = new ArrayList<OptimizationResult>();
+        for (int first = 9; first >= 0; first--) {
+            evaluated.add(getParams(bounds, first, first - 5));
+            results.add(getResult(evaluated.get(evaluated.size() - 1), first * 10));
+        }
+        write(bounds, evaluated, results);
+        long length = file.length();
+
+        StrategyParams narrowBounds = getBounds(4);
+        OptimizationResultCache cache = new OptimizationResultCache(file, SIGNATURE, narrowBounds);
+        Assert.assertEquals(5, cache.size());
+        Assert.assertEquals(length, file.length());
+        for (int first = 0; first <= 4; first++) {
+            OptimizationResult result = cache.get(getParams(narrowBounds, first, first - 5));
+            Assert.assertEquals(first * 10, result.get(PerformanceMetric.NetProfit), 0);
+        }
+        StrategyParams added = getParams(narrowBounds, 2, 3);
+        cache.write(Arrays.asList(added), Arrays.asList(getResult(added, -20)));
+        cache.close();
+
+        cache = new OptimizationResultCache(file, SIGNATURE, bounds);
+        Assert.assertEquals(11, cache.size());
+        for (int first = 0; first <= 9; first++) {
+            OptimizationResult result = cache.get(getParams(bounds, first, first - 5));
+            Assert.assertEquals(first * 10, result.get(PerformanceMetric.NetProfit), 0);
+        }
+        Assert.assertEquals(-20, cache.get(getParams(bounds, 2, 3)).get(PerformanceMetric.NetProfit), 0);
+        cache.close();
+    }
+
+    @Test
+    public void testStartsOverExpiredFile() throws Exception {
+        StrategyParams bounds = getBounds(9);
+        write(bounds, Arrays.asList(getParams(bounds, 1, 1)), new ArrayList<OptimizationResult>());
+        long maxAge = OptimizationResultCache.MAX_AGE_DAYS * 24L * 60 * 60 * 1000;
+        Assert.assertTrue(file.setLastModified(System.currentTimeMillis() - maxAge - 60000));
+
+        OptimizationResultCache cache = new OptimizationResultCache(file, SIGNATURE, bounds);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertFalse(cache.contains(getParams(bounds, 1, 1)));
+        cache.close();
+    }
+
+    @Test
+    public void testIgnoresOtherSignature() throws Exception {
+        StrategyParams bounds = getBounds(9);
+        write(bounds, Arrays.asList(getParams(bounds, 1, 1)), new ArrayList<OptimizationResult>());
+
+        OptimizationResultCache cache = new OptimizationResultCache(file, "Strategy|other digest", bounds);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertFalse(cache.contains(getParams(bounds, 1, 1)));
+        cache.delete();
+        Assert.assertFalse(file.exists());
+    }
+}
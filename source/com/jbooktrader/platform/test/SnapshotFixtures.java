@@ -0,0 +1,42 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.marketbook.*;
+
+import java.util.*;
+
+/**
+ * fixtures shared by the unit tests of the market data files
+ */
+final class SnapshotFixtures {
+    static final ProgressListener NO_PROGRESS = new ProgressListener() {
+        public void setProgress(String progressText) {
+        }
+
+        public void setProgress(long count, long iterations, String progressText) {
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    private SnapshotFixtures() {
+    }
+
+    /**
+     * Returns the specified number of snapshots after the specified time, one second
+     * apart, except for a gap of one hour before every 7th of them.
+     */
+    static List<MarketSnapshot> getSnapshots(long time, int count) {
+        List<MarketSnapshot> snapshots = new ArrayList<MarketSnapshot>();
+        for (int i = 0; i < count; i++) {
+            time += (i % 7 == 0) ? 3600000 : 1000;
+            // every 100th snapshot has values which cannot be stored as scaled integers
+            double balance = (i % 100 == 0) ? Math.PI * i : i - 500.25;
+            double price = (i % 100 == 50) ? Math.E + i : 385.9 + i / 1000.0;
+            snapshots.add(new MarketSnapshot(time, balance, price, (i % 13) - 6));
+        }
+        return snapshots;
+    }
+}
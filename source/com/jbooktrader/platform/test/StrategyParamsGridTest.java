@@ -0,0 +1,186 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.indicator.price.*;
+import com.jbooktrader.platform.commission.*;
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.optimizer.*;
+import com.jbooktrader.platform.schedule.*;
+import com.jbooktrader.platform.strategy.*;
+import com.jbooktrader.platform.util.*;
+import org.junit.*;
+
+import java.util.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.optimizer.StrategyParamsGrid
+ */
+public class StrategyParamsGridTest {
+
+    /**
+     * A strategy whose indicators depend on the parameters named "Indicator...".
+     */
+    public static class GroupedStrategy extends Strategy {
+        public GroupedStrategy(StrategyParams params) throws JBookTraderException {
+            super(params);
+            TradingSchedule tradingSchedule = new TradingSchedule("9:35", "15:55", "America/New_York");
+            setStrategy(ContractFactory.makeFutureContract("ES", "GLOBEX"), tradingSchedule, 50,
+                    CommissionFactory.getBundledNorthAmericaFutureCommission(), 0.25);
+        }
+
+        @Override
+        public void onBookSnapshot() {
+        }
+
+        @Override
+        protected void setParams() {
+            addParam("Indicator", 2, 4, 1, 3);
+            addParam("Entry", 0, 1, 1, 0);
+        }
+
+        @Override
+        public void setIndicators() {
+            for (StrategyParam param : getParams().getAll()) {
+                if (param.getName().startsWith("Indicator")) {
+                    addIndicator(new PriceEMA(param.getValue()));
+                }
+            }
+        }
+    }
+
+    private static IndicatorGrouping getIndicatorGrouping(StrategyParams params) throws JBookTraderException {
+        GroupedStrategy strategy = new GroupedStrategy(new StrategyParams());
+        OptimizerRunner optimizerRunner = new BruteForceOptimizerRunner(new WalkForwardTest.TestContext(null), strategy, params, 1);
+        return new IndicatorGrouping(optimizerRunner, params);
+    }
+
+    /**
+     * Enumerates the combinations the way the optimizer did before the grid, as an odometer
+     * whose wheels are the parameters in the specified order, the last one turning the fastest.
+     */
+    private static List<int[]> enumerate(StrategyParams params, int[] order) {
+        StrategyParamsSchema schema = params.getSchema();
+        int[] values = new int[schema.size()];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = schema.getMin(index);
+        }
+
+        List<int[]> combinations = new ArrayList<int[]>();
+        boolean isDone = false;
+        while (!isDone) {
+            combinations.add(values.clone());
+            isDone = true;
+            for (int wheel = order.length - 1; wheel >= 0 && isDone; wheel--) {
+                int paramNumber = order[wheel];
+                values[paramNumber] += schema.getStep(paramNumber);
+                if (values[paramNumber] > schema.getMax(paramNumber)) {
+                    values[paramNumber] = schema.getMin(paramNumber);
+                } else {
+                    isDone = false;
+                }
+            }
+        }
+        return combinations;
+    }
+
+    private static int[] getValues(StrategyParams params) {
+        int[] values = new int[params.size()];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = params.getValue(index);
+        }
+        return values;
+    }
+
+    private static void assertGrid(List<int[]> expected, StrategyParamsGrid grid) {
+        Assert.assertEquals(expected.size(), grid.getTaskCount());
+        Iterator<StrategyParams> iterator = grid.iterator();
+        for (int index = 0; index < expected.size(); index++) {
+            Assert.assertArrayEquals(expected.get(index), getValues(grid.get(index)));
+            Assert.assertArrayEquals(expected.get(index), getValues(iterator.next()));
+        }
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testLastParamChangesFastest() {
+        StrategyParams params = new StrategyParams();
+        params.add("First", 1, 3, 1, 1);
+        params.add("Second", 10, 30, 10, 10);
+        StrategyParamsGrid grid = new StrategyParamsGrid(params);
+
+        Assert.assertEquals(9, grid.getTaskCount());
+        Assert.assertArrayEquals(new int[] {1, 10}, getValues(grid.get(0)));
+        Assert.assertArrayEquals(new int[] {1, 20}, getValues(grid.get(1)));
+        Assert.assertArrayEquals(new int[] {2, 10}, getValues(grid.get(3)));
+        Assert.assertArrayEquals(new int[] {3, 30}, getValues(grid.get(8)));
+        Assert.assertEquals(9, grid.getGroupEnd(0));
+    }
+
+    @Test
+    public void testIndicatorParamsChangeSlowest() throws JBookTraderException {
+        StrategyParams params = new StrategyParams();
+        params.add("Entry", 0, 1, 1, 0);
+        params.add("Indicator", 2, 4, 1, 3);
+        IndicatorGrouping indicatorGrouping = getIndicatorGrouping(params);
+        Assert.assertArrayEquals(new int[] {1}, indicatorGrouping.getIndicatorParams());
+        StrategyParamsGrid grid = new StrategyParamsGrid(params, indicatorGrouping);
+
+        Assert.assertEquals(6, grid.getTaskCount());
+        Assert.assertArrayEquals(new int[] {0, 2}, getValues(grid.get(0)));
+        Assert.assertArrayEquals(new int[] {1, 2}, getValues(grid.get(1)));
+        Assert.assertArrayEquals(new int[] {0, 3}, getValues(grid.get(2)));
+        Assert.assertArrayEquals(new int[] {1, 4}, getValues(grid.get(5)));
+        Assert.assertEquals(2, grid.getGroupEnd(0));
+        Assert.assertEquals(4, grid.getGroupEnd(3));
+        Assert.assertEquals(6, grid.getGroupEnd(5));
+    }
+
+    /**
+     * Tests that the grid decodes random grids in the order of the odometer, with the indicator
+     * parameters as the outer wheels, and that its groups are the runs of the same indicators.
+     */
+    @Test
+    public void testRandomGridsMatchEnumeration() throws JBookTraderException {
+        Random random = new Random(12);
+        for (int trial = 0; trial < 50; trial++) {
+            StrategyParams params = new StrategyParams();
+            List<Integer> indicatorParams = new ArrayList<Integer>();
+            List<Integer> otherParams = new ArrayList<Integer>();
+            int paramCount = 1 + random.nextInt(4);
+            for (int index = 0; index < paramCount; index++) {
+                boolean isIndicatorParam = random.nextBoolean();
+                int min = 1 + random.nextInt(20);
+                int max = min + random.nextInt(12);
+                int step = 1 + random.nextInt(4);
+                params.add((isIndicatorParam ? "Indicator" : "Other") + index, min, max, step, min);
+                (isIndicatorParam && max >= min + step ? indicatorParams : otherParams).add(index);
+            }
+
+            int[] order = new int[paramCount];
+            for (int index = 0; index < paramCount; index++) {
+                order[index] = index;
+            }
+            assertGrid(enumerate(params, order), new StrategyParamsGrid(params));
+
+            List<Integer> groupedOrder = new ArrayList<Integer>(indicatorParams);
+            groupedOrder.addAll(otherParams);
+            for (int index = 0; index < paramCount; index++) {
+                order[index] = groupedOrder.get(index);
+            }
+            StrategyParamsGrid grid = new StrategyParamsGrid(params, getIndicatorGrouping(params));
+            List<int[]> expected = enumerate(params, order);
+            assertGrid(expected, grid);
+
+            for (long start = 0; start < grid.getTaskCount(); start = grid.getGroupEnd(start)) {
+                long end = grid.getGroupEnd(start);
+                Assert.assertTrue(end > start);
+                for (int indicatorParam : indicatorParams) {
+                    int value = expected.get((int) start)[indicatorParam];
+                    Assert.assertEquals(value, expected.get((int) end - 1)[indicatorParam]);
+                    if (end < grid.getTaskCount() && indicatorParam == indicatorParams.get(indicatorParams.size() - 1)) {
+                        Assert.assertTrue(value != expected.get((int) end)[indicatorParam]);
+                    }
+                }
+            }
+        }
+    }
+}
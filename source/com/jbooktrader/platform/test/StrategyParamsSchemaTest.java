@@ -0,0 +1,93 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.platform.optimizer.*;
+import org.junit.*;
+
+import java.util.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.optimizer.StrategyParamsSchema
+ */
+public class StrategyParamsSchemaTest {
+
+    /**
+     * Packs every combination of the values within the ranges of the schema, and
+     * asserts that no two of them have the same key.
+     */
+    private static void assertUniqueKeys(StrategyParamsSchema schema) {
+        Set<Long> keys = new HashSet<Long>();
+        int[] values = new int[schema.size()];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = schema.getMin(index);
+        }
+
+        long combinations = 0;
+        boolean isDone = false;
+        while (!isDone) {
+            Assert.assertTrue(Arrays.toString(values), keys.add(schema.pack(values)));
+            combinations++;
+            isDone = true;
+            for (int index = values.length - 1; index >= 0 && isDone; index--) {
+                if (values[index] < schema.getMax(index)) {
+                    values[index]++;
+                    isDone = false;
+                } else {
+                    values[index] = schema.getMin(index);
+                }
+            }
+        }
+        Assert.assertEquals(combinations, keys.size());
+    }
+
+    @Test
+    public void testUniqueKeys() {
+        StrategyParamsSchema schema = StrategyParamsSchema.EMPTY
+                .withParam("Negative", -3, 4, 1)
+                .withParam("Single", 7, 7, 1)
+                .withParam("Stepped", 10, 17, 5);
+        Assert.assertTrue(schema.isPackable());
+        assertUniqueKeys(schema);
+    }
+
+    @Test
+    public void testRandomSchemasHaveUniqueKeys() {
+        Random random = new Random(13);
+        for (int trial = 0; trial < 100; trial++) {
+            StrategyParamsSchema schema = StrategyParamsSchema.EMPTY;
+            int paramCount = 1 + random.nextInt(4);
+            for (int index = 0; index < paramCount; index++) {
+                int min = random.nextInt(200) - 100;
+                schema = schema.withParam("Param" + index, min, min + random.nextInt(9), 1 + random.nextInt(3));
+            }
+            assertUniqueKeys(schema);
+        }
+    }
+
+    @Test
+    public void testFullRangesAreUnique() {
+        StrategyParamsSchema schema = StrategyParamsSchema.EMPTY
+                .withParam("First", Integer.MIN_VALUE, Integer.MAX_VALUE, 1)
+                .withParam("Second", Integer.MIN_VALUE, Integer.MAX_VALUE, 1);
+        Assert.assertTrue(schema.isPackable());
+
+        int[] extremes = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+        Set<Long> keys = new HashSet<Long>();
+        for (int first : extremes) {
+            for (int second : extremes) {
+                Assert.assertTrue(keys.add(schema.pack(new int[] {first, second})));
+            }
+        }
+    }
+
+    @Test
+    public void testTooWideRangesAreNotPackable() {
+        Assert.assertTrue(StrategyParamsSchema.EMPTY.isPackable());
+        // 30 + 30 + 4 bits
+        StrategyParamsSchema schema = StrategyParamsSchema.EMPTY
+                .withParam("First", 0, (1 << 30) - 1, 1)
+                .withParam("Second", 0, (1 << 30) - 1, 1)
+                .withParam("Third", 0, 15, 1);
+        Assert.assertTrue(schema.isPackable());
+        Assert.assertFalse(schema.withRange(2, 0, 16, 1).isPackable());
+    }
+}
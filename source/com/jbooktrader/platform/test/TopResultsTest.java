@@ -0,0 +1,99 @@
+package com.jbooktrader.platform.test;
+
+import com.jbooktrader.platform.optimizer.*;
+import com.jbooktrader.platform.performance.*;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.optimizer.TopResults
+ */
+public class TopResultsTest {
+    private static final Comparator<OptimizationResult> COMPARATOR = new ResultComparator(PerformanceMetric.NetProfit);
+
+    private static OptimizationResult getResult(int id, final double netProfit) {
+        StrategyParams params = new StrategyParams();
+        params.add("Id", id, id, 1, id);
+        return new OptimizationResult(params, new PerformanceManager(null, 1, null) {
+            @Override
+            public double getNetProfit() {
+                return netProfit;
+            }
+        });
+    }
+
+    private static List<Double> getNetProfits(List<OptimizationResult> results) {
+        List<Double> netProfits = new ArrayList<Double>();
+        for (OptimizationResult result : results) {
+            netProfits.add(result.get(PerformanceMetric.NetProfit));
+        }
+        return netProfits;
+    }
+
+    /**
+     * Tests that the results added in batches by several threads at once are narrowed down to
+     * the same best results as those of a full sort, and that the count includes them all.
+     */
+    @Test
+    public void testSameAsFullSortAcrossThreads() throws Exception {
+        int threads = 8, batches = 20, batchSize = 50, capacity = 100;
+        Random random = new Random(16);
+        final List<List<OptimizationResult>> batchesByThread = new ArrayList<List<OptimizationResult>>();
+        List<OptimizationResult> allResults = new ArrayList<OptimizationResult>();
+        for (int batch = 0; batch < threads * batches; batch++) {
+            List<OptimizationResult> results = new ArrayList<OptimizationResult>();
+            for (int index = 0; index < batchSize; index++) {
+                // with ties, which the heaps may break either way
+                results.add(getResult(allResults.size(), random.nextInt(5000) - 2500));
+                allResults.add(results.get(index));
+            }
+            batchesByThread.add(results);
+        }
+
+        final TopResults topResults = new TopResults(capacity, COMPARATOR);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int thread = 0; thread < threads; thread++) {
+            final int firstBatch = thread * batches;
+            final int lastBatch = firstBatch + batches;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    for (int batch = firstBatch; batch < lastBatch; batch++) {
+                        topResults.addAll(batchesByThread.get(batch));
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Collections.sort(allResults, COMPARATOR);
+        List<OptimizationResult> results = topResults.get();
+        Assert.assertEquals(getNetProfits(allResults.subList(0, capacity)), getNetProfits(results));
+        Assert.assertEquals(capacity, new HashSet<OptimizationResult>(results).size());
+        Assert.assertTrue(allResults.containsAll(results));
+        Assert.assertEquals(allResults.size(), topResults.getCount());
+    }
+
+    @Test
+    public void testFewerResultsThanCapacity() {
+        TopResults topResults = new TopResults(10, COMPARATOR);
+        Assert.assertTrue(topResults.isEmpty());
+        topResults.addAll(Arrays.asList(getResult(0, 5), getResult(1, -3), getResult(2, 8)));
+
+        Assert.assertEquals(Arrays.asList(8.0, 5.0, -3.0), getNetProfits(topResults.get()));
+        Assert.assertEquals(3, topResults.getCount());
+
+        topResults.clear();
+        Assert.assertTrue(topResults.isEmpty());
+        Assert.assertTrue(topResults.get().isEmpty());
+    }
+}
@@ -0,0 +1,290 @@
+package com.jbooktrader.platform.test;
+
+import com.ib.client.*;
+import com.jbooktrader.platform.backtest.*;
+import com.jbooktrader.platform.commission.*;
+import com.jbooktrader.platform.marketbook.*;
+import com.jbooktrader.platform.model.*;
+import com.jbooktrader.platform.optimizer.*;
+import com.jbooktrader.platform.preferences.*;
+import com.jbooktrader.platform.schedule.*;
+import com.jbooktrader.platform.strategy.*;
+import com.jbooktrader.platform.util.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * unit tests for com.jbooktrader.platform.marketbook.SnapshotWindow,
+ * com.jbooktrader.platform.optimizer.EquityCurve and com.jbooktrader.platform.optimizer.WalkForwardRunner
+ */
+public class WalkForwardTest {
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+    private File dataFile;
+    private Mode mode;
+
+    /**
+     * A strategy which never trades, so that none of its parameter values qualifies.
+     */
+    public static class IdleStrategy extends Strategy {
+        public IdleStrategy(StrategyParams params) throws JBookTraderException {
+            super(params);
+            TradingSchedule tradingSchedule = new TradingSchedule("9:35", "15:55", "America/New_York");
+            setStrategy(ContractFactory.makeFutureContract("ES", "GLOBEX"), tradingSchedule, 50,
+                    CommissionFactory.getBundledNorthAmericaFutureCommission(), 0.25);
+        }
+
+        @Override
+        public void onBookSnapshot() {
+        }
+
+        @Override
+        protected void setParams() {
+            addParam("Period", 1, 9, 1, 5);
+        }
+
+        @Override
+        public void setIndicators() {
+        }
+    }
+
+    /**
+     * A strategy which is long by the specified size whenever it can trade, so that the larger
+     * size is the better one when the price is rising.
+     */
+    public static class LongStrategy extends Strategy {
+        public LongStrategy(StrategyParams params) throws JBookTraderException {
+            super(params);
+            TradingSchedule tradingSchedule = new TradingSchedule("9:35", "15:55", "America/New_York");
+            setStrategy(ContractFactory.makeFutureContract("ES", "GLOBEX"), tradingSchedule, 50,
+                    CommissionFactory.getBundledNorthAmericaFutureCommission(), 0.25);
+            // the details of the contract come from the broker when trading
+            ContractDetails contractDetails = new ContractDetails();
+            contractDetails.m_minTick = 0.25;
+            setContractDetails(contractDetails);
+        }
+
+        @Override
+        public void onBookSnapshot() {
+            setPosition(getParam("Size"));
+        }
+
+        @Override
+        protected void setParams() {
+            addParam("Size", 1, 2, 1, 1);
+        }
+
+        @Override
+        public void setIndicators() {
+        }
+    }
+
+    static class TestContext implements OptimizerContext {
+        private final String fileName;
+        private final List<Throwable> failures = new ArrayList<Throwable>();
+
+        TestContext(String fileName) {
+            this.fileName = fileName;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public MarketSnapshotFilter getDateFilter() {
+            return null;
+        }
+
+        public int getMinTrades() {
+            return 1;
+        }
+
+        public PerformanceMetric getSortCriteria() {
+            return PerformanceMetric.NetProfit;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public void setProgress(String progressText) {
+        }
+
+        public void setProgress(long count, long iterations, String progressText) {
+        }
+
+        public void enableProgress() {
+        }
+
+        public void setRemainingTime(String remainingTime) {
+        }
+
+        public void setResults(List<OptimizationResult> optimizationResults) {
+        }
+
+        public void signalCompleted() {
+        }
+
+        public void showMessage(String message) {
+        }
+
+        public void showException(Throwable t) {
+            failures.add(t);
+        }
+    }
+
+    /**
+     * Writes 4 days of 5 minutes of snapshots, from 10:00, with the price rising by a tick every second.
+     */
+    @Before
+    public void setUp() throws IOException {
+        dataFile = File.createTempFile("walkForward", ".txt");
+        PrintWriter writer = new PrintWriter(new FileWriter(dataFile));
+        try {
+            writer.println("timeZone=" + TIME_ZONE.getID());
+            for (int day = 7; day <= 10; day++) {
+                for (int second = 0; second < 300; second++) {
+                    String time = String.format("01%02d13,10%02d%02d", day, second / 60, second % 60);
+                    writer.println(time + "," + (second % 11) + "," + (100 + second * 0.25) + ",10");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        prefs.override(JBTPreferences.CheckpointOptimization, "false");
+        prefs.override(JBTPreferences.CacheOptimizationResults, "false");
+        mode = Dispatcher.getInstance().getMode();
+        Dispatcher.getInstance().setHeadlessMode(Mode.Optimization);
+    }
+
+    @After
+    public void tearDown() {
+        PreferencesHolder prefs = PreferencesHolder.getInstance();
+        prefs.clearOverride(JBTPreferences.CheckpointOptimization);
+        prefs.clearOverride(JBTPreferences.CacheOptimizationResults);
+        Dispatcher.getInstance().setHeadlessMode(mode);
+        dataFile.delete();
+        new File(dataFile.getPath() + DayIndex.EXTENSION).delete();
+    }
+
+    private static long getTime(int day, int second) {
+        Calendar calendar = Calendar.getInstance(TIME_ZONE);
+        calendar.clear();
+        calendar.set(2013, Calendar.JANUARY, day, 10, second / 60, second % 60);
+        return calendar.getTimeInMillis();
+    }
+
+    private WalkForwardRunner runWalkForward(Strategy strategy, TestContext context) throws JBookTraderException {
+        WalkForwardRunner walkForwardRunner = new WalkForwardRunner(context, strategy, new StrategyParams(strategy.getParams()),
+                OptimizationMethod.DivideAndConquer, 2, 1);
+        walkForwardRunner.run();
+        Assert.assertTrue(String.valueOf(context.failures), context.failures.isEmpty());
+        return walkForwardRunner;
+    }
+
+    @Test
+    public void testWindowReadsThroughSource() {
+        SnapshotSeries snapshots = new SnapshotSeries();
+        for (int index = 0; index < 10; index++) {
+            snapshots.add(1000L * index, index, 100 + index, index);
+        }
+
+        SnapshotWindow window = new SnapshotWindow(snapshots, 3, 7);
+        Assert.assertEquals(4, window.size());
+        Assert.assertEquals(3000L, window.getTime(0));
+        Assert.assertEquals(6.0, window.getBalance(3), 0);
+        Assert.assertEquals(104.0, window.getPrice(1), 0);
+        Assert.assertEquals(5, window.getVolume(2));
+        Assert.assertEquals(6000L, window.getSnapshot(3).getTime());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testWindowBeyondSource() {
+        new SnapshotWindow(new SnapshotSeries(), 0, 1);
+    }
+
+    /**
+     * Tests that each appended curve continues from the net profit where the previous one ended.
+     */
+    @Test
+    public void testStitchedCurves() {
+        EquityCurve first = new EquityCurve();
+        first.add(1, 0);
+        first.add(2, 50);
+        EquityCurve second = new EquityCurve();
+        second.add(3, 0);
+        second.add(4, -20);
+
+        EquityCurve stitched = new EquityCurve();
+        stitched.append(first);
+        stitched.append(second);
+        Assert.assertEquals(4, stitched.size());
+        Assert.assertEquals(50.0, stitched.getNetProfit(2), 0);
+        Assert.assertEquals(4L, stitched.getTime(3));
+        Assert.assertEquals(30.0, stitched.getNetProfit(), 0);
+    }
+
+    /**
+     * Tests that a window in which no strategy qualifies in-sample stays flat out of sample,
+     * rather than failing the other windows, with a method which fails in that case on its own.
+     */
+    @Test
+    public void testWindowWithoutQualifyingStrategies() throws Exception {
+        TestContext context = new TestContext(dataFile.getPath());
+        WalkForwardRunner walkForwardRunner = runWalkForward(new IdleStrategy(new StrategyParams()), context);
+
+        Assert.assertEquals(2, walkForwardRunner.getWindows().size());
+        for (WalkForwardWindow window : walkForwardRunner.getWindows()) {
+            Assert.assertNull(window.getInSampleResult());
+            Assert.assertNull(window.getOutOfSampleResult());
+        }
+        EquityCurve equityCurve = walkForwardRunner.getEquityCurve();
+        Assert.assertEquals(4, equityCurve.size());
+        Assert.assertEquals(0.0, equityCurve.getNetProfit(), 0);
+    }
+
+    /**
+     * Tests that the windows of whole days each test the best in-sample parameters on their
+     * out-of-sample day, and that their curves are stitched in order, each continuing from
+     * the net profit where the previous one ended.
+     */
+    @Test
+    public void testWindowsWithTrades() throws Exception {
+        TestContext context = new TestContext(dataFile.getPath());
+        WalkForwardRunner walkForwardRunner = runWalkForward(new LongStrategy(new StrategyParams()), context);
+
+        List<WalkForwardWindow> windows = walkForwardRunner.getWindows();
+        Assert.assertEquals(2, windows.size());
+        EquityCurve equityCurve = walkForwardRunner.getEquityCurve();
+        int point = 0;
+        double offset = 0;
+        for (int index = 0; index < windows.size(); index++) {
+            WalkForwardWindow window = windows.get(index);
+            Assert.assertEquals(getTime(7 + index, 0), window.getInSampleStartTime());
+            Assert.assertEquals(getTime(9 + index, 0), window.getOutOfSampleStartTime());
+            Assert.assertEquals(getTime(9 + index, 299), window.getOutOfSampleEndTime());
+
+            Assert.assertEquals(2, window.getInSampleResult().getParams().getValue("Size"));
+            OptimizationResult outOfSampleResult = window.getOutOfSampleResult();
+            Assert.assertEquals(2, outOfSampleResult.getParams().getValue("Size"));
+            Assert.assertEquals(1.0, outOfSampleResult.get(PerformanceMetric.Trades), 0);
+            double netProfit = outOfSampleResult.get(PerformanceMetric.NetProfit);
+            Assert.assertTrue(netProfit > 0);
+
+            EquityCurve windowCurve = window.getEquityCurve();
+            Assert.assertEquals(window.getOutOfSampleStartTime(), windowCurve.getTime(0));
+            Assert.assertEquals(window.getOutOfSampleEndTime(), windowCurve.getTime(windowCurve.size() - 1));
+            Assert.assertEquals(netProfit, windowCurve.getNetProfit(), 0);
+            for (int windowPoint = 0; windowPoint < windowCurve.size(); windowPoint++, point++) {
+                Assert.assertEquals(windowCurve.getTime(windowPoint), equityCurve.getTime(point));
+                Assert.assertEquals(offset + windowCurve.getNetProfit(windowPoint), equityCurve.getNetProfit(point), 1e-9);
+            }
+            offset += netProfit;
+        }
+        Assert.assertEquals(point, equityCurve.size());
+        Assert.assertEquals(offset, equityCurve.getNetProfit(), 1e-9);
+    }
+}
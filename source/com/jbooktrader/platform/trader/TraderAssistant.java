@@ -263,7 +263,7 @@ public class TraderAssistant {
 
             openOrders.put(orderID, new OpenOrder(orderID, order, strategy));
 
-            double midPrice = strategy.getMarketBook().getSnapshot().getPrice();
+            double midPrice = strategy.getMarketBook().getPrice();
             double bidAskSpread = strategy.getBidAskSpread();
             double expectedFillPrice = order.m_action.equalsIgnoreCase("BUY") ? (midPrice + bidAskSpread / 2) : (midPrice - bidAskSpread / 2);
             expectedFillPrice=roundToMinTick(strategy.getContractDetails().m_minTick, expectedFillPrice);
@@ -333,7 +333,7 @@ public class TraderAssistant {
     }
     
     public void placeLimitOrderMidMkt(Contract contract, int quantity, String action, Strategy strategy) {
-        double midPrice = roundToMinTick(strategy.getContractDetails().m_minTick, strategy.getMarketBook().getSnapshot().getPrice());
+        double midPrice = roundToMinTick(strategy.getContractDetails().m_minTick, strategy.getMarketBook().getPrice());
     	placeLimitOrder(contract, quantity, action, midPrice, strategy);
         
     }